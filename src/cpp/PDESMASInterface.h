@@ -79,6 +79,38 @@ JNIEXPORT jboolean JNICALL Java_mwgrid_middleware_kernel_pdesmas_PDESMASInterfac
 JNIEXPORT jobject JNICALL Java_mwgrid_middleware_kernel_pdesmas_PDESMASInterface_read
   (JNIEnv *, jobject, jlong, jlong, jint, jint);
 
+/*
+ * Class:     mwgrid_middleware_kernel_pdesmas_PDESMASInterface
+ * Method:    readInt
+ * Signature: (JJII)I
+ */
+JNIEXPORT jint JNICALL Java_mwgrid_middleware_kernel_pdesmas_PDESMASInterface_readInt
+  (JNIEnv *, jobject, jlong, jlong, jint, jint);
+
+/*
+ * Class:     mwgrid_middleware_kernel_pdesmas_PDESMASInterface
+ * Method:    readDouble
+ * Signature: (JJII)D
+ */
+JNIEXPORT jdouble JNICALL Java_mwgrid_middleware_kernel_pdesmas_PDESMASInterface_readDouble
+  (JNIEnv *, jobject, jlong, jlong, jint, jint);
+
+/*
+ * Class:     mwgrid_middleware_kernel_pdesmas_PDESMASInterface
+ * Method:    readLocation
+ * Signature: (JJII)Lmwgrid/middleware/distributedobject/Location;
+ */
+JNIEXPORT jobject JNICALL Java_mwgrid_middleware_kernel_pdesmas_PDESMASInterface_readLocation
+  (JNIEnv *, jobject, jlong, jlong, jint, jint);
+
+/*
+ * Class:     mwgrid_middleware_kernel_pdesmas_PDESMASInterface
+ * Method:    readAll
+ * Signature: (J[JII)[Lmwgrid/middleware/distributedobject/Value;
+ */
+JNIEXPORT jobjectArray JNICALL Java_mwgrid_middleware_kernel_pdesmas_PDESMASInterface_readAll
+  (JNIEnv *, jobject, jlong, jlongArray, jint, jint);
+
 /*
  * Class:     mwgrid_middleware_kernel_pdesmas_PDESMASInterface
  * Method:    write
@@ -3,6 +3,7 @@ package mwgrid.common;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.List;
 import java.util.logging.Logger;
 
 /**
@@ -22,6 +23,7 @@ public final class FilePrint {
         SCHED_STEP("SCHED_Step"),
         SCHED_MEM("SCHED_Mem"),
         SCHED_ROLLBACK("SCHED_Rollback"),
+        SCHED_GVT("SCHED_GVT"),
         DO_ADD("DO_Add"),
         DO_GET("DO_Get"),
         DO_GET_ID("DO_GetID"),
@@ -82,6 +84,34 @@ public final class FilePrint {
         }
     }
     
+    /**
+     * Print a batch of lines to a file, opening it once
+     * 
+     * @param pRank
+     *            - rank
+     * @param pFilename
+     *            - filename
+     * @param pLines
+     *            - lines to print
+     */
+    public static void printToFile(final int pRank, final Filename pFilename,
+            final List<String> pLines) {
+        try {
+            final BufferedWriter outputFile =
+                    new BufferedWriter(new FileWriter(fDataLocation
+                            + pFilename.get() + ".csv", true));
+            for (final String line : pLines) {
+                outputFile.write(line);
+                outputFile.newLine();
+            }
+            outputFile.flush();
+            outputFile.close();
+        } catch (IOException e) {
+            LOG.severe("IOException caught while writing to file");
+            e.printStackTrace();
+        }
+    }
+    
     /**
      * @param pDataLocation
      *            - data location to set
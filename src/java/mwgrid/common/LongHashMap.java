@@ -0,0 +1,321 @@
+package mwgrid.common;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Hash map from primitive long keys to values, using open addressing with
+ * linear probing. Lookups neither box the key nor allocate, and removal
+ * shifts the following entries of the probe sequence back instead of leaving
+ * tombstones, so probe sequences stay short under churn.
+ * <p>
+ * Keys can be packed from a high part and a low part of a given number of
+ * bits, such as an object ID and a variable ID. Keys with the same high part
+ * get neighbouring home slots, and keys with consecutive high parts get home
+ * slots as far apart as the range of low parts put so far, so lookups in key
+ * order walk the table in order instead of jumping around it, and keys with
+ * different high parts don't share home slots. A put widening the range of
+ * low parts rehashes the map.
+ * <p>
+ * Null values are not allowed, a null slot marks an empty slot. The map is
+ * not thread-safe. Iterating over the values fails fast if the map is
+ * modified during the iteration.
+ *
+ * @param <V>
+ *            - value type
+ * @author Dr B.G.W. Craenen
+ */
+public final class LongHashMap<V> implements Iterable<V> {
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 30;
+    private final int fLowBits;
+    private final long fLowMask;
+    // Range of the low parts put, the stride is odd and at least its width
+    private long fMinLow;
+    private long fMaxLow;
+    private long fStride;
+    private int fSlotBits;
+    private long[] fKeys;
+    private Object[] fValues;
+    private int fSize;
+    private int fModificationCount;
+    
+    /**
+     * Constructor
+     */
+    public LongHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * Constructor
+     * 
+     * @param pExpectedSize
+     *            - number of entries expected, so the map does not resize
+     *            before it holds them
+     */
+    public LongHashMap(final int pExpectedSize) {
+        this(pExpectedSize, 0);
+    }
+    
+    /**
+     * Constructor
+     * 
+     * @param pExpectedSize
+     *            - number of entries expected, so the map does not resize
+     *            before it holds them
+     * @param pLowBits
+     *            - number of bits of the low part of the keys, 0 if keys are
+     *            not packed
+     */
+    public LongHashMap(final int pExpectedSize, final int pLowBits) {
+        if (pExpectedSize < 0)
+            throw new IllegalArgumentException("Expected size is negative: "
+                    + pExpectedSize);
+        if (pLowBits < 0 || pLowBits > 32)
+            throw new IllegalArgumentException("Low bits out of range: "
+                    + pLowBits);
+        this.fLowBits = pLowBits;
+        this.fLowMask = (1L << pLowBits) - 1;
+        this.fMinLow = 0;
+        this.fMaxLow = 0;
+        this.fStride = 1;
+        int capacity = DEFAULT_CAPACITY;
+        // Keep the load factor at most 1/2
+        while (capacity < MAX_CAPACITY && capacity / 2 < pExpectedSize)
+            capacity <<= 1;
+        this.allocate(capacity);
+        this.fSize = 0;
+        this.fModificationCount = 0;
+    }
+    
+    /**
+     * @param pKey
+     *            - key
+     * @return (V) value of the key, or null if the key is not in the map
+     */
+    @SuppressWarnings("unchecked")
+    public V get(final long pKey) {
+        final int mask = this.fKeys.length - 1;
+        for (int index = this.index(pKey);; index = (index + 1) & mask) {
+            final Object value = this.fValues[index];
+            if (value == null) return null;
+            if (this.fKeys[index] == pKey) return (V) value;
+        }
+    }
+    
+    /**
+     * @param pKey
+     *            - key
+     * @return (boolean) is the key in the map?
+     */
+    public boolean containsKey(final long pKey) {
+        return this.get(pKey) != null;
+    }
+    
+    /**
+     * @param pKey
+     *            - key
+     * @param pValue
+     *            - value, not null
+     * @return (V) previous value of the key, or null if the key was not in
+     *         the map
+     */
+    @SuppressWarnings("unchecked")
+    public V put(final long pKey, final V pValue) {
+        if (pValue == null)
+            throw new IllegalArgumentException("Null values are not allowed");
+        this.widen(pKey & this.fLowMask);
+        final int mask = this.fKeys.length - 1;
+        int index = this.index(pKey);
+        for (; this.fValues[index] != null; index = (index + 1) & mask) {
+            if (this.fKeys[index] == pKey) {
+                final V result = (V) this.fValues[index];
+                this.fValues[index] = pValue;
+                return result;
+            }
+        }
+        this.fKeys[index] = pKey;
+        this.fValues[index] = pValue;
+        this.fSize++;
+        this.fModificationCount++;
+        if (this.fSize > this.fKeys.length / 2
+                && this.fKeys.length < MAX_CAPACITY)
+            this.resize(this.fKeys.length << 1);
+        return null;
+    }
+    
+    /**
+     * @param pKey
+     *            - key
+     * @return (V) value of the removed key, or null if the key was not in
+     *         the map
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(final long pKey) {
+        final int mask = this.fKeys.length - 1;
+        int index = this.index(pKey);
+        for (;; index = (index + 1) & mask) {
+            if (this.fValues[index] == null) return null;
+            if (this.fKeys[index] == pKey) break;
+        }
+        final V result = (V) this.fValues[index];
+        // Shift back the entries that probed past the removed slot
+        int hole = index;
+        for (int next = (hole + 1) & mask; this.fValues[next] != null; next =
+                (next + 1) & mask) {
+            final int home = this.index(this.fKeys[next]);
+            // Move the entry if its home slot is not in (hole, next]
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                this.fKeys[hole] = this.fKeys[next];
+                this.fValues[hole] = this.fValues[next];
+                hole = next;
+            }
+        }
+        this.fValues[hole] = null;
+        this.fSize--;
+        this.fModificationCount++;
+        return result;
+    }
+    
+    /**
+     * Remove all entries, keeping the capacity
+     */
+    public void clear() {
+        for (int index = 0; index < this.fValues.length; index++)
+            this.fValues[index] = null;
+        this.fSize = 0;
+        this.fModificationCount++;
+    }
+    
+    /**
+     * @return (int) number of entries
+     */
+    public int size() {
+        return this.fSize;
+    }
+    
+    /**
+     * @return (boolean) is the map empty?
+     */
+    public boolean isEmpty() {
+        return this.fSize == 0;
+    }
+    
+    /**
+     * @return (Iterator<V>) iterator over the values, in no particular order
+     */
+    @Override
+    public Iterator<V> iterator() {
+        return new Iterator<V>() {
+            private final int fExpectedModificationCount =
+                    LongHashMap.this.fModificationCount;
+            private int fIndex = this.skipEmpty(0);
+            
+            /**
+             * @param pIndex
+             *            - index to start from
+             * @return (int) index of the first value at or after the index
+             */
+            private int skipEmpty(final int pIndex) {
+                int result = pIndex;
+                while (result < LongHashMap.this.fValues.length
+                        && LongHashMap.this.fValues[result] == null)
+                    result++;
+                return result;
+            }
+            
+            @Override
+            public boolean hasNext() {
+                return this.fIndex < LongHashMap.this.fValues.length;
+            }
+            
+            @SuppressWarnings("unchecked")
+            @Override
+            public V next() {
+                if (this.fExpectedModificationCount != LongHashMap.this
+                        .fModificationCount)
+                    throw new ConcurrentModificationException();
+                if (!this.hasNext()) throw new NoSuchElementException();
+                final V result = (V) LongHashMap.this.fValues[this.fIndex];
+                this.fIndex = this.skipEmpty(this.fIndex + 1);
+                return result;
+            }
+            
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+    
+    /**
+     * @param pKey
+     *            - key
+     * @return (int) home slot of the key
+     */
+    private int index(final long pKey) {
+        // Spread the high parts an odd stride apart, so consecutive high
+        // parts reach every slot, and add the low part, keeping the keys of
+        // one high part together
+        long hash =
+                (pKey >>> this.fLowBits) * this.fStride
+                        + ((pKey & this.fLowMask) - this.fMinLow);
+        // Fold in the bits above the slot bits, so keys differing only there
+        // don't share a home slot, while keys below the capacity keep theirs
+        for (long rest = hash >>> this.fSlotBits; rest != 0; rest >>>=
+                this.fSlotBits)
+            hash ^= rest;
+        return (int) hash & (this.fKeys.length - 1);
+    }
+    
+    /**
+     * Widen the range of low parts to a low part, rehashing the map if the
+     * stride changes
+     * 
+     * @param pLow
+     *            - low part of a key
+     */
+    private void widen(final long pLow) {
+        if (pLow >= this.fMinLow && pLow <= this.fMaxLow) return;
+        if (this.fSize == 0 && this.fStride == 1) {
+            this.fMinLow = pLow;
+            this.fMaxLow = pLow;
+            return;
+        }
+        this.fMinLow = Math.min(this.fMinLow, pLow);
+        this.fMaxLow = Math.max(this.fMaxLow, pLow);
+        this.fStride = (this.fMaxLow - this.fMinLow + 1) | 1;
+        this.resize(this.fKeys.length);
+    }
+    
+    /**
+     * @param pCapacity
+     *            - number of slots, a power of two
+     */
+    private void allocate(final int pCapacity) {
+        this.fKeys = new long[pCapacity];
+        this.fValues = new Object[pCapacity];
+        this.fSlotBits = Integer.numberOfTrailingZeros(pCapacity);
+    }
+    
+    /**
+     * @param pCapacity
+     *            - new number of slots, a power of two
+     */
+    private void resize(final int pCapacity) {
+        final long[] keys = this.fKeys;
+        final Object[] values = this.fValues;
+        this.allocate(pCapacity);
+        final int mask = pCapacity - 1;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (values[slot] == null) continue;
+            int index = this.index(keys[slot]);
+            while (this.fValues[index] != null)
+                index = (index + 1) & mask;
+            this.fKeys[index] = keys[slot];
+            this.fValues[index] = values[slot];
+        }
+    }
+}
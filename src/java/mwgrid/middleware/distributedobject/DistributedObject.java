@@ -1,5 +1,6 @@
 package mwgrid.middleware.distributedobject;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.PriorityQueue;
@@ -23,8 +24,47 @@ public abstract class DistributedObject {
      *            - class ID
      */
     protected DistributedObject(final int pClassId) {
+        this(pClassId, false);
+    }
+    
+    /**
+     * @param pClassId
+     *            - class ID
+     * @param pIncrementalStateSaving
+     *            - save only the overwritten values of private variables, for
+     *            objects with large private state written rarely?
+     */
+    protected DistributedObject(final int pClassId,
+            final boolean pIncrementalStateSaving) {
+        this(pClassId, new Statebase(pIncrementalStateSaving));
+    }
+    
+    /**
+     * Save the private variables every number of time steps only. A rollback
+     * restores the last checkpoint before it and re-executes the steps from
+     * there, with their writes to public variables suppressed. The step
+     * function must then give the same writes when re-executed from the same
+     * state and reads, and must not create distributed objects.
+     * 
+     * @param pClassId
+     *            - class ID
+     * @param pCheckpointInterval
+     *            - number of time steps between checkpoints, at least 1
+     */
+    protected DistributedObject(final int pClassId,
+            final int pCheckpointInterval) {
+        this(pClassId, new Statebase(pCheckpointInterval));
+    }
+    
+    /**
+     * @param pClassId
+     *            - class ID
+     * @param pStatebase
+     *            - statebase
+     */
+    private DistributedObject(final int pClassId, final Statebase pStatebase) {
         DistributedObject.LOG.finest("Constructor");
-        this.fStatebase = new Statebase();
+        this.fStatebase = pStatebase;
         this.addVariable(KernelVariables.CLASS, new Value<Integer>(
                 new Integer(pClassId)));
         this.addVariable(KernelVariables.MESSAGES, new Value<String>(
@@ -74,8 +114,7 @@ public abstract class DistributedObject {
      *             - roll-back exception
      */
     public final int getClassTypeId() throws RollbackException {
-        return ((Integer) this.getVariable(KernelVariables.CLASS).get())
-                .intValue();
+        return this.getInt(KernelVariables.CLASS);
     }
     
     /**
@@ -186,6 +225,38 @@ public abstract class DistributedObject {
         }
     }
     
+    /**
+     * Get a public variable of many objects in one read, which a distributed
+     * kernel sends to the CLPs in one message
+     * 
+     * @param pObjectIds
+     *            - object IDs
+     * @param pVariable
+     *            - public variable
+     * @return (Value<?>[]) values, in the order of the object IDs
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    public Value<?>[] getVariables(final long[] pObjectIds,
+            final Variable pVariable) throws RollbackException {
+        long startTime = 0;
+        if (LOG.isLoggable(Level.FINE)) {
+            startTime = System.currentTimeMillis();
+            LOG.finest("\tGet variable: " + pVariable + ", of "
+                    + pObjectIds.length + " agents, on agent: "
+                    + this.getObjectId() + ", at time: " + this.getTime());
+        }
+        try {
+            return this.fStatebase.getVariables(pObjectIds, pVariable);
+        } finally {
+            if (LOG.isLoggable(Level.FINE))
+                LOG.finest("\tFinished getting variable: " + pVariable
+                        + ", of " + pObjectIds.length + " agents, on agent: "
+                        + this.getObjectId() + ", at time: " + this.getTime()
+                        + ", in: " + (System.currentTimeMillis() - startTime));
+        }
+    }
+    
     /**
      * @see mwgrid.middleware.distributedobject.VariableObject#setVariable(mwgrid.middleware.distributedobject.Variable,
      *      mwgrid.middleware.distributedobject.Value)
@@ -266,6 +337,248 @@ public abstract class DistributedObject {
         }
     }
     
+    /**
+     * Get a variable of type Integer without wrapping it in a Value
+     * 
+     * @param pVariable
+     *            - variable
+     * @return (int) value
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    public int getInt(final Variable pVariable) throws RollbackException {
+        long startTime = 0;
+        if (LOG.isLoggable(Level.FINE)) startTime = System.currentTimeMillis();
+        try {
+            return this.fStatebase.getInt(pVariable);
+        } finally {
+            if (LOG.isLoggable(Level.FINE))
+                this.logGet(startTime, pVariable, this.getObjectId());
+        }
+    }
+    
+    /**
+     * Get a variable of type Integer of another object without wrapping it in a
+     * Value
+     * 
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable
+     * @return (int) value
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    public int getInt(final long pObjectId, final Variable pVariable)
+            throws RollbackException {
+        if (pObjectId == this.getObjectId()) return this.getInt(pVariable);
+        long startTime = 0;
+        if (LOG.isLoggable(Level.FINE)) startTime = System.currentTimeMillis();
+        try {
+            return this.fStatebase.getInt(pObjectId, pVariable);
+        } finally {
+            if (LOG.isLoggable(Level.FINE))
+                this.logGet(startTime, pVariable, pObjectId);
+        }
+    }
+    
+    /**
+     * Get a variable of type Double without wrapping it in a Value
+     * 
+     * @param pVariable
+     *            - variable
+     * @return (double) value
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    public double getDouble(final Variable pVariable) throws RollbackException {
+        long startTime = 0;
+        if (LOG.isLoggable(Level.FINE)) startTime = System.currentTimeMillis();
+        try {
+            return this.fStatebase.getDouble(pVariable);
+        } finally {
+            if (LOG.isLoggable(Level.FINE))
+                this.logGet(startTime, pVariable, this.getObjectId());
+        }
+    }
+    
+    /**
+     * Get a variable of type Double of another object without wrapping it in a
+     * Value
+     * 
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable
+     * @return (double) value
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    public double getDouble(final long pObjectId, final Variable pVariable)
+            throws RollbackException {
+        if (pObjectId == this.getObjectId()) return this.getDouble(pVariable);
+        long startTime = 0;
+        if (LOG.isLoggable(Level.FINE)) startTime = System.currentTimeMillis();
+        try {
+            return this.fStatebase.getDouble(pObjectId, pVariable);
+        } finally {
+            if (LOG.isLoggable(Level.FINE))
+                this.logGet(startTime, pVariable, pObjectId);
+        }
+    }
+    
+    /**
+     * Get a variable of type Location without wrapping it in a Value
+     * 
+     * @param pVariable
+     *            - variable
+     * @return (Location) value
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    public Location getLocation(final Variable pVariable)
+            throws RollbackException {
+        long startTime = 0;
+        if (LOG.isLoggable(Level.FINE)) startTime = System.currentTimeMillis();
+        try {
+            return this.fStatebase.getLocation(pVariable);
+        } finally {
+            if (LOG.isLoggable(Level.FINE))
+                this.logGet(startTime, pVariable, this.getObjectId());
+        }
+    }
+    
+    /**
+     * Get a variable of type Location of another object without wrapping it in
+     * a Value
+     * 
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable
+     * @return (Location) value
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    public Location getLocation(final long pObjectId, final Variable pVariable)
+            throws RollbackException {
+        if (pObjectId == this.getObjectId()) return this.getLocation(pVariable);
+        long startTime = 0;
+        if (LOG.isLoggable(Level.FINE)) startTime = System.currentTimeMillis();
+        try {
+            return this.fStatebase.getLocation(pObjectId, pVariable);
+        } finally {
+            if (LOG.isLoggable(Level.FINE))
+                this.logGet(startTime, pVariable, pObjectId);
+        }
+    }
+    
+    /**
+     * Set a variable of type Integer without wrapping it in a Value
+     * 
+     * @param pVariable
+     *            - variable
+     * @param pValue
+     *            - value
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    public void setInt(final Variable pVariable, final int pValue)
+            throws RollbackException {
+        long startTime = 0;
+        if (LOG.isLoggable(Level.FINE)) startTime = System.currentTimeMillis();
+        try {
+            this.fStatebase.setInt(pVariable, pValue);
+        } finally {
+            if (LOG.isLoggable(Level.FINE))
+                this.logSet(startTime, pVariable, this.getObjectId(),
+                    String.valueOf(pValue));
+        }
+    }
+    
+    /**
+     * Set a variable of type Integer of another object without wrapping it in a
+     * Value
+     * 
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable
+     * @param pValue
+     *            - value
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    public void setInt(final long pObjectId, final Variable pVariable,
+            final int pValue) throws RollbackException {
+        if (pObjectId == this.getObjectId()) {
+            this.setInt(pVariable, pValue);
+            return;
+        }
+        long startTime = 0;
+        if (LOG.isLoggable(Level.FINE)) startTime = System.currentTimeMillis();
+        try {
+            this.fStatebase.setInt(pObjectId, pVariable, pValue);
+        } finally {
+            if (LOG.isLoggable(Level.FINE))
+                this.logSet(startTime, pVariable, pObjectId,
+                    String.valueOf(pValue));
+        }
+    }
+    
+    /**
+     * Set a variable of type Double without wrapping it in a Value
+     * 
+     * @param pVariable
+     *            - variable
+     * @param pValue
+     *            - value
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    public void setDouble(final Variable pVariable, final double pValue)
+            throws RollbackException {
+        long startTime = 0;
+        if (LOG.isLoggable(Level.FINE)) startTime = System.currentTimeMillis();
+        try {
+            this.fStatebase.setDouble(pVariable, pValue);
+        } finally {
+            if (LOG.isLoggable(Level.FINE))
+                this.logSet(startTime, pVariable, this.getObjectId(),
+                    String.valueOf(pValue));
+        }
+    }
+    
+    /**
+     * Set a variable of type Double of another object without wrapping it in a
+     * Value
+     * 
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable
+     * @param pValue
+     *            - value
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    public void setDouble(final long pObjectId, final Variable pVariable,
+            final double pValue) throws RollbackException {
+        if (pObjectId == this.getObjectId()) {
+            this.setDouble(pVariable, pValue);
+            return;
+        }
+        long startTime = 0;
+        if (LOG.isLoggable(Level.FINE)) startTime = System.currentTimeMillis();
+        try {
+            this.fStatebase.setDouble(pObjectId, pVariable, pValue);
+        } finally {
+            if (LOG.isLoggable(Level.FINE))
+                this.logSet(startTime, pVariable, pObjectId,
+                    String.valueOf(pValue));
+        }
+    }
+    
     /**
      * @param pStartLocation
      *            - start location
@@ -341,13 +654,19 @@ public abstract class DistributedObject {
         try {
             final Map<Long, Location> objectMap =
                     this.rangeQuery(pStartLocation, pEndLocation);
-            final Map<Long, Location> result = new HashMap<Long, Location>();
+            long[] objectIds = new long[objectMap.size()];
+            int count = 0;
             for (final long objectId : objectMap.keySet())
-                if (pExcludeObjectId != objectId
-                        && ((Integer) this.getVariable(objectId,
-                            KernelVariables.CLASS).get()).intValue() == pClassId) {
-                    result.put(new Long(objectId),
-                        objectMap.get(new Long(objectId)));
+                if (pExcludeObjectId != objectId) objectIds[count++] = objectId;
+            objectIds = Arrays.copyOf(objectIds, count);
+            // Read the classes of all objects in range at once
+            final Value<?>[] classIds =
+                    this.getVariables(objectIds, KernelVariables.CLASS);
+            final Map<Long, Location> result = new HashMap<Long, Location>();
+            for (int index = 0; index < objectIds.length; index++)
+                if (((Integer) classIds[index].get()).intValue() == pClassId) {
+                    final Long objectId = new Long(objectIds[index]);
+                    result.put(objectId, objectMap.get(objectId));
                 }
             return result;
         } finally {
@@ -493,6 +812,9 @@ public abstract class DistributedObject {
     }
     
     /**
+     * Roll back to the time. When checkpointing, the steps from the restored
+     * checkpoint up to the time are re-executed.
+     * 
      * @param pRollbackTime
      *            - roll-back time
      */
@@ -500,7 +822,22 @@ public abstract class DistributedObject {
         LOG.finest("Rollback to: " + pRollbackTime + ", on agent: "
                 + this.getObjectId() + ", at time: " + this.getTime());
         try {
-            this.fStatebase.rollBack(pRollbackTime);
+            int rollbackTime = pRollbackTime;
+            this.fStatebase.rollBack(rollbackTime);
+            while (this.getTime() < rollbackTime) {
+                this.increaseTime();
+                try {
+                    this.step();
+                } catch (final RollbackException e) {
+                    // A read of the re-executed step was rolled back as well
+                    LOG.fine("Caught RollbackException re-executing step on "
+                            + "agent: " + this.getObjectId() + ", at time: "
+                            + this.getTime());
+                    rollbackTime =
+                            Math.min(e.getRollbackTime(), this.getTime()) - 1;
+                    this.fStatebase.rollBack(rollbackTime);
+                }
+            }
         } finally {
             LOG.finest("Finished rollback to: " + pRollbackTime
                     + ", on agent: " + this.getObjectId() + ", at time: "
@@ -526,6 +863,62 @@ public abstract class DistributedObject {
         }
     }
     
+    /**
+     * @return (int) number of private values held, including history
+     */
+    public int getHistorySize() {
+        return this.fStatebase.getHistorySize();
+    }
+    
+    /**
+     * Log the duration of a typed get
+     * 
+     * @param pStartTime
+     *            - start time of the get
+     * @param pVariable
+     *            - variable
+     * @param pObjectId
+     *            - object ID of the variable
+     */
+    private void logGet(final long pStartTime, final Variable pVariable,
+            final long pObjectId) {
+        final long duration = System.currentTimeMillis() - pStartTime;
+        if (pObjectId == this.getObjectId())
+            FilePrint.printToFile(Kernel.getSSVHandler().getRank(),
+                FilePrint.Filename.DO_GET, duration + "\t" + pVariable
+                        + "\t" + this.getObjectId() + "\t" + this.getTime());
+        else FilePrint.printToFile(Kernel.getSSVHandler().getRank(),
+            FilePrint.Filename.DO_GET_ID, duration + "\t" + pVariable + "\t"
+                    + pObjectId + "\t" + this.getObjectId() + "\t"
+                    + this.getTime());
+    }
+    
+    /**
+     * Log the duration of a typed set
+     * 
+     * @param pStartTime
+     *            - start time of the set
+     * @param pVariable
+     *            - variable
+     * @param pObjectId
+     *            - object ID of the variable
+     * @param pValue
+     *            - value set
+     */
+    private void logSet(final long pStartTime, final Variable pVariable,
+            final long pObjectId, final String pValue) {
+        final long duration = System.currentTimeMillis() - pStartTime;
+        if (pObjectId == this.getObjectId())
+            FilePrint.printToFile(Kernel.getSSVHandler().getRank(),
+                FilePrint.Filename.DO_SET, duration + "\t" + pVariable
+                        + "\t" + pValue + "\t" + this.getObjectId() + "\t"
+                        + this.getTime());
+        else FilePrint.printToFile(Kernel.getSSVHandler().getRank(),
+            FilePrint.Filename.DO_SET_ID, duration + "\t" + pVariable + "\t"
+                    + pObjectId + "\t" + pValue + "\t" + this.getObjectId()
+                    + "\t" + this.getTime());
+    }
+    
     /**
      * @throws RollbackException
      *             - interrupted simulation exception
@@ -0,0 +1,242 @@
+package mwgrid.middleware.kernel;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import mwgrid.middleware.distributedobject.Value;
+import mwgrid.middleware.distributedobject.Variable;
+import mwgrid.middleware.exception.InvalidVariableException;
+
+/**
+ * Private variables saved in periodic checkpoints. Only the current value of
+ * each variable is kept between checkpoints, and the values of all variables
+ * are copied at every time that is a multiple of the checkpoint interval. A
+ * rollback restores the last checkpoint at or before the rollback time, the
+ * owner re-executes its steps from there up to the rollback time.
+ * <p>
+ * A checkpoint is taken on the first write after its time, so a checkpoint
+ * of a time holds the values written up to and including that time, and no
+ * checkpoint is taken while no variable is written.
+ *
+ * @author Dr B.G.W. Craenen <b.g.w.craenen@cs.bham.ac.uk>
+ */
+class CheckpointVariableMap {
+    private static final Logger LOG = Logger
+            .getLogger(CheckpointVariableMap.class.getPackage().getName());
+    private final int fInterval;
+    private VariableArrayMap<Value<?>> fCurrentValues;
+    private final TreeMap<Integer, VariableArrayMap<Value<?>>> fCheckpoints;
+    // Time of the last write or restored checkpoint
+    private int fCurrentTime;
+    // Number of values held in the checkpoints
+    private int fCheckpointSize;
+    
+    /**
+     * Constructor
+     * 
+     * @param pInterval
+     *            - number of time steps between checkpoints
+     */
+    CheckpointVariableMap(final int pInterval) {
+        if (pInterval < 1)
+            throw new IllegalArgumentException(
+                    "Checkpoint interval must be at least 1");
+        this.fInterval = pInterval;
+        this.fCurrentValues = new VariableArrayMap<Value<?>>();
+        this.fCheckpoints = new TreeMap<Integer, VariableArrayMap<Value<?>>>();
+        this.fCurrentTime = 0;
+        this.fCheckpointSize = 0;
+    }
+    
+    /**
+     * Clear the variables and the checkpoints
+     */
+    void clear() {
+        this.fCurrentValues.clear();
+        this.fCheckpoints.clear();
+        this.fCheckpointSize = 0;
+    }
+    
+    /**
+     * @param pVariable
+     *            - variable
+     * @return (boolean) is the variable in the map?
+     */
+    boolean containsVariable(final Variable pVariable) {
+        return this.fCurrentValues.containsVariable(pVariable);
+    }
+    
+    /**
+     * @param pVariable
+     *            - variable
+     * @param pValue
+     *            - value
+     * @param pTime
+     *            - time
+     */
+    void add(final Variable pVariable, final Value<?> pValue, final int pTime) {
+        if (this.fCurrentValues.containsVariable(pVariable))
+            throw new InvalidVariableException();
+        this.advance(pTime);
+        this.fCurrentValues.put(pVariable, pValue);
+    }
+    
+    /**
+     * @param pVariable
+     *            - variable
+     * @param pTime
+     *            - time, not before the last write
+     * @return (Value<?>) current value
+     */
+    Value<?> get(final Variable pVariable, final int pTime) {
+        final Value<?> result = this.fCurrentValues.get(pVariable);
+        if (result == null) throw new InvalidVariableException();
+        // Values before the last write are only kept in checkpoints
+        if (pTime < this.fCurrentTime)
+            throw new IllegalStateException("Read of " + pVariable
+                    + " at time " + pTime + " before the last write at time "
+                    + this.fCurrentTime);
+        return result;
+    }
+    
+    /**
+     * @param pVariable
+     *            - variable
+     * @param pValue
+     *            - value
+     * @param pTime
+     *            - time
+     */
+    void set(final Variable pVariable, final Value<?> pValue, final int pTime) {
+        if (!this.fCurrentValues.containsVariable(pVariable))
+            throw new InvalidVariableException();
+        this.advance(pTime);
+        this.fCurrentValues.put(pVariable, pValue);
+    }
+    
+    /**
+     * Roll back to the last checkpoint at or before the time
+     * 
+     * @param pTime
+     *            - time
+     * @return (int) time restored to, from which the steps up to the time have
+     *         to be re-executed
+     */
+    int removeMoreThan(final int pTime) {
+        // Nothing was written after the time
+        if (this.fCurrentTime <= pTime) return pTime;
+        final Map.Entry<Integer, VariableArrayMap<Value<?>>> checkpoint =
+                this.fCheckpoints.floorEntry(new Integer(pTime));
+        if (checkpoint == null)
+            throw new IllegalStateException(
+                    "No checkpoint at or before rollback time " + pTime
+                            + ", checkpoints: " + this.fCheckpoints.keySet());
+        this.clear(this.fCheckpoints.tailMap(checkpoint.getKey(), false));
+        this.fCurrentValues =
+                new VariableArrayMap<Value<?>>(checkpoint.getValue());
+        this.fCurrentTime = checkpoint.getKey().intValue();
+        return this.fCurrentTime;
+    }
+    
+    /**
+     * Fossil collect, dropping the checkpoints before the last one at or
+     * before the GVT, as no rollback past the GVT restores those
+     * 
+     * @param pGlobalVariableTime
+     *            - time
+     */
+    void removeLessThan(final int pGlobalVariableTime) {
+        LOG.finest("RemoveLessThan with time: " + pGlobalVariableTime);
+        final Integer time =
+                this.fCheckpoints.floorKey(new Integer(pGlobalVariableTime));
+        if (time != null) this.clear(this.fCheckpoints.headMap(time));
+    }
+    
+    /**
+     * @return (int) number of values held, current values and checkpoints
+     */
+    int getHistorySize() {
+        return this.fCurrentValues.size() + this.fCheckpointSize;
+    }
+    
+    /**
+     * Remove checkpoints, keeping the number of values held in the checkpoints
+     * up to date
+     * 
+     * @param pCheckpoints
+     *            - view of the checkpoints to remove
+     */
+    private void clear(
+            final Map<Integer, VariableArrayMap<Value<?>>> pCheckpoints) {
+        for (final VariableArrayMap<Value<?>> checkpoint : pCheckpoints
+                .values())
+            this.fCheckpointSize -= checkpoint.size();
+        pCheckpoints.clear();
+    }
+    
+    /**
+     * Put a checkpoint, keeping the number of values held in the checkpoints
+     * up to date
+     * 
+     * @param pTime
+     *            - time of the checkpoint
+     * @param pCheckpoint
+     *            - values at the time
+     */
+    private void putCheckpoint(final int pTime,
+            final VariableArrayMap<Value<?>> pCheckpoint) {
+        final VariableArrayMap<Value<?>> replaced =
+                this.fCheckpoints.put(new Integer(pTime), pCheckpoint);
+        if (replaced != null) this.fCheckpointSize -= replaced.size();
+        this.fCheckpointSize += pCheckpoint.size();
+    }
+    
+    /**
+     * Move the current time forward to a write, checkpointing the current
+     * values if a checkpoint time is passed
+     * 
+     * @param pTime
+     *            - time of the write
+     */
+    private void advance(final int pTime) {
+        if (pTime <= this.fCurrentTime) {
+            assert pTime == this.fCurrentTime : "Write before the last write! time: "
+                    + pTime;
+            return;
+        }
+        // The values have not changed since the current time, so they are
+        // the values at the last checkpoint time before the write
+        final int checkpointTime = (pTime - 1) / this.fInterval * this.fInterval;
+        if (checkpointTime >= this.fCurrentTime) {
+            final VariableArrayMap<Value<?>> checkpoint =
+                    new VariableArrayMap<Value<?>>(this.fCurrentValues);
+            this.putCheckpoint(checkpointTime, checkpoint);
+            // Without an earlier checkpoint a rollback between the current
+            // time and the checkpoint time would have nothing to restore, the
+            // values were the same from the current time on
+            if (checkpointTime > this.fCurrentTime
+                    && this.fCheckpoints.floorKey(new Integer(
+                        this.fCurrentTime)) == null)
+                this.putCheckpoint(this.fCurrentTime, checkpoint);
+        }
+        this.fCurrentTime = pTime;
+    }
+    
+    @Override
+    public String toString() {
+        final StringBuilder result = new StringBuilder();
+        result.append("CheckpointVariableMap {");
+        for (int slot = 0; slot < this.fCurrentValues.capacity(); slot++) {
+            final Value<?> value = this.fCurrentValues.getAt(slot);
+            if (value == null) continue;
+            result.append(" ("
+                    + this.fCurrentValues.getVariableAt(slot).getVariableId());
+            result.append(", " + value);
+            result.append("),");
+        }
+        result.append(" time: " + this.fCurrentTime + ", checkpoints: "
+                + this.fCheckpoints.keySet() + "}.");
+        return result.toString();
+    }
+}
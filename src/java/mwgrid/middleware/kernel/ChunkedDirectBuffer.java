@@ -0,0 +1,115 @@
+package mwgrid.middleware.kernel;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Growable off-heap memory addressed with a long. The memory is made up of
+ * direct byte buffers (chunks) which are allocated on first use, so sparse
+ * address ranges only cost the chunks touched. Unwritten memory reads as 0.
+ * Values must not straddle chunks, which holds as long as values are aligned
+ * on their size.
+ *
+ * @author Dr B.G.W. Craenen <b.g.w.craenen@cs.bham.ac.uk>
+ */
+final class ChunkedDirectBuffer {
+    private final int fChunkShift;
+    private final long fChunkMask;
+    private ByteBuffer[] fChunks;
+    private int fAllocatedChunks;
+    
+    /**
+     * Constructor
+     * 
+     * @param pChunkShift
+     *            - log2 of the chunk size in bytes
+     */
+    ChunkedDirectBuffer(final int pChunkShift) {
+        this.fChunkShift = pChunkShift;
+        this.fChunkMask = (1L << pChunkShift) - 1;
+        this.fChunks = new ByteBuffer[4];
+        this.fAllocatedChunks = 0;
+    }
+    
+    /**
+     * @param pAddress
+     *            - address
+     * @return (int) int at the address
+     */
+    int getInt(final long pAddress) {
+        final ByteBuffer chunk = this.chunkOrNull(pAddress);
+        if (chunk == null) return 0;
+        return chunk.getInt((int) (pAddress & this.fChunkMask));
+    }
+    
+    /**
+     * @param pAddress
+     *            - address
+     * @param pValue
+     *            - int to put at the address
+     */
+    void putInt(final long pAddress, final int pValue) {
+        this.chunk(pAddress).putInt((int) (pAddress & this.fChunkMask), pValue);
+    }
+    
+    /**
+     * @param pAddress
+     *            - address
+     * @return (long) long at the address
+     */
+    long getLong(final long pAddress) {
+        final ByteBuffer chunk = this.chunkOrNull(pAddress);
+        if (chunk == null) return 0;
+        return chunk.getLong((int) (pAddress & this.fChunkMask));
+    }
+    
+    /**
+     * @param pAddress
+     *            - address
+     * @param pValue
+     *            - long to put at the address
+     */
+    void putLong(final long pAddress, final long pValue) {
+        this.chunk(pAddress)
+                .putLong((int) (pAddress & this.fChunkMask), pValue);
+    }
+    
+    /**
+     * @return (long) bytes allocated off-heap
+     */
+    long getAllocatedBytes() {
+        return (long) this.fAllocatedChunks << this.fChunkShift;
+    }
+    
+    /**
+     * @param pAddress
+     *            - address
+     * @return (ByteBuffer) chunk holding the address, null if not allocated
+     */
+    private ByteBuffer chunkOrNull(final long pAddress) {
+        final long index = pAddress >>> this.fChunkShift;
+        if (index >= this.fChunks.length) return null;
+        return this.fChunks[(int) index];
+    }
+    
+    /**
+     * @param pAddress
+     *            - address
+     * @return (ByteBuffer) chunk holding the address, allocated if needed
+     */
+    private ByteBuffer chunk(final long pAddress) {
+        final int index = (int) (pAddress >>> this.fChunkShift);
+        if (index >= this.fChunks.length)
+            this.fChunks =
+                    Arrays.copyOf(this.fChunks, Math.max(index + 1,
+                        this.fChunks.length * 2));
+        if (this.fChunks[index] == null) {
+            this.fChunks[index] =
+                    ByteBuffer.allocateDirect(1 << this.fChunkShift).order(
+                        ByteOrder.nativeOrder());
+            this.fAllocatedChunks++;
+        }
+        return this.fChunks[index];
+    }
+}
@@ -0,0 +1,618 @@
+package mwgrid.middleware.kernel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+import mwgrid.middleware.distributedobject.KernelVariables;
+import mwgrid.middleware.distributedobject.Location;
+import mwgrid.middleware.distributedobject.Value;
+import mwgrid.middleware.distributedobject.Variable;
+import mwgrid.middleware.exception.InvalidTypeException;
+import mwgrid.middleware.exception.SSVAlreadyExistsException;
+import mwgrid.middleware.exception.SSVNotFoundException;
+
+/**
+ * Sequential SSV handler keeping all SSVs off-heap, for runs with more agents
+ * than SequentialSSVHandler fits in the heap. It behaves like the sequential
+ * handler.
+ * <p>
+ * Two off-heap columns hold the SSVs:
+ * <ul>
+ * <li>a slot table indexed by object ID times the slots per object plus the
+ * variable ID, holding the last record written and the type of the SSV. Slot
+ * 0 of each object, unused as variable IDs start at 1, holds the object's GVT
+ * time;</li>
+ * <li>a record log holding a time, the previous record of the same SSV and a
+ * 64 bit payload per write. Integers, doubles and locations are stored in the
+ * payload itself, strings and other types as an index in an on-heap reference
+ * table.</li>
+ * </ul>
+ * An SSV costs 8 bytes plus 16 bytes per write. Reads walk the records of the
+ * SSV from the last write, so reads close to the last write are cheap. The
+ * record log is compacted on GVT updates once it has doubled since the last
+ * compaction, keeping the last write at or before the GVT and all later
+ * writes.
+ *
+ * @author Dr B.G.W. Craenen <b.g.w.craenen@cs.bham.ac.uk>
+ */
+public class ColumnarSSVHandler implements SSVHandler {
+    private static final Logger LOG = Logger
+            .getLogger(ColumnarSSVHandler.class.getPackage().getName());
+    public static final int DEFAULT_SLOTS_PER_OBJECT = 8;
+    private static final int CHUNK_SHIFT = 24;
+    private static final int SLOT_BYTES = 8;
+    private static final int RECORD_BYTES = 16;
+    private static final long MIN_COMPACTION_RECORDS = 1024;
+    private static final int TYPE_INTEGER = 1;
+    private static final int TYPE_DOUBLE = 2;
+    private static final int TYPE_LOCATION = 3;
+    private static final int TYPE_REFERENCE = 4;
+    private final int fSlotsPerObject;
+    private final ChunkedDirectBuffer fSlots;
+    private ChunkedDirectBuffer fRecords;
+    private List<Object> fReferences;
+    private int fRecordCount;
+    private int fCompactedRecordCount;
+    private long fMinObjectId;
+    private long fMaxObjectId;
+    private int fCollectedTime;
+    
+    /**
+     * Constructor
+     */
+    public ColumnarSSVHandler() {
+        this(DEFAULT_SLOTS_PER_OBJECT);
+    }
+    
+    /**
+     * Constructor
+     * 
+     * @param pSlotsPerObject
+     *            - slots per object, more than the highest variable ID
+     */
+    public ColumnarSSVHandler(final int pSlotsPerObject) {
+        if (pSlotsPerObject < 2)
+            throw new IllegalArgumentException(
+                    "Slots per object must be at least 2");
+        this.fSlotsPerObject = pSlotsPerObject;
+        this.fSlots = new ChunkedDirectBuffer(CHUNK_SHIFT);
+        this.fRecords = new ChunkedDirectBuffer(CHUNK_SHIFT);
+        this.fReferences = new ArrayList<Object>();
+        this.fRecordCount = 0;
+        this.fCompactedRecordCount = 0;
+        this.fMinObjectId = Long.MAX_VALUE;
+        this.fMaxObjectId = Long.MIN_VALUE;
+        this.fCollectedTime = Integer.MIN_VALUE;
+    }
+    
+    @Override
+    public void initialise(final String pDataLocation) {
+        // Do nothing
+    }
+    
+    @Override
+    public synchronized boolean add(final long pObjectId,
+            final Variable pVariable, final Value<?> pInitValue,
+            final int pTime) throws SSVAlreadyExistsException {
+        LOG.finest("Add, agent: " + pObjectId + ", variable: " + pVariable
+                + ", value: " + pInitValue + ", time: " + pTime);
+        final long slot = this.slotAddress(pObjectId, pVariable);
+        if (this.fSlots.getInt(slot) != 0)
+            throw new SSVAlreadyExistsException();
+        final int type = typeOf(pInitValue.getType());
+        final int record =
+                this.appendRecord(pTime, -1, this.encode(type, pInitValue));
+        this.fSlots.putInt(slot, record + 1);
+        this.fSlots.putInt(slot + 4, type);
+        if (pObjectId < this.fMinObjectId) this.fMinObjectId = pObjectId;
+        if (pObjectId > this.fMaxObjectId) this.fMaxObjectId = pObjectId;
+        return true;
+    }
+    
+    @Override
+    public synchronized Value<?> read(final long pAgentId,
+            final long pObjectId, final Variable pVariable, final int pTime)
+            throws SSVNotFoundException {
+        LOG.finest("Read, agent: " + pAgentId + ", objectID: " + pObjectId
+                + ", variable: " + pVariable + ", time: " + pTime);
+        final long slot = this.slotAddress(pObjectId, pVariable);
+        if (this.fSlots.getInt(slot) == 0) throw new SSVNotFoundException();
+        return this.decode(this.fSlots.getInt(slot + 4), this.readPayload(
+            slot, pTime));
+    }
+    
+    @Override
+    public synchronized boolean write(final long pAgentId,
+            final long pObjectId, final Variable pVariable,
+            final Value<?> pValue, final int pTime)
+            throws SSVNotFoundException {
+        LOG.finest("write, agent: " + pAgentId + ", objectID: " + pObjectId
+                + ", variable: " + pVariable + ", value: " + pValue.get()
+                + ", time: " + pTime);
+        final long slot = this.slotAddress(pObjectId, pVariable);
+        if (this.fSlots.getInt(slot) == 0) throw new SSVNotFoundException();
+        final int type = this.fSlots.getInt(slot + 4);
+        if (type != TYPE_REFERENCE)
+            return this.writePayload(slot, this.encode(type, pValue), pTime);
+        // Only keep the reference if the write succeeds
+        if (!this.writePayload(slot, this.fReferences.size(), pTime))
+            return false;
+        this.fReferences.add(pValue.get());
+        return true;
+    }
+    
+    @Override
+    public synchronized int readInt(final long pAgentId,
+            final long pObjectId, final Variable pVariable, final int pTime)
+            throws SSVNotFoundException {
+        LOG.finest("ReadInt, agent: " + pAgentId + ", objectID: " + pObjectId
+                + ", variable: " + pVariable + ", time: " + pTime);
+        return (int) this.readPayload(this.typedSlotAddress(pObjectId,
+            pVariable, TYPE_INTEGER), pTime);
+    }
+    
+    @Override
+    public synchronized double readDouble(final long pAgentId,
+            final long pObjectId, final Variable pVariable, final int pTime)
+            throws SSVNotFoundException {
+        LOG.finest("ReadDouble, agent: " + pAgentId + ", objectID: "
+                + pObjectId + ", variable: " + pVariable + ", time: " + pTime);
+        return Double.longBitsToDouble(this.readPayload(this
+                .typedSlotAddress(pObjectId, pVariable, TYPE_DOUBLE), pTime));
+    }
+    
+    @Override
+    public synchronized Location readLocation(final long pAgentId,
+            final long pObjectId, final Variable pVariable, final int pTime)
+            throws SSVNotFoundException {
+        LOG.finest("ReadLocation, agent: " + pAgentId + ", objectID: "
+                + pObjectId + ", variable: " + pVariable + ", time: " + pTime);
+        final long payload =
+                this.readPayload(this.typedSlotAddress(pObjectId, pVariable,
+                    TYPE_LOCATION), pTime);
+        return new Location((int) (payload >> 32), (int) payload);
+    }
+    
+    @Override
+    public synchronized Value<?>[] readAll(final long pAgentId,
+            final long[] pObjectIds, final Variable pVariable, final int pTime)
+            throws SSVNotFoundException {
+        final Value<?>[] result = new Value<?>[pObjectIds.length];
+        for (int index = 0; index < pObjectIds.length; index++)
+            result[index] =
+                    this.read(pAgentId, pObjectIds[index], pVariable, pTime);
+        return result;
+    }
+    
+    @Override
+    public synchronized boolean writeInt(final long pAgentId,
+            final long pObjectId, final Variable pVariable, final int pValue,
+            final int pTime) throws SSVNotFoundException {
+        LOG.finest("writeInt, agent: " + pAgentId + ", objectID: "
+                + pObjectId + ", variable: " + pVariable + ", value: "
+                + pValue + ", time: " + pTime);
+        return this.writePayload(this.typedSlotAddress(pObjectId, pVariable,
+            TYPE_INTEGER), pValue, pTime);
+    }
+    
+    @Override
+    public synchronized boolean writeDouble(final long pAgentId,
+            final long pObjectId, final Variable pVariable,
+            final double pValue, final int pTime) throws SSVNotFoundException {
+        LOG.finest("writeDouble, agent: " + pAgentId + ", objectID: "
+                + pObjectId + ", variable: " + pVariable + ", value: "
+                + pValue + ", time: " + pTime);
+        return this.writePayload(this.typedSlotAddress(pObjectId, pVariable,
+            TYPE_DOUBLE), Double.doubleToRawLongBits(pValue), pTime);
+    }
+    
+    @Override
+    public synchronized Map<Long, Location> rangeQuery(final long pAgentId,
+            final int pTime, final Location pStartLocation,
+            final Location pEndLocation) {
+        LOG.finest("rangeQuery, agent: " + pAgentId + ", time: " + pTime
+                + ", start: " + pStartLocation + ", end: " + pEndLocation);
+        final Map<Long, Location> result = new HashMap<Long, Location>();
+        for (long objectId = this.fMinObjectId; objectId <= this.fMaxObjectId; objectId++) {
+            final long slot =
+                    this.slotAddress(objectId, KernelVariables.LOCATION);
+            if (this.fSlots.getInt(slot) == 0) continue;
+            final long payload = this.readPayload(slot, pTime);
+            final Location location =
+                    new Location((int) (payload >> 32), (int) payload);
+            if (location.in(pStartLocation, pEndLocation))
+                result.put(new Long(objectId), location);
+        }
+        return result;
+    }
+    
+    /**
+     * @param pAgentId
+     *            - agent ID
+     * @param pTime
+     *            - time
+     */
+    @Override
+    public void handleRollback(final long pAgentId, final int pTime) {
+        // Do nothing
+    }
+    
+    @Override
+    public boolean isInRollbackMap(final long pAgentId) {
+        return false;
+    }
+    
+    @Override
+    public int getRollbackMapTime(final long pAgentId) {
+        return -1;
+    }
+    
+    @Override
+    public long pollRollback() {
+        return -1;
+    }
+    
+    @Override
+    public synchronized void removeVariables(final long pObjectId) {
+        LOG.finest("removeVariables, agent: " + pObjectId);
+        // The records become garbage, removed by the next compaction
+        for (int variable = 1; variable < this.fSlotsPerObject; variable++) {
+            final long slot =
+                    (pObjectId * this.fSlotsPerObject + variable) * SLOT_BYTES;
+            if (this.fSlots.getInt(slot) == 0) continue;
+            this.fSlots.putInt(slot, 0);
+            this.fSlots.putInt(slot + 4, 0);
+        }
+    }
+    
+    @Override
+    public boolean isClp() {
+        return false;
+    }
+    
+    @Override
+    public boolean isAlp() {
+        return true;
+    }
+    
+    @Override
+    public int getNumberOfAlps() {
+        return 0;
+    }
+    
+    @Override
+    public int getRank() {
+        return 0;
+    }
+    
+    @Override
+    public synchronized void setGVTTime(final long pObjectId, final int pTime) {
+        LOG.finest("Set GVT time for agent: " + pObjectId + ", to time: "
+                + pTime);
+        this.fSlots.putInt(pObjectId * this.fSlotsPerObject * SLOT_BYTES,
+            pTime + 1);
+        if (pObjectId < this.fMinObjectId) this.fMinObjectId = pObjectId;
+        if (pObjectId > this.fMaxObjectId) this.fMaxObjectId = pObjectId;
+    }
+    
+    @Override
+    public synchronized int getGVTTime() {
+        int result = Integer.MAX_VALUE;
+        boolean found = false;
+        for (long objectId = this.fMinObjectId; objectId <= this.fMaxObjectId; objectId++) {
+            final int time =
+                    this.fSlots.getInt(objectId * this.fSlotsPerObject
+                            * SLOT_BYTES) - 1;
+            if (time < 0) continue;
+            found = true;
+            if (time < result) result = time;
+        }
+        if (!found) throw new NoSuchElementException();
+        return result - 1;
+    }
+    
+    @Override
+    public void sendGVTMessage() {
+        // The GVT is computed locally, so it is available straight away
+        Kernel.getScheduler().signalStateChange();
+    }
+    
+    @Override
+    public boolean isGVTSignalled() {
+        // The GVT only changes through setGVTTime, called by the scheduler
+        // itself, and sendGVTMessage, which signals
+        return true;
+    }
+    
+    @Override
+    public synchronized long getHistorySize() {
+        // Includes records of removed SSVs until the next compaction
+        return this.fRecordCount;
+    }
+    
+    @Override
+    public synchronized long cleanToGVT(final int pGlobalVariableTime) {
+        LOG.finest("Clean to GVT: " + pGlobalVariableTime);
+        if (pGlobalVariableTime > this.fCollectedTime)
+            this.fCollectedTime = pGlobalVariableTime;
+        if (this.fRecordCount < MIN_COMPACTION_RECORDS
+                || this.fRecordCount < 2 * this.fCompactedRecordCount)
+            return 0;
+        final int recordsBefore = this.fRecordCount;
+        final int referencesBefore = this.fReferences.size();
+        final ChunkedDirectBuffer oldRecords = this.fRecords;
+        final List<Object> oldReferences = this.fReferences;
+        this.fRecords = new ChunkedDirectBuffer(CHUNK_SHIFT);
+        this.fReferences = new ArrayList<Object>();
+        this.fRecordCount = 0;
+        int[] chain = new int[16];
+        for (long objectId = this.fMinObjectId; objectId <= this.fMaxObjectId; objectId++) {
+            for (int variable = 1; variable < this.fSlotsPerObject; variable++) {
+                final long slot =
+                        (objectId * this.fSlotsPerObject + variable)
+                                * SLOT_BYTES;
+                int record = this.fSlots.getInt(slot) - 1;
+                if (record < 0) continue;
+                final int type = this.fSlots.getInt(slot + 4);
+                // Collect the records to keep, newest first
+                int length = 0;
+                while (record >= 0) {
+                    if (length == chain.length)
+                        chain = Arrays.copyOf(chain, length * 2);
+                    chain[length++] = record;
+                    final long address = recordAddress(record);
+                    if (oldRecords.getInt(address) <= pGlobalVariableTime)
+                        break;
+                    record = oldRecords.getInt(address + 4);
+                }
+                // Copy them oldest first, so the previous records exist
+                int previous = -1;
+                for (int index = length - 1; index >= 0; index--) {
+                    final long address = recordAddress(chain[index]);
+                    long payload = oldRecords.getLong(address + 8);
+                    if (type == TYPE_REFERENCE) {
+                        this.fReferences.add(oldReferences.get((int) payload));
+                        payload = this.fReferences.size() - 1;
+                    }
+                    previous =
+                            this.appendRecord(oldRecords.getInt(address),
+                                previous, payload);
+                }
+                this.fSlots.putInt(slot, previous + 1);
+            }
+        }
+        this.fCompactedRecordCount = this.fRecordCount;
+        final long result =
+                (long) (recordsBefore - this.fRecordCount) * RECORD_BYTES
+                        + (long) (referencesBefore - this.fReferences.size())
+                        * SavedStateVariable.SLOT_BYTES;
+        LOG.fine("Clean to GVT: " + pGlobalVariableTime + ", records: "
+                + recordsBefore + " to " + this.fRecordCount
+                + ", reclaimed: " + result + " bytes");
+        return result;
+    }
+    
+    /**
+     * @return (long) bytes allocated off-heap
+     */
+    public synchronized long getAllocatedBytes() {
+        return this.fSlots.getAllocatedBytes()
+                + this.fRecords.getAllocatedBytes();
+    }
+    
+    /**
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable
+     * @return (long) address of the slot
+     */
+    private long slotAddress(final long pObjectId, final Variable pVariable) {
+        final int variableId = pVariable.getVariableId();
+        if (variableId < 1 || variableId >= this.fSlotsPerObject)
+            throw new IllegalArgumentException("Variable ID " + variableId
+                    + " out of slot range");
+        return (pObjectId * this.fSlotsPerObject + variableId) * SLOT_BYTES;
+    }
+    
+    /**
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable
+     * @param pType
+     *            - type the SSV must have
+     * @return (long) address of the slot
+     * @throws SSVNotFoundException
+     *             - thrown if SSV not found
+     */
+    private long typedSlotAddress(final long pObjectId,
+            final Variable pVariable, final int pType)
+            throws SSVNotFoundException {
+        final long result = this.slotAddress(pObjectId, pVariable);
+        if (this.fSlots.getInt(result) == 0) throw new SSVNotFoundException();
+        if (this.fSlots.getInt(result + 4) != pType)
+            throw new InvalidTypeException("Variable " + pVariable
+                    + " is not of the type read or written");
+        return result;
+    }
+    
+    /**
+     * @param pSlot
+     *            - address of the slot of an existing SSV
+     * @param pTime
+     *            - time
+     * @return (long) payload of the last write at or before the time
+     */
+    private long readPayload(final long pSlot, final int pTime) {
+        return this.fRecords.getLong(recordAddress(this.floorRecord(
+            this.fSlots.getInt(pSlot) - 1, pTime)) + 8);
+    }
+    
+    /**
+     * @param pSlot
+     *            - address of the slot of an existing SSV
+     * @param pPayload
+     *            - payload
+     * @param pTime
+     *            - time
+     * @return (boolean) success, false if there is a write at the time
+     */
+    private boolean writePayload(final long pSlot, final long pPayload,
+            final int pTime) {
+        final int head = this.fSlots.getInt(pSlot) - 1;
+        final int headTime = this.recordTime(head);
+        // Writes usually come in time order, append those
+        if (headTime < pTime) {
+            final int record = this.appendRecord(pTime, head, pPayload);
+            this.fSlots.putInt(pSlot, record + 1);
+            return true;
+        }
+        if (headTime == pTime) return false;
+        // Find the records before and after the time
+        int next = head;
+        int previous = this.recordPrevious(head);
+        while (previous >= 0 && this.recordTime(previous) > pTime) {
+            next = previous;
+            previous = this.recordPrevious(previous);
+        }
+        // If before initial time throw Illegal argument
+        if (previous < 0) throw new IllegalArgumentException();
+        if (this.recordTime(previous) == pTime) return false;
+        final int record = this.appendRecord(pTime, previous, pPayload);
+        this.fRecords.putInt(recordAddress(next) + 4, record);
+        return true;
+    }
+    
+    /**
+     * @param pRecord
+     *            - record index
+     * @return (long) address of the record
+     */
+    private static long recordAddress(final int pRecord) {
+        return (long) pRecord * RECORD_BYTES;
+    }
+    
+    /**
+     * @param pRecord
+     *            - record index
+     * @return (int) time of the record
+     */
+    private int recordTime(final int pRecord) {
+        return this.fRecords.getInt(recordAddress(pRecord));
+    }
+    
+    /**
+     * @param pRecord
+     *            - record index
+     * @return (int) previous record of the same SSV, -1 if none
+     */
+    private int recordPrevious(final int pRecord) {
+        return this.fRecords.getInt(recordAddress(pRecord) + 4);
+    }
+    
+    /**
+     * @param pTime
+     *            - time
+     * @param pPrevious
+     *            - previous record of the same SSV, -1 if none
+     * @param pPayload
+     *            - payload
+     * @return (int) index of the new record
+     */
+    private int appendRecord(final int pTime, final int pPrevious,
+            final long pPayload) {
+        if (this.fRecordCount == Integer.MAX_VALUE)
+            throw new IllegalStateException("Record log full");
+        final int record = this.fRecordCount++;
+        final long address = recordAddress(record);
+        this.fRecords.putInt(address, pTime);
+        this.fRecords.putInt(address + 4, pPrevious);
+        this.fRecords.putLong(address + 8, pPayload);
+        return record;
+    }
+    
+    /**
+     * @param pHead
+     *            - last record of the SSV
+     * @param pTime
+     *            - time
+     * @return (int) last record at or before the time
+     */
+    private int floorRecord(final int pHead, final int pTime) {
+        int record = pHead;
+        int oldest = pHead;
+        while (record >= 0) {
+            if (this.recordTime(record) <= pTime) return record;
+            oldest = record;
+            record = this.recordPrevious(record);
+        }
+        // Before the collected time only the committed value is left
+        if (pTime < this.fCollectedTime) return oldest;
+        // If time is before initial time throw IllegalArgumentException
+        throw new IllegalArgumentException();
+    }
+    
+    /**
+     * @param pType
+     *            - value class
+     * @return (int) type stored in the slot
+     */
+    private static int typeOf(final Class<?> pType) {
+        if (pType == Integer.class) return TYPE_INTEGER;
+        if (pType == Double.class) return TYPE_DOUBLE;
+        if (pType == Location.class) return TYPE_LOCATION;
+        return TYPE_REFERENCE;
+    }
+    
+    /**
+     * @param pType
+     *            - type stored in the slot
+     * @param pValue
+     *            - value
+     * @return (long) payload
+     */
+    private long encode(final int pType, final Value<?> pValue) {
+        switch (pType) {
+        case TYPE_INTEGER:
+            return ((Integer) pValue.get()).intValue();
+        case TYPE_DOUBLE:
+            return Double.doubleToRawLongBits(((Double) pValue.get())
+                    .doubleValue());
+        case TYPE_LOCATION:
+            final Location location = (Location) pValue.get();
+            return ((long) location.getX() << 32)
+                    | (location.getY() & 0xFFFFFFFFL);
+        default:
+            this.fReferences.add(pValue.get());
+            return this.fReferences.size() - 1;
+        }
+    }
+    
+    /**
+     * @param pType
+     *            - type stored in the slot
+     * @param pPayload
+     *            - payload
+     * @return (Value<?>) value
+     */
+    private Value<?> decode(final int pType, final long pPayload) {
+        switch (pType) {
+        case TYPE_INTEGER:
+            return new Value<Integer>(Integer.valueOf((int) pPayload));
+        case TYPE_DOUBLE:
+            return new Value<Double>(Double.valueOf(Double
+                    .longBitsToDouble(pPayload)));
+        case TYPE_LOCATION:
+            return new Value<Location>(new Location((int) (pPayload >> 32),
+                    (int) pPayload));
+        default:
+            return new Value<Object>(this.fReferences.get((int) pPayload));
+        }
+    }
+}
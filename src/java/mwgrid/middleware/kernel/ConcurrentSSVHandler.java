@@ -0,0 +1,409 @@
+package mwgrid.middleware.kernel;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+import mwgrid.middleware.distributedobject.KernelVariables;
+import mwgrid.middleware.distributedobject.Location;
+import mwgrid.middleware.distributedobject.Value;
+import mwgrid.middleware.distributedobject.Variable;
+import mwgrid.middleware.exception.SSVAlreadyExistsException;
+import mwgrid.middleware.exception.SSVNotFoundException;
+
+/**
+ * Sequential SSV handler for agents stepped on many cores of one machine. It
+ * behaves like the SequentialSSVHandler, but without one lock over all SSVs:
+ * <ul>
+ * <li>the SSVs, the SSVs of each object and the GVT times are kept in
+ * concurrent maps;</li>
+ * <li>each SSV is read and written under its own monitor, so only accesses
+ * to the same SSV wait for each other;</li>
+ * <li>the spatial index is queried under a read lock and only locked for
+ * writing when a LOCATION SSV enters a new cell, or is pruned or removed.</li>
+ * </ul>
+ * A range query running while an agent moves to a new cell can miss that
+ * move, as it could miss the write itself.
+ *
+ * @author Dr B.G.W. Craenen <b.g.w.craenen@cs.bham.ac.uk>
+ */
+public class ConcurrentSSVHandler implements SSVHandler {
+    private static final Logger LOG = Logger
+            .getLogger(ConcurrentSSVHandler.class.getPackage().getName());
+    private final ConcurrentMap<Identifier, SavedStateVariable> fSavedStateVariableMap;
+    private final ConcurrentMap<Long, Queue<SavedStateVariable>> fObjectVariableMap;
+    private final ConcurrentMap<Long, Integer> fGlobalVariableTimeMap;
+    private final SpatialIndex fSpatialIndex;
+    private final ReadWriteLock fSpatialIndexLock;
+    private final AtomicLong fHistorySize;
+    
+    /**
+     * Constructor
+     */
+    public ConcurrentSSVHandler() {
+        this(SequentialSSVHandler.DEFAULT_CELL_SIZE);
+    }
+    
+    /**
+     * Constructor
+     * 
+     * @param pCellSize
+     *            - width and height of the spatial index cells, about the
+     *            size of the usual range query
+     */
+    public ConcurrentSSVHandler(final int pCellSize) {
+        this.fSavedStateVariableMap =
+                new ConcurrentHashMap<Identifier, SavedStateVariable>();
+        this.fObjectVariableMap =
+                new ConcurrentHashMap<Long, Queue<SavedStateVariable>>();
+        this.fGlobalVariableTimeMap = new ConcurrentHashMap<Long, Integer>();
+        this.fSpatialIndex = new SpatialIndex(pCellSize);
+        this.fSpatialIndexLock = new ReentrantReadWriteLock();
+        this.fHistorySize = new AtomicLong();
+    }
+    
+    @Override
+    public void initialise(final String pDataLocation) {
+        // Do nothing
+    }
+    
+    @Override
+    public boolean add(final long pObjectId, final Variable pVariable,
+            final Value<?> pInitValue, final int pTime)
+            throws SSVAlreadyExistsException {
+        LOG.finest("Add, agent: " + pObjectId + ", variable: " + pVariable
+                + ", value: " + pInitValue + ", time: " + pTime);
+        final Identifier identifier = new Identifier(pObjectId, pVariable);
+        final SavedStateVariable savedStateVariable =
+                new SavedStateVariable(identifier, pInitValue, pTime);
+        if (this.fSavedStateVariableMap.putIfAbsent(identifier,
+            savedStateVariable) != null)
+            throw new SSVAlreadyExistsException();
+        final Long objectId = new Long(pObjectId);
+        Queue<SavedStateVariable> objectVariables =
+                this.fObjectVariableMap.get(objectId);
+        if (objectVariables == null) {
+            final Queue<SavedStateVariable> created =
+                    new ConcurrentLinkedQueue<SavedStateVariable>();
+            objectVariables =
+                    this.fObjectVariableMap.putIfAbsent(objectId, created);
+            if (objectVariables == null) objectVariables = created;
+        }
+        objectVariables.add(savedStateVariable);
+        this.fHistorySize.incrementAndGet();
+        if (isLocation(pVariable))
+            this.addToSpatialIndex(savedStateVariable, (Location) pInitValue
+                    .get());
+        return true;
+    }
+    
+    @Override
+    public Value<?> read(final long pAgentId, final long pObjectId,
+            final Variable pVariable, final int pTime)
+            throws SSVNotFoundException {
+        LOG.finest("Read, agent: " + pAgentId + ", objectID: " + pObjectId
+                + ", variable: " + pVariable + ", time: " + pTime);
+        final SavedStateVariable savedStateVariable =
+                this.getSavedStateVariable(pObjectId, pVariable);
+        synchronized (savedStateVariable) {
+            return savedStateVariable.read(pTime);
+        }
+    }
+    
+    @Override
+    public boolean write(final long pAgentId, final long pObjectId,
+            final Variable pVariable, final Value<?> pValue, final int pTime)
+            throws SSVNotFoundException {
+        LOG.finest("write, agent: " + pAgentId + ", objectID: " + pObjectId
+                + ", variable: " + pVariable + ", value: " + pValue.get()
+                + ", time: " + pTime);
+        final SavedStateVariable savedStateVariable =
+                this.getSavedStateVariable(pObjectId, pVariable);
+        final boolean success;
+        synchronized (savedStateVariable) {
+            success = savedStateVariable.write(pTime, pValue);
+        }
+        if (!success) return false;
+        this.fHistorySize.incrementAndGet();
+        // Outside the SSV monitor, queries take the index lock first
+        if (isLocation(pVariable))
+            this.addToSpatialIndex(savedStateVariable, (Location) pValue
+                    .get());
+        return true;
+    }
+    
+    @Override
+    public int readInt(final long pAgentId, final long pObjectId,
+            final Variable pVariable, final int pTime)
+            throws SSVNotFoundException {
+        final SavedStateVariable savedStateVariable =
+                this.getSavedStateVariable(pObjectId, pVariable);
+        synchronized (savedStateVariable) {
+            return savedStateVariable.readInt(pTime);
+        }
+    }
+    
+    @Override
+    public double readDouble(final long pAgentId, final long pObjectId,
+            final Variable pVariable, final int pTime)
+            throws SSVNotFoundException {
+        final SavedStateVariable savedStateVariable =
+                this.getSavedStateVariable(pObjectId, pVariable);
+        synchronized (savedStateVariable) {
+            return savedStateVariable.readDouble(pTime);
+        }
+    }
+    
+    @Override
+    public Location readLocation(final long pAgentId, final long pObjectId,
+            final Variable pVariable, final int pTime)
+            throws SSVNotFoundException {
+        return (Location) this.read(pAgentId, pObjectId, pVariable, pTime)
+                .get();
+    }
+    
+    @Override
+    public Value<?>[] readAll(final long pAgentId, final long[] pObjectIds,
+            final Variable pVariable, final int pTime)
+            throws SSVNotFoundException {
+        final Value<?>[] result = new Value<?>[pObjectIds.length];
+        for (int index = 0; index < pObjectIds.length; index++)
+            result[index] =
+                    this.read(pAgentId, pObjectIds[index], pVariable, pTime);
+        return result;
+    }
+    
+    @Override
+    public boolean writeInt(final long pAgentId, final long pObjectId,
+            final Variable pVariable, final int pValue, final int pTime)
+            throws SSVNotFoundException {
+        final SavedStateVariable savedStateVariable =
+                this.getSavedStateVariable(pObjectId, pVariable);
+        final boolean success;
+        synchronized (savedStateVariable) {
+            success = savedStateVariable.writeInt(pTime, pValue);
+        }
+        if (success) this.fHistorySize.incrementAndGet();
+        return success;
+    }
+    
+    @Override
+    public boolean writeDouble(final long pAgentId, final long pObjectId,
+            final Variable pVariable, final double pValue, final int pTime)
+            throws SSVNotFoundException {
+        final SavedStateVariable savedStateVariable =
+                this.getSavedStateVariable(pObjectId, pVariable);
+        final boolean success;
+        synchronized (savedStateVariable) {
+            success = savedStateVariable.writeDouble(pTime, pValue);
+        }
+        if (success) this.fHistorySize.incrementAndGet();
+        return success;
+    }
+    
+    @Override
+    public Map<Long, Location> rangeQuery(final long pAgentId,
+            final int pTime, final Location pStartLocation,
+            final Location pEndLocation) {
+        LOG.finest("rangeQuery, agent: " + pAgentId + ", time: " + pTime
+                + ", start: " + pStartLocation + ", end: " + pEndLocation);
+        this.fSpatialIndexLock.readLock().lock();
+        try {
+            return this.fSpatialIndex.rangeQuery(pTime, pStartLocation,
+                pEndLocation);
+        } finally {
+            this.fSpatialIndexLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * @param pAgentId
+     *            - agent ID
+     * @param pTime
+     *            - time
+     */
+    @Override
+    public void handleRollback(final long pAgentId, final int pTime) {
+        // Do nothing
+    }
+    
+    @Override
+    public boolean isInRollbackMap(final long pAgentId) {
+        return false;
+    }
+    
+    @Override
+    public int getRollbackMapTime(final long pAgentId) {
+        return -1;
+    }
+    
+    @Override
+    public long pollRollback() {
+        return -1;
+    }
+    
+    @Override
+    public void removeVariables(final long pObjectId) {
+        LOG.finest("removeVariables, agent: " + pObjectId);
+        final Queue<SavedStateVariable> objectVariables =
+                this.fObjectVariableMap.remove(new Long(pObjectId));
+        if (objectVariables == null) return;
+        for (final SavedStateVariable savedStateVariable : objectVariables) {
+            final Identifier identifier = savedStateVariable.getIdentifier();
+            if (!this.fSavedStateVariableMap.remove(identifier,
+                savedStateVariable)) continue;
+            synchronized (savedStateVariable) {
+                this.fHistorySize.addAndGet(-savedStateVariable.size());
+            }
+            if (isLocation(identifier.getVariable())) {
+                this.fSpatialIndexLock.writeLock().lock();
+                try {
+                    this.fSpatialIndex.remove(savedStateVariable);
+                } finally {
+                    this.fSpatialIndexLock.writeLock().unlock();
+                }
+            }
+        }
+    }
+    
+    @Override
+    public boolean isClp() {
+        return false;
+    }
+    
+    @Override
+    public boolean isAlp() {
+        return true;
+    }
+    
+    @Override
+    public int getNumberOfAlps() {
+        return 0;
+    }
+    
+    @Override
+    public int getRank() {
+        return 0;
+    }
+    
+    @Override
+    public void setGVTTime(final long pObjectId, final int pTime) {
+        LOG.finest("Set GVT time for agent: " + pObjectId + ", to time: "
+                + pTime);
+        this.fGlobalVariableTimeMap.put(new Long(pObjectId), new Integer(
+                pTime));
+    }
+    
+    @Override
+    public int getGVTTime() {
+        return Collections.min(this.fGlobalVariableTimeMap.values())
+                .intValue() - 1;
+    }
+    
+    @Override
+    public void sendGVTMessage() {
+        // The GVT is computed locally, so it is available straight away
+        Kernel.getScheduler().signalStateChange();
+    }
+    
+    @Override
+    public boolean isGVTSignalled() {
+        // The GVT only changes through setGVTTime, called by the scheduler
+        // itself, and sendGVTMessage, which signals
+        return true;
+    }
+    
+    @Override
+    public long getHistorySize() {
+        return this.fHistorySize.get();
+    }
+    
+    @Override
+    public long cleanToGVT(final int pGlobalVariableTime) {
+        LOG.finest("Clean to GVT: " + pGlobalVariableTime);
+        long result = 0;
+        for (final SavedStateVariable savedStateVariable : this.fSavedStateVariableMap
+                .values()) {
+            final int removed;
+            synchronized (savedStateVariable) {
+                final int size = savedStateVariable.size();
+                result +=
+                        savedStateVariable.removeLessThan(pGlobalVariableTime);
+                removed = size - savedStateVariable.size();
+            }
+            if (removed == 0) continue;
+            this.fHistorySize.addAndGet(-removed);
+            if (isLocation(savedStateVariable.getIdentifier().getVariable())) {
+                this.fSpatialIndexLock.writeLock().lock();
+                try {
+                    this.fSpatialIndex.prune(savedStateVariable);
+                } finally {
+                    this.fSpatialIndexLock.writeLock().unlock();
+                }
+            }
+        }
+        LOG.fine("Clean to GVT: " + pGlobalVariableTime + ", reclaimed: "
+                + result + " bytes");
+        return result;
+    }
+    
+    /**
+     * @param pSavedStateVariable
+     *            - LOCATION SSV
+     * @param pLocation
+     *            - location written
+     */
+    private void addToSpatialIndex(
+            final SavedStateVariable pSavedStateVariable,
+            final Location pLocation) {
+        // Agents mostly move within a cell, which only needs the read lock
+        this.fSpatialIndexLock.readLock().lock();
+        try {
+            if (this.fSpatialIndex.contains(pSavedStateVariable, pLocation))
+                return;
+        } finally {
+            this.fSpatialIndexLock.readLock().unlock();
+        }
+        this.fSpatialIndexLock.writeLock().lock();
+        try {
+            this.fSpatialIndex.add(pSavedStateVariable, pLocation);
+        } finally {
+            this.fSpatialIndexLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * @param pVariable
+     *            - variable
+     * @return (boolean) is the variable the LOCATION kernel variable?
+     */
+    private static boolean isLocation(final Variable pVariable) {
+        return pVariable.getVariableId() == KernelVariables.LOCATION
+                .getVariableId();
+    }
+    
+    /**
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable
+     * @return (SavedStateVariable) SSV
+     * @throws SSVNotFoundException
+     *             - thrown if SSV not found
+     */
+    private SavedStateVariable getSavedStateVariable(final long pObjectId,
+            final Variable pVariable) throws SSVNotFoundException {
+        final SavedStateVariable result =
+                this.fSavedStateVariableMap.get(new Identifier(pObjectId,
+                    pVariable));
+        if (result == null) throw new SSVNotFoundException();
+        return result;
+    }
+}
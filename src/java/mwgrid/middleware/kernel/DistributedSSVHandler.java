@@ -5,10 +5,13 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -50,8 +53,12 @@ public class DistributedSSVHandler implements SSVHandler {
     // private int fStartTime;
     private int fEndTime;
     private final Map<Identifier, SavedStateVariable> fSavedStateVariableMap;
+    private final Map<Long, List<Identifier>> fObjectIdentifierMap;
     private final Map<Long, Integer> fRollbackMap;
+    private final Queue<Long> fRollbackQueue;
     private final PDESMASInterface fPDESMASInterface;
+    private volatile boolean fTypedReads;
+    private volatile boolean fBatchReads;
     
     /**
      * Constructor of DistributedSSVHandler
@@ -77,7 +84,11 @@ public class DistributedSSVHandler implements SSVHandler {
             pStartTime, pEndTime);
         this.fSavedStateVariableMap =
                 new HashMap<Identifier, SavedStateVariable>();
+        this.fObjectIdentifierMap = new HashMap<Long, List<Identifier>>();
         this.fRollbackMap = new HashMap<Long, Integer>();
+        this.fRollbackQueue = new ConcurrentLinkedQueue<Long>();
+        this.fTypedReads = true;
+        this.fBatchReads = true;
     }
     
     /**
@@ -141,15 +152,26 @@ public class DistributedSSVHandler implements SSVHandler {
             // Create Identifier for SSV
             final Identifier identifier =
                     new Identifier(pObjectId, pVariable);
-            // If SSV already in SSVMap, throw SSVAlreadyExistsException
-            if (this.fSavedStateVariableMap.containsKey(identifier))
-                throw new SSVAlreadyExistsException();
             // Create SSV
             final SavedStateVariable savedStateVariable =
                     new SavedStateVariable(identifier, pInitValue, pTime);
-            // Add SSV to Map, return true if didn't exist before
-            return null == this.fSavedStateVariableMap.put(identifier,
-                savedStateVariable);
+            synchronized (this.fSavedStateVariableMap) {
+                // If SSV already in SSVMap, throw SSVAlreadyExistsException
+                if (this.fSavedStateVariableMap.containsKey(identifier))
+                    throw new SSVAlreadyExistsException();
+                // List identifier with its object
+                final Long objectId = new Long(pObjectId);
+                List<Identifier> identifiers =
+                        this.fObjectIdentifierMap.get(objectId);
+                if (identifiers == null) {
+                    identifiers = new ArrayList<Identifier>(4);
+                    this.fObjectIdentifierMap.put(objectId, identifiers);
+                }
+                identifiers.add(identifier);
+                // Add SSV to Map, return true if didn't exist before
+                return null == this.fSavedStateVariableMap.put(identifier,
+                    savedStateVariable);
+            }
         } finally {
             if (LOG.isLoggable(Level.FINEST)) {
                 final long duration = System.currentTimeMillis() - startTime;
@@ -169,10 +191,12 @@ public class DistributedSSVHandler implements SSVHandler {
     public void removeVariables(final long pObjectId) {
         LOG.finest("RemoveVariables, agent: " + pObjectId);
         try {
-            for (Identifier identifier : this.fSavedStateVariableMap.keySet()) {
-                if (identifier.getObjectId() == pObjectId) {
+            synchronized (this.fSavedStateVariableMap) {
+                final List<Identifier> identifiers =
+                        this.fObjectIdentifierMap.remove(new Long(pObjectId));
+                if (identifiers == null) return;
+                for (final Identifier identifier : identifiers)
                     this.fSavedStateVariableMap.remove(identifier);
-                }
             }
         } finally {
             LOG.finest("Finish removeVariables, agent: " + pObjectId);
@@ -215,6 +239,25 @@ public class DistributedSSVHandler implements SSVHandler {
         this.fPDESMASInterface.sendGVTMessage();
     }
     
+    @Override
+    public boolean isGVTSignalled() {
+        // The PDESMAS library has no GVT callback, a new GVT value can only
+        // be read with getGVT
+        return false;
+    }
+    
+    @Override
+    public long getHistorySize() {
+        // Shared state history is held by the CLPs
+        return 0;
+    }
+    
+    @Override
+    public long cleanToGVT(final int pGlobalVariableTime) {
+        // The CLPs fossil collect their own history
+        return 0;
+    }
+    
     @Override
     public Map<Long, Location> rangeQuery(final long pAgentId,
             final int pTime, final Location pStartLocation,
@@ -396,6 +439,166 @@ public class DistributedSSVHandler implements SSVHandler {
         }
     }
     
+    @Override
+    public int readInt(final long pAgentId, final long pObjectId,
+            final Variable pVariable, final int pTime)
+            throws RollbackException, SSVNotFoundException {
+        long startTime = 0;
+        if (LOG.isLoggable(Level.FINEST))
+            startTime = System.currentTimeMillis();
+        try {
+            if (this.fTypedReads) {
+                try {
+                    return this.fPDESMASInterface.readInt(pAgentId,
+                        pObjectId, pVariable.getVariableId(), pTime);
+                } catch (final UnsatisfiedLinkError e) {
+                    this.disableTypedReads();
+                }
+            }
+            return ((Integer) this.fPDESMASInterface.read(pAgentId,
+                pObjectId, pVariable.getVariableId(), pTime).get()).intValue();
+        } catch (RollbackException rollbackException) {
+            this.traceRollback("Read", rollbackException);
+            throw rollbackException;
+        } finally {
+            if (LOG.isLoggable(Level.FINEST))
+                this.traceRead(startTime, pAgentId, pObjectId, pVariable,
+                    pTime);
+        }
+    }
+    
+    @Override
+    public double readDouble(final long pAgentId, final long pObjectId,
+            final Variable pVariable, final int pTime)
+            throws RollbackException, SSVNotFoundException {
+        long startTime = 0;
+        if (LOG.isLoggable(Level.FINEST))
+            startTime = System.currentTimeMillis();
+        try {
+            if (this.fTypedReads) {
+                try {
+                    return this.fPDESMASInterface.readDouble(pAgentId,
+                        pObjectId, pVariable.getVariableId(), pTime);
+                } catch (final UnsatisfiedLinkError e) {
+                    this.disableTypedReads();
+                }
+            }
+            return ((Double) this.fPDESMASInterface.read(pAgentId,
+                pObjectId, pVariable.getVariableId(), pTime).get())
+                    .doubleValue();
+        } catch (RollbackException rollbackException) {
+            this.traceRollback("Read", rollbackException);
+            throw rollbackException;
+        } finally {
+            if (LOG.isLoggable(Level.FINEST))
+                this.traceRead(startTime, pAgentId, pObjectId, pVariable,
+                    pTime);
+        }
+    }
+    
+    @Override
+    public Location readLocation(final long pAgentId, final long pObjectId,
+            final Variable pVariable, final int pTime)
+            throws RollbackException, SSVNotFoundException {
+        long startTime = 0;
+        if (LOG.isLoggable(Level.FINEST))
+            startTime = System.currentTimeMillis();
+        try {
+            if (this.fTypedReads) {
+                try {
+                    return this.fPDESMASInterface.readLocation(pAgentId,
+                        pObjectId, pVariable.getVariableId(), pTime);
+                } catch (final UnsatisfiedLinkError e) {
+                    this.disableTypedReads();
+                }
+            }
+            return (Location) this.fPDESMASInterface.read(pAgentId,
+                pObjectId, pVariable.getVariableId(), pTime).get();
+        } catch (RollbackException rollbackException) {
+            this.traceRollback("Read", rollbackException);
+            throw rollbackException;
+        } finally {
+            if (LOG.isLoggable(Level.FINEST))
+                this.traceRead(startTime, pAgentId, pObjectId, pVariable,
+                    pTime);
+        }
+    }
+    
+    @Override
+    public Value<?>[] readAll(final long pAgentId, final long[] pObjectIds,
+            final Variable pVariable, final int pTime)
+            throws RollbackException, SSVNotFoundException {
+        long startTime = 0;
+        if (LOG.isLoggable(Level.FINEST))
+            startTime = System.currentTimeMillis();
+        try {
+            if (this.fBatchReads) {
+                try {
+                    return this.fPDESMASInterface.readAll(pAgentId,
+                        pObjectIds, pVariable.getVariableId(), pTime);
+                } catch (final UnsatisfiedLinkError e) {
+                    this.disableBatchReads();
+                }
+            }
+            final Value<?>[] result = new Value<?>[pObjectIds.length];
+            for (int index = 0; index < pObjectIds.length; index++)
+                result[index] =
+                        this.fPDESMASInterface.read(pAgentId,
+                            pObjectIds[index], pVariable.getVariableId(),
+                            pTime);
+            return result;
+        } catch (RollbackException rollbackException) {
+            this.traceRollback("Read", rollbackException);
+            throw rollbackException;
+        } finally {
+            if (LOG.isLoggable(Level.FINEST))
+                LOG.finest("Finished READALL: " + pAgentId + ":"
+                        + pObjectIds.length + " objects:"
+                        + pVariable.getVariableId() + ":" + pTime + ", in: "
+                        + (System.currentTimeMillis() - startTime));
+        }
+    }
+    
+    @Override
+    public boolean writeInt(final long pAgentId, final long pObjectId,
+            final Variable pVariable, final int pValue, final int pTime)
+            throws RollbackException, SSVNotFoundException {
+        long startTime = 0;
+        if (LOG.isLoggable(Level.FINEST))
+            startTime = System.currentTimeMillis();
+        try {
+            return this.fPDESMASInterface.write(pAgentId, pObjectId,
+                pVariable.getVariableId(), pValue, pTime);
+        } catch (RollbackException rollbackException) {
+            this.traceRollback("Write", rollbackException);
+            throw rollbackException;
+        } finally {
+            if (LOG.isLoggable(Level.FINEST))
+                this.traceWrite(startTime, pAgentId, pObjectId, pVariable,
+                    pTime, String.valueOf(pValue));
+        }
+    }
+    
+    @Override
+    public boolean writeDouble(final long pAgentId, final long pObjectId,
+            final Variable pVariable, final double pValue, final int pTime)
+            throws RollbackException, SSVNotFoundException {
+        long startTime = 0;
+        if (LOG.isLoggable(Level.FINEST))
+            startTime = System.currentTimeMillis();
+        try {
+            return this.fPDESMASInterface.write(pAgentId, pObjectId,
+                pVariable.getVariableId(), pValue, pTime);
+        } catch (RollbackException rollbackException) {
+            this.traceRollback("Write", rollbackException);
+            throw rollbackException;
+        } finally {
+            if (LOG.isLoggable(Level.FINEST))
+                this.traceWrite(startTime, pAgentId, pObjectId, pVariable,
+                    pTime, String.valueOf(pValue));
+        }
+    }
+    
     /**
      * @param pAgentId
      *            - agent ID
@@ -414,19 +617,30 @@ public class DistributedSSVHandler implements SSVHandler {
              */
         }
         try {
-            if (this.fRollbackMap.containsKey(new Long(pAgentId))
-                    && this.fRollbackMap.get(new Long(pAgentId)).intValue() <= pTime)
-                return;
-            if (LOG.isLoggable(Level.FINEST)) {
-                LOG.finest("Put into rollback map; agentID: " + pAgentId
-                        + ", time: " + pTime);
-                /*
-                 * FilePrint.printToFile(this.getRank(),
-                 * FilePrint.Filename.TRACE, "Added rollback callback; agent: "
-                 * + pAgentId + ", time: " + pTime);
-                 */
+            // Roll-back callbacks arrive on whichever thread is inside
+            // PDESMAS, which need not be the scheduler thread
+            synchronized (this.fRollbackMap) {
+                final Integer rollbackTime =
+                        this.fRollbackMap.get(new Long(pAgentId));
+                if (rollbackTime != null && rollbackTime.intValue() <= pTime)
+                    return;
+                if (LOG.isLoggable(Level.FINEST)) {
+                    LOG.finest("Put into rollback map; agentID: " + pAgentId
+                            + ", time: " + pTime);
+                    /*
+                     * FilePrint.printToFile(this.getRank(),
+                     * FilePrint.Filename.TRACE,
+                     * "Added rollback callback; agent: " + pAgentId +
+                     * ", time: " + pTime);
+                     */
+                }
+                this.fRollbackMap.put(new Long(pAgentId), new Integer(pTime));
+                // Queue the agent once, an earlier time just replaces the
+                // time in the map
+                if (rollbackTime == null)
+                    this.fRollbackQueue.offer(new Long(pAgentId));
             }
-            this.fRollbackMap.put(new Long(pAgentId), new Integer(pTime));
+            Kernel.getScheduler().signalStateChange();
         } finally {
             if (LOG.isLoggable(Level.FINEST)) {
                 final long duration = System.currentTimeMillis() - startTime;
@@ -446,15 +660,115 @@ public class DistributedSSVHandler implements SSVHandler {
     
     @Override
     public boolean isInRollbackMap(final long pAgentId) {
-        return this.fRollbackMap.containsKey(new Long(pAgentId));
+        synchronized (this.fRollbackMap) {
+            return this.fRollbackMap.containsKey(new Long(pAgentId));
+        }
     }
     
     @Override
     public int getRollbackMapTime(final long pAgentId) {
-        final int result =
-                this.fRollbackMap.get(new Long(pAgentId)).intValue();
-        this.fRollbackMap.remove(new Long(pAgentId));
-        return result;
+        synchronized (this.fRollbackMap) {
+            return this.fRollbackMap.remove(new Long(pAgentId)).intValue();
+        }
+    }
+    
+    @Override
+    public long pollRollback() {
+        final Long agentId = this.fRollbackQueue.poll();
+        if (agentId == null) return -1;
+        return agentId.longValue();
+    }
+    
+    /**
+     * Fall back to the generic native read, for PDESMAS libraries built
+     * without the typed reads
+     */
+    private void disableTypedReads() {
+        if (!this.fTypedReads) return;
+        this.fTypedReads = false;
+        LOG.warning("PDESMAS library has no typed reads, "
+                + "falling back to the generic read");
+    }
+    
+    /**
+     * Fall back to one native read per object, for PDESMAS libraries built
+     * without the batched read
+     */
+    private void disableBatchReads() {
+        if (!this.fBatchReads) return;
+        this.fBatchReads = false;
+        LOG.warning("PDESMAS library has no batched reads, "
+                + "falling back to one read per object");
+    }
+    
+    /**
+     * @param pOperation
+     *            - operation, Read or Write
+     * @param pRollbackException
+     *            - roll-back exception thrown
+     */
+    private void traceRollback(final String pOperation,
+            final RollbackException pRollbackException) {
+        if (LOG.isLoggable(Level.FINEST))
+            FilePrint.printToFile(this.getRank(), FilePrint.Filename.TRACE,
+                pOperation + " RollbackException; agent: "
+                        + pRollbackException.getAgentId()
+                        + ", rollback time: "
+                        + pRollbackException.getRollbackTime());
+    }
+    
+    /**
+     * @param pStartTime
+     *            - start time of the read
+     * @param pAgentId
+     *            - agent ID
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable
+     * @param pTime
+     *            - time
+     */
+    private void traceRead(final long pStartTime, final long pAgentId,
+            final long pObjectId, final Variable pVariable, final int pTime) {
+        final long duration = System.currentTimeMillis() - pStartTime;
+        LOG.finest("Finished READ: " + pAgentId + ":" + pObjectId + ":"
+                + pVariable.getVariableId() + ":" + pTime + ", in: "
+                + duration);
+        if (pTime <= this.fEndTime)
+            FilePrint.printToFile(this.getRank(),
+                FilePrint.Filename.SSVH_READ, duration + "\t" + pAgentId
+                        + "\t" + pObjectId + "\t"
+                        + pVariable.getVariableId() + "\t" + pTime);
+    }
+    
+    /**
+     * @param pStartTime
+     *            - start time of the write
+     * @param pAgentId
+     *            - agent ID
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable
+     * @param pTime
+     *            - time
+     * @param pValue
+     *            - value written
+     */
+    private void traceWrite(final long pStartTime, final long pAgentId,
+            final long pObjectId, final Variable pVariable, final int pTime,
+            final String pValue) {
+        final long duration = System.currentTimeMillis() - pStartTime;
+        LOG.finest("Finished WRITE: " + pAgentId + ":" + pObjectId + ":"
+                + pVariable + ":" + pValue + ":" + pTime + ", in: "
+                + duration);
+        if (pTime <= this.fEndTime)
+            FilePrint.printToFile(this.getRank(),
+                FilePrint.Filename.SSVH_WRITE, duration + "\t" + pAgentId
+                        + "\t" + pObjectId + "\t"
+                        + pVariable.getVariableId() + "\t" + pTime + "\t"
+                        + pValue);
     }
     
     /**
@@ -0,0 +1,220 @@
+package mwgrid.middleware.kernel;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import mwgrid.common.FilePrint;
+
+/**
+ * Decides when the scheduler sends a GVT message. The interval, counted in
+ * scheduler passes, adapts to the speculative history held on this node:
+ * <ul>
+ * <li>the interval is halved when the history per distributed object or the
+ * spread between the highest local time and the GVT exceeds its target, as
+ * fossil collection then pays off;</li>
+ * <li>the interval grows by one pass when there is little history to collect,
+ * or when most of it is discarded by roll-backs instead of being committed,
+ * as GVT rounds then only cost messages.</li>
+ * </ul>
+ * The interval is adapted once per GVT round. A GVT message is sent straight
+ * away when the history per object exceeds twice its target. Setting the
+ * minimum and maximum interval to the same value gives a fixed interval.
+ *
+ * @author Dr B.G.W. Craenen <b.g.w.craenen@cs.bham.ac.uk>
+ */
+public class GVTController {
+    private static final Logger LOG = Logger.getLogger(GVTController.class
+            .getPackage().getName());
+    public static final int DEFAULT_MIN_INTERVAL = 1;
+    public static final int DEFAULT_MAX_INTERVAL = 1000;
+    public static final double DEFAULT_HISTORY_TARGET = 64;
+    public static final int DEFAULT_TIME_SPREAD_TARGET = 100;
+    public static final double DEFAULT_ROLLBACK_RATE_TARGET = 0.1;
+    private int fMinInterval;
+    private int fMaxInterval;
+    private double fHistoryTarget;
+    private int fTimeSpreadTarget;
+    private double fRollbackRateTarget;
+    private int fInterval;
+    private int fPassesSinceGVT;
+    private long fRollbacksSinceGVT;
+    private long fSteppedSinceGVT;
+    private long fHistorySize;
+    private double fHistoryPerObject;
+    private double fRollbackRate;
+    private int fTimeSpread;
+    private long fGVTMessages;
+    private long fReclaimedBytes;
+    
+    /**
+     * Constructor
+     * 
+     * @param pInterval
+     *            - initial interval in scheduler passes
+     */
+    public GVTController(final int pInterval) {
+        this.fMinInterval = DEFAULT_MIN_INTERVAL;
+        this.fMaxInterval = Math.max(DEFAULT_MAX_INTERVAL, pInterval);
+        this.fHistoryTarget = DEFAULT_HISTORY_TARGET;
+        this.fTimeSpreadTarget = DEFAULT_TIME_SPREAD_TARGET;
+        this.fRollbackRateTarget = DEFAULT_ROLLBACK_RATE_TARGET;
+        this.fInterval = pInterval;
+        this.fPassesSinceGVT = 0;
+        this.fRollbacksSinceGVT = 0;
+        this.fSteppedSinceGVT = 0;
+        this.fGVTMessages = 0;
+        this.fReclaimedBytes = 0;
+    }
+    
+    /**
+     * Record a scheduler pass and decide whether a GVT message is due.
+     * 
+     * @param pHistorySize
+     *            - number of saved values held for the distributed objects
+     * @param pNumberOfObjects
+     *            - number of distributed objects
+     * @param pStepped
+     *            - number of distributed objects stepped this pass
+     * @param pRollbacks
+     *            - number of roll-backs this pass
+     * @param pHighestTime
+     *            - highest local time of the distributed objects
+     * @param pGlobalVariableTime
+     *            - current GVT
+     * @return (boolean) should a GVT message be sent?
+     */
+    public synchronized boolean isGVTDue(final long pHistorySize,
+            final int pNumberOfObjects, final int pStepped,
+            final int pRollbacks, final int pHighestTime,
+            final int pGlobalVariableTime) {
+        this.fPassesSinceGVT++;
+        this.fRollbacksSinceGVT += pRollbacks;
+        this.fSteppedSinceGVT += pStepped;
+        this.fHistorySize = pHistorySize;
+        this.fHistoryPerObject =
+                (double) pHistorySize / Math.max(1, pNumberOfObjects);
+        this.fTimeSpread = Math.max(0, pHighestTime - pGlobalVariableTime);
+        final boolean overflow =
+                this.fHistoryPerObject > 2 * this.fHistoryTarget;
+        if (!overflow && this.fPassesSinceGVT < this.fInterval) return false;
+        this.fRollbackRate =
+                (double) this.fRollbacksSinceGVT
+                        / Math.max(1, this.fSteppedSinceGVT);
+        if (this.fHistoryPerObject > this.fHistoryTarget
+                || this.fTimeSpread > this.fTimeSpreadTarget) {
+            this.fInterval = Math.max(this.fMinInterval, this.fInterval / 2);
+        } else if (this.fHistoryPerObject < this.fHistoryTarget / 4
+                || this.fRollbackRate > this.fRollbackRateTarget) {
+            this.fInterval = Math.min(this.fMaxInterval, this.fInterval + 1);
+        }
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("GVT due after: " + this.fPassesSinceGVT
+                    + " passes, history: " + this.fHistorySize
+                    + ", roll-back rate: " + this.fRollbackRate
+                    + ", time spread: " + this.fTimeSpread
+                    + ", new interval: " + this.fInterval);
+            FilePrint.printToFile(Kernel.getSSVHandler().getRank(),
+                FilePrint.Filename.SCHED_GVT, this.fPassesSinceGVT + "\t"
+                        + this.fHistorySize + "\t" + this.fRollbackRate
+                        + "\t" + this.fTimeSpread + "\t" + this.fInterval);
+        }
+        this.fPassesSinceGVT = 0;
+        this.fRollbacksSinceGVT = 0;
+        this.fSteppedSinceGVT = 0;
+        this.fGVTMessages++;
+        return true;
+    }
+    
+    /**
+     * Record a fossil collection of the SSV handler.
+     * 
+     * @param pBytes
+     *            - estimated bytes reclaimed
+     */
+    public synchronized void recordCollection(final long pBytes) {
+        this.fReclaimedBytes += pBytes;
+    }
+    
+    /**
+     * @param pMinInterval
+     *            - minimum interval in scheduler passes
+     * @param pMaxInterval
+     *            - maximum interval in scheduler passes
+     */
+    public synchronized void setIntervalBounds(final int pMinInterval,
+            final int pMaxInterval) {
+        if (pMinInterval < 1 || pMaxInterval < pMinInterval)
+            throw new IllegalArgumentException("Invalid GVT interval bounds");
+        this.fMinInterval = pMinInterval;
+        this.fMaxInterval = pMaxInterval;
+        this.fInterval =
+                Math.min(pMaxInterval, Math.max(pMinInterval, this.fInterval));
+    }
+    
+    /**
+     * @param pHistoryTarget
+     *            - saved values per distributed object before GVT is sped up
+     */
+    public synchronized void setHistoryTarget(final double pHistoryTarget) {
+        this.fHistoryTarget = pHistoryTarget;
+    }
+    
+    /**
+     * @param pTimeSpreadTarget
+     *            - time steps ahead of GVT before GVT is sped up
+     */
+    public synchronized void setTimeSpreadTarget(final int pTimeSpreadTarget) {
+        this.fTimeSpreadTarget = pTimeSpreadTarget;
+    }
+    
+    /**
+     * @param pRollbackRateTarget
+     *            - roll-backs per step above which GVT is slowed down
+     */
+    public synchronized void setRollbackRateTarget(
+            final double pRollbackRateTarget) {
+        this.fRollbackRateTarget = pRollbackRateTarget;
+    }
+    
+    /**
+     * @return (int) current interval in scheduler passes
+     */
+    public synchronized int getInterval() {
+        return this.fInterval;
+    }
+    
+    /**
+     * @return (long) history size at the last pass
+     */
+    public synchronized long getHistorySize() {
+        return this.fHistorySize;
+    }
+    
+    /**
+     * @return (double) roll-backs per step over the last GVT round
+     */
+    public synchronized double getRollbackRate() {
+        return this.fRollbackRate;
+    }
+    
+    /**
+     * @return (int) highest local time minus GVT at the last pass
+     */
+    public synchronized int getTimeSpread() {
+        return this.fTimeSpread;
+    }
+    
+    /**
+     * @return (long) estimated bytes reclaimed by fossil collection
+     */
+    public synchronized long getReclaimedBytes() {
+        return this.fReclaimedBytes;
+    }
+    
+    /**
+     * @return (long) number of GVT messages triggered
+     */
+    public synchronized long getGVTMessages() {
+        return this.fGVTMessages;
+    }
+}
@@ -1,12 +1,22 @@
 package mwgrid.middleware.kernel;
 
-import mwgrid.common.EqualsUtil;
-import mwgrid.common.HashCodeUtil;
 import mwgrid.middleware.distributedobject.Variable;
 
+/**
+ * Identifies an SSV by object and variable. Both are packed into one long key,
+ * with the variable ID in the low VARIABLE_BITS bits, so SSV handlers can look
+ * SSVs up in a LongHashMap without creating an Identifier. The low part holds
+ * any variable ID, the high part object IDs up to MAX_OBJECT_ID.
+ * 
+ * @author Dr B.G.W. Craenen
+ */
 public class Identifier {
+    public static final int VARIABLE_BITS = 32;
+    public static final long MAX_OBJECT_ID = (1L << 63 - VARIABLE_BITS) - 1;
+    private static final long VARIABLE_MASK = (1L << VARIABLE_BITS) - 1;
     private final long fObjectId;
     private final Variable fVariable;
+    private final long fKey;
     
     /**
      * Constructor
@@ -19,6 +29,22 @@ public class Identifier {
     public Identifier(final long pObjectId, final Variable pVariable) {
         this.fObjectId = pObjectId;
         this.fVariable = pVariable;
+        this.fKey = key(pObjectId, pVariable);
+    }
+    
+    /**
+     * @param pObjectId
+     *            - object ID, from 0 to MAX_OBJECT_ID
+     * @param pVariable
+     *            - variable
+     * @return (long) key packing the object ID and variable ID
+     */
+    public static long key(final long pObjectId, final Variable pVariable) {
+        if (pObjectId < 0 || pObjectId > MAX_OBJECT_ID)
+            throw new IllegalArgumentException("Object ID " + pObjectId
+                    + " out of key range");
+        return pObjectId << VARIABLE_BITS
+                | pVariable.getVariableId() & VARIABLE_MASK;
     }
     
     /**
@@ -35,21 +61,23 @@ public class Identifier {
         return this.fVariable;
     }
     
+    /**
+     * @return (long) key packing the object ID and variable ID
+     */
+    public long getKey() {
+        return this.fKey;
+    }
+    
     @Override
     public boolean equals(final Object pObject) {
         if (this == pObject) return true;
         if (!(pObject instanceof Identifier)) return false;
         final Identifier that = (Identifier) pObject;
-        return EqualsUtil.areEqual(this.fObjectId, that.fObjectId)
-                && EqualsUtil.areEqual(this.fVariable.getVariableId(),
-                    that.fVariable.getVariableId());
+        return this.fKey == that.fKey;
     }
     
     @Override
     public int hashCode() {
-        int result = HashCodeUtil.SEED;
-        result = HashCodeUtil.hash(result, this.fObjectId);
-        result = HashCodeUtil.hash(result, this.fVariable.getVariableId());
-        return result;
+        return (int) (this.fKey ^ this.fKey >>> 32);
     }
 }
@@ -0,0 +1,275 @@
+package mwgrid.middleware.kernel;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import mwgrid.middleware.distributedobject.Value;
+import mwgrid.middleware.distributedobject.Variable;
+import mwgrid.middleware.exception.InvalidVariableException;
+
+/**
+ * Private variables saved incrementally. Only the current value of each
+ * variable is kept, and a write appends the value it overwrites to an undo
+ * log, so a variable costs nothing in a time step it is not written in, and
+ * writing it again in the same time step logs nothing. Rollback replays the
+ * log backwards, and fossil collection drops the log entries up to the GVT.
+ * <p>
+ * Writes are expected in time order, as a statebase writes at its own time
+ * and rolls back before writing an earlier time again.
+ *
+ * @author Dr B.G.W. Craenen <b.g.w.craenen@cs.bham.ac.uk>
+ */
+class IncrementalVariableMap {
+    private static final Logger LOG = Logger
+            .getLogger(IncrementalVariableMap.class.getPackage().getName());
+    private static final int INITIAL_CAPACITY = 16;
+    private final VariableArrayMap<CurrentValue> fCurrentValues;
+    // Undo log, in the order of the times of the overwriting writes
+    private int[] fLogTimes;
+    private Variable[] fLogVariables;
+    private Value<?>[] fLogValues;
+    private int[] fLogValueTimes;
+    private int fLogStart;
+    private int fLogEnd;
+    
+    /**
+     * Current value of a variable and the time it was written
+     */
+    private static final class CurrentValue {
+        private int fTime;
+        private Value<?> fValue;
+        
+        /**
+         * Constructor
+         * 
+         * @param pTime
+         *            - time written
+         * @param pValue
+         *            - value
+         */
+        CurrentValue(final int pTime, final Value<?> pValue) {
+            this.fTime = pTime;
+            this.fValue = pValue;
+        }
+    }
+    
+    /**
+     * Constructor
+     */
+    IncrementalVariableMap() {
+        this.fCurrentValues = new VariableArrayMap<CurrentValue>();
+        this.fLogTimes = new int[INITIAL_CAPACITY];
+        this.fLogVariables = new Variable[INITIAL_CAPACITY];
+        this.fLogValues = new Value<?>[INITIAL_CAPACITY];
+        this.fLogValueTimes = new int[INITIAL_CAPACITY];
+        this.fLogStart = 0;
+        this.fLogEnd = 0;
+    }
+    
+    /**
+     * Clear the variables and the undo log
+     */
+    void clear() {
+        this.fCurrentValues.clear();
+        Arrays.fill(this.fLogVariables, null);
+        Arrays.fill(this.fLogValues, null);
+        this.fLogStart = 0;
+        this.fLogEnd = 0;
+    }
+    
+    /**
+     * @param pVariable
+     *            - variable
+     * @return (boolean) is the variable in the map?
+     */
+    boolean containsVariable(final Variable pVariable) {
+        return this.fCurrentValues.containsVariable(pVariable);
+    }
+    
+    /**
+     * @param pVariable
+     *            - variable
+     * @param pValue
+     *            - value
+     * @param pTime
+     *            - time
+     */
+    void add(final Variable pVariable, final Value<?> pValue, final int pTime) {
+        if (this.fCurrentValues.containsVariable(pVariable))
+            throw new InvalidVariableException();
+        this.fCurrentValues.put(pVariable, new CurrentValue(pTime, pValue));
+    }
+    
+    /**
+     * @param pVariable
+     *            - variable
+     * @param pTime
+     *            - time
+     * @return (Value<?>) value at the last time at or before the time, or null
+     *         if there is none
+     */
+    Value<?> get(final Variable pVariable, final int pTime) {
+        final CurrentValue currentValue = this.fCurrentValues.get(pVariable);
+        if (currentValue == null) throw new InvalidVariableException();
+        // Reads are usually at the current time
+        if (currentValue.fTime <= pTime) return currentValue.fValue;
+        Value<?> result = currentValue.fValue;
+        int resultTime = currentValue.fTime;
+        for (int index = this.fLogEnd - 1; index >= this.fLogStart
+                && resultTime > pTime; index--) {
+            if (!this.fLogVariables[index].equals(pVariable)) continue;
+            result = this.fLogValues[index];
+            resultTime = this.fLogValueTimes[index];
+        }
+        return resultTime <= pTime ? result : null;
+    }
+    
+    /**
+     * @param pVariable
+     *            - variable
+     * @param pValue
+     *            - value
+     * @param pTime
+     *            - time
+     */
+    void set(final Variable pVariable, final Value<?> pValue, final int pTime) {
+        final CurrentValue currentValue = this.fCurrentValues.get(pVariable);
+        if (currentValue == null) throw new InvalidVariableException();
+        // The value written earlier in the same time step is not needed
+        if (currentValue.fTime != pTime) {
+            assert currentValue.fTime < pTime : "Write before the current value of "
+                    + pVariable + "! time: " + pTime;
+            this.log(pTime, pVariable, currentValue);
+            currentValue.fTime = pTime;
+        }
+        currentValue.fValue = pValue;
+    }
+    
+    /**
+     * Roll back, undoing the writes after the time
+     * 
+     * @param pTime
+     *            - time
+     */
+    void removeMoreThan(final int pTime) {
+        while (this.fLogEnd > this.fLogStart
+                && this.fLogTimes[this.fLogEnd - 1] > pTime) {
+            this.fLogEnd--;
+            final CurrentValue currentValue =
+                    this.fCurrentValues.get(this.fLogVariables[this.fLogEnd]);
+            currentValue.fTime = this.fLogValueTimes[this.fLogEnd];
+            currentValue.fValue = this.fLogValues[this.fLogEnd];
+            this.fLogVariables[this.fLogEnd] = null;
+            this.fLogValues[this.fLogEnd] = null;
+        }
+    }
+    
+    /**
+     * Fossil collect, dropping the log entries no rollback past the GVT can
+     * undo
+     * 
+     * @param pGlobalVariableTime
+     *            - time
+     */
+    void removeLessThan(final int pGlobalVariableTime) {
+        LOG.finest("RemoveLessThan with time: " + pGlobalVariableTime);
+        while (this.fLogStart < this.fLogEnd
+                && this.fLogTimes[this.fLogStart] <= pGlobalVariableTime) {
+            this.fLogVariables[this.fLogStart] = null;
+            this.fLogValues[this.fLogStart] = null;
+            this.fLogStart++;
+        }
+        if (this.fLogStart == this.fLogEnd) {
+            this.fLogStart = 0;
+            this.fLogEnd = 0;
+        }
+    }
+    
+    /**
+     * @return (int) number of values held, current values and undo log
+     */
+    int getHistorySize() {
+        return this.fCurrentValues.size() + this.fLogEnd - this.fLogStart;
+    }
+    
+    /**
+     * @param pTime
+     *            - time of the overwriting write
+     * @param pVariable
+     *            - variable
+     * @param pCurrentValue
+     *            - value overwritten
+     */
+    private void log(final int pTime, final Variable pVariable,
+            final CurrentValue pCurrentValue) {
+        assert this.fLogEnd == this.fLogStart
+                || this.fLogTimes[this.fLogEnd - 1] <= pTime : "Undo log out of time order! time: "
+                + pTime;
+        this.ensureCapacity();
+        this.fLogTimes[this.fLogEnd] = pTime;
+        this.fLogVariables[this.fLogEnd] = pVariable;
+        this.fLogValues[this.fLogEnd] = pCurrentValue.fValue;
+        this.fLogValueTimes[this.fLogEnd] = pCurrentValue.fTime;
+        this.fLogEnd++;
+    }
+    
+    /**
+     * Move the log to the front when full, or double it if it is more than
+     * half full
+     */
+    private void ensureCapacity() {
+        if (this.fLogEnd < this.fLogTimes.length) return;
+        final int size = this.fLogEnd - this.fLogStart;
+        final int capacity =
+                size > this.fLogTimes.length / 2 ? this.fLogTimes.length * 2
+                        : this.fLogTimes.length;
+        this.fLogTimes = moveToFront(this.fLogTimes, this.fLogStart, size,
+            capacity);
+        this.fLogValueTimes = moveToFront(this.fLogValueTimes, this.fLogStart,
+            size, capacity);
+        final Variable[] variables = new Variable[capacity];
+        System.arraycopy(this.fLogVariables, this.fLogStart, variables, 0, size);
+        this.fLogVariables = variables;
+        final Value<?>[] values = new Value<?>[capacity];
+        System.arraycopy(this.fLogValues, this.fLogStart, values, 0, size);
+        this.fLogValues = values;
+        this.fLogStart = 0;
+        this.fLogEnd = size;
+    }
+    
+    /**
+     * @param pArray
+     *            - array
+     * @param pStart
+     *            - index of the first element to keep
+     * @param pSize
+     *            - number of elements to keep
+     * @param pCapacity
+     *            - length of the new array
+     * @return (int[]) new array starting with the kept elements
+     */
+    private static int[] moveToFront(final int[] pArray, final int pStart,
+            final int pSize, final int pCapacity) {
+        final int[] result = new int[pCapacity];
+        System.arraycopy(pArray, pStart, result, 0, pSize);
+        return result;
+    }
+    
+    @Override
+    public String toString() {
+        final StringBuilder result = new StringBuilder();
+        result.append("IncrementalVariableMap {");
+        for (int slot = 0; slot < this.fCurrentValues.capacity(); slot++) {
+            final CurrentValue currentValue = this.fCurrentValues.getAt(slot);
+            if (currentValue == null) continue;
+            result.append(" ("
+                    + this.fCurrentValues.getVariableAt(slot).getVariableId());
+            result.append(", " + currentValue.fTime);
+            result.append(", " + currentValue.fValue);
+            result.append("),");
+        }
+        result.append(" undo log: " + (this.fLogEnd - this.fLogStart)
+                + " values}.");
+        return result.toString();
+    }
+}
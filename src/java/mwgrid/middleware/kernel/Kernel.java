@@ -32,6 +32,47 @@ public final class Kernel {
         Kernel.fScheduler.registerSchedulerListener(pSchedulerListener);
     }
     
+    /**
+     * Sequential instance stepping distributed objects in parallel. With a
+     * parallelism above 1 the SSVs are kept in a ConcurrentSSVHandler, as
+     * the SequentialSSVHandler serializes the SSV accesses of parallel steps.
+     * 
+     * @param pSchedulerListener
+     *            - scheduler listener
+     * @param pEndTime
+     *            - end time
+     * @param pStepParallelism
+     *            - number of threads stepping distributed objects
+     */
+    public static void getSequentionalInstance(final SchedulerListener pSchedulerListener,
+            final int pEndTime, final int pStepParallelism) {
+        Kernel.getSequentionalInstance(pSchedulerListener, pEndTime,
+            pStepParallelism > 1 ? new ConcurrentSSVHandler()
+                    : new SequentialSSVHandler());
+        Kernel.fScheduler.setStepParallelism(pStepParallelism);
+    }
+    
+    /**
+     * Sequential instance with a given SSV handler, such as the
+     * ColumnarSSVHandler.
+     * 
+     * @param pSchedulerListener
+     *            - scheduler listener
+     * @param pEndTime
+     *            - end time
+     * @param pSSVHandler
+     *            - SSV handler
+     */
+    public static void getSequentionalInstance(final SchedulerListener pSchedulerListener,
+            final int pEndTime, final SSVHandler pSSVHandler) {
+        LOG.finest("Create scheduler");
+        Kernel.fScheduler = new Scheduler(pEndTime);
+        LOG.finest("Set SSV handler");
+        Kernel.fSSVHandler = pSSVHandler;
+        LOG.finest("Register scheduler listener");
+        Kernel.fScheduler.registerSchedulerListener(pSchedulerListener);
+    }
+    
     /**
      * @param pSchedulerListener
      *            - scheduler listener
@@ -0,0 +1,171 @@
+package mwgrid.middleware.kernel;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Logger;
+
+import mwgrid.common.FilePrint;
+
+/**
+ * Samples heap and system memory on a timer of its own. Samples are kept in a
+ * fixed-size batch buffer which is written to SCHED_MEM in one go once full
+ * and when the sampler stops. Each line holds the used heap, the maximum heap, the
+ * total, used and free system memory (as reported by free) in bytes, and the
+ * sample time in milliseconds.
+ *
+ * @author Dr B.G.W. Craenen <b.g.w.craenen@cs.bham.ac.uk>
+ */
+public class MemorySampler {
+    private static final Logger LOG = Logger.getLogger(MemorySampler.class
+            .getPackage().getName());
+    private static final String MEMINFO = "/proc/meminfo";
+    private static final long KILOBYTE = 1024;
+    private final int fRank;
+    private final long fInterval;
+    private final String[] fSamples;
+    private final MemoryMXBean fMemoryMXBean;
+    private int fCount;
+    private boolean fMeminfoAvailable;
+    private Timer fTimer;
+    
+    /**
+     * Constructor
+     * 
+     * @param pRank
+     *            - rank
+     * @param pInterval
+     *            - sample interval in milliseconds
+     * @param pCapacity
+     *            - number of samples buffered before they are written
+     */
+    public MemorySampler(final int pRank, final long pInterval,
+            final int pCapacity) {
+        if (pInterval < 1 || pCapacity < 1)
+            throw new IllegalArgumentException(
+                    "Sample interval and capacity must be at least 1");
+        this.fRank = pRank;
+        this.fInterval = pInterval;
+        this.fSamples = new String[pCapacity];
+        this.fMemoryMXBean = ManagementFactory.getMemoryMXBean();
+        this.fCount = 0;
+        this.fMeminfoAvailable = true;
+        this.fTimer = null;
+    }
+    
+    /**
+     * Start sampling on a daemon timer thread
+     */
+    public synchronized void start() {
+        if (this.fTimer != null) return;
+        this.fTimer = new Timer("MemorySampler", true);
+        this.fTimer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                MemorySampler.this.sample();
+            }
+        }, 0, this.fInterval);
+    }
+    
+    /**
+     * Stop sampling and write the buffered samples
+     */
+    public synchronized void stop() {
+        if (this.fTimer != null) {
+            this.fTimer.cancel();
+            this.fTimer = null;
+        }
+        this.flush();
+    }
+    
+    /**
+     * Take a sample, writing the buffer if it is full
+     */
+    public synchronized void sample() {
+        final MemoryUsage heap = this.fMemoryMXBean.getHeapMemoryUsage();
+        final long[] system = this.readMeminfo();
+        final String line =
+                heap.getUsed() + "\t" + heap.getMax() + "\t" + system[0]
+                        + "\t" + system[1] + "\t" + system[2] + "\t"
+                        + System.currentTimeMillis();
+        this.fSamples[this.fCount++] = line;
+        if (this.fCount == this.fSamples.length) this.flush();
+    }
+    
+    /**
+     * Write the buffered samples in one batch
+     */
+    public synchronized void flush() {
+        if (this.fCount == 0) return;
+        final List<String> lines = new ArrayList<String>(this.fCount);
+        for (int index = 0; index < this.fCount; index++) {
+            lines.add(this.fSamples[index]);
+            this.fSamples[index] = null;
+        }
+        this.fCount = 0;
+        FilePrint.printToFile(this.fRank, FilePrint.Filename.SCHED_MEM, lines);
+    }
+    
+    /**
+     * @return (int) number of buffered samples
+     */
+    public synchronized int getBufferedSamples() {
+        return this.fCount;
+    }
+    
+    /**
+     * Read total, used and free system memory, all 0 if unavailable. Used
+     * memory excludes buffers and caches, like free does.
+     * 
+     * @return (long[]) total, used and free memory in bytes
+     */
+    private long[] readMeminfo() {
+        final long[] result = new long[3];
+        if (!this.fMeminfoAvailable) return result;
+        long total = 0;
+        long free = 0;
+        long buffers = 0;
+        long cached = 0;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(MEMINFO));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] values = line.split("\\s+");
+                if (values.length < 2) continue;
+                if (values[0].equals("MemTotal:"))
+                    total = Long.parseLong(values[1]) * KILOBYTE;
+                else if (values[0].equals("MemFree:"))
+                    free = Long.parseLong(values[1]) * KILOBYTE;
+                else if (values[0].equals("Buffers:"))
+                    buffers = Long.parseLong(values[1]) * KILOBYTE;
+                else if (values[0].equals("Cached:"))
+                    cached = Long.parseLong(values[1]) * KILOBYTE;
+            }
+        } catch (final IOException e) {
+            LOG.warning("Can't read " + MEMINFO
+                    + ", system memory not sampled");
+            this.fMeminfoAvailable = false;
+            return result;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        result[0] = total;
+        result[1] = total - free - buffers - cached;
+        result[2] = free;
+        return result;
+    }
+}
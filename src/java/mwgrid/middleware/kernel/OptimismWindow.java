@@ -0,0 +1,137 @@
+package mwgrid.middleware.kernel;
+
+/**
+ * Bounds how far distributed objects may run ahead of the GVT. An object with
+ * a time more than the window size ahead of the GVT isn't stepped until the
+ * GVT catches up, which caps the depth of roll-backs and the speculative
+ * history held per object. A fixed window keeps its size. An adaptive window
+ * halves its size when the roll-back rate over a pass exceeds its target, and
+ * grows by one when objects were blocked while the roll-back rate was below
+ * its target.
+ *
+ * @author Dr B.G.W. Craenen <b.g.w.craenen@cs.bham.ac.uk>
+ */
+public class OptimismWindow {
+    public static final double DEFAULT_ROLLBACK_RATE_TARGET = 0.1;
+    private final boolean fAdaptive;
+    private final int fMinSize;
+    private final int fMaxSize;
+    private double fRollbackRateTarget;
+    private int fSize;
+    private long fBlocked;
+    
+    /**
+     * Constructor for a fixed window
+     * 
+     * @param pSize
+     *            - number of time steps objects may run ahead of the GVT
+     */
+    public OptimismWindow(final int pSize) {
+        this(pSize, pSize, pSize, false);
+    }
+    
+    /**
+     * Constructor for an adaptive window
+     * 
+     * @param pSize
+     *            - initial number of time steps objects may run ahead of the
+     *            GVT
+     * @param pMinSize
+     *            - minimum size
+     * @param pMaxSize
+     *            - maximum size
+     */
+    public OptimismWindow(final int pSize, final int pMinSize,
+            final int pMaxSize) {
+        this(pSize, pMinSize, pMaxSize, true);
+    }
+    
+    /**
+     * Constructor
+     * 
+     * @param pSize
+     *            - initial size
+     * @param pMinSize
+     *            - minimum size
+     * @param pMaxSize
+     *            - maximum size
+     * @param pAdaptive
+     *            - adapt the size to the roll-back rate?
+     */
+    private OptimismWindow(final int pSize, final int pMinSize,
+            final int pMaxSize, final boolean pAdaptive) {
+        if (pMinSize < 1 || pMaxSize < pMinSize || pSize < pMinSize
+                || pSize > pMaxSize)
+            throw new IllegalArgumentException("Invalid optimism window size");
+        this.fSize = pSize;
+        this.fMinSize = pMinSize;
+        this.fMaxSize = pMaxSize;
+        this.fAdaptive = pAdaptive;
+        this.fRollbackRateTarget = DEFAULT_ROLLBACK_RATE_TARGET;
+        this.fBlocked = 0;
+    }
+    
+    /**
+     * @param pTime
+     *            - time of the distributed object
+     * @param pGlobalVariableTime
+     *            - current GVT
+     * @return (boolean) is the object too far ahead of the GVT to step?
+     */
+    public synchronized boolean isBlocked(final int pTime,
+            final int pGlobalVariableTime) {
+        // Long arithmetic as the GVT plus size may overflow
+        return pTime > (long) pGlobalVariableTime + this.fSize;
+    }
+    
+    /**
+     * Record a scheduler pass and adapt the size if adaptive.
+     * 
+     * @param pStepped
+     *            - number of distributed objects stepped
+     * @param pBlocked
+     *            - number of distributed objects blocked
+     * @param pRollbacks
+     *            - number of roll-backs
+     */
+    public synchronized void update(final int pStepped, final int pBlocked,
+            final int pRollbacks) {
+        this.fBlocked += pBlocked;
+        if (!this.fAdaptive) return;
+        final double rollbackRate = (double) pRollbacks / Math.max(1, pStepped);
+        if (rollbackRate > this.fRollbackRateTarget)
+            this.fSize = Math.max(this.fMinSize, this.fSize / 2);
+        else if (pBlocked > 0)
+            this.fSize = Math.min(this.fMaxSize, this.fSize + 1);
+    }
+    
+    /**
+     * @param pRollbackRateTarget
+     *            - roll-backs per step above which the window shrinks
+     */
+    public synchronized void setRollbackRateTarget(
+            final double pRollbackRateTarget) {
+        this.fRollbackRateTarget = pRollbackRateTarget;
+    }
+    
+    /**
+     * @return (boolean) is the window adaptive?
+     */
+    public boolean isAdaptive() {
+        return this.fAdaptive;
+    }
+    
+    /**
+     * @return (int) current size
+     */
+    public synchronized int getSize() {
+        return this.fSize;
+    }
+    
+    /**
+     * @return (long) number of times an object was blocked
+     */
+    public synchronized long getBlocked() {
+        return this.fBlocked;
+    }
+}
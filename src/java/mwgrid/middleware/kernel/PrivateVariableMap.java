@@ -3,8 +3,6 @@
  */
 package mwgrid.middleware.kernel;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.logging.Logger;
 
 import mwgrid.middleware.distributedobject.Value;
@@ -12,25 +10,71 @@ import mwgrid.middleware.distributedobject.Variable;
 import mwgrid.middleware.exception.InvalidVariableException;
 
 /**
+ * Private variables of a statebase. By default every write is saved as a
+ * value per variable per time. In incremental mode only the values that are
+ * overwritten are saved, in an undo log, see IncrementalVariableMap. In
+ * checkpoint mode the values are saved every number of time steps, and a
+ * rollback restores the last checkpoint before it, see CheckpointVariableMap.
+ * The variables are kept in arrays indexed by variable slot, see
+ * VariableArrayMap.
+ * 
  * @author Dr B.G.W. Craenen <b.g.w.craenen@cs.bham.ac.uk>
  */
 public class PrivateVariableMap {
     private static final Logger LOG = Logger.getLogger(PrivateVariableMap.class
         .getPackage().getName());
-    private final Map<Variable, TimeValueMap> fPrivateVariableMap;
+    private final VariableArrayMap<TimeValueMap> fPrivateVariableMap;
+    // Null unless saving incrementally
+    private final IncrementalVariableMap fIncrementalVariableMap;
+    // Null unless saving checkpoints
+    private final CheckpointVariableMap fCheckpointVariableMap;
+    // Number of values held over all variables, kept up to date by writes,
+    // rollbacks and fossil collection
+    private int fHistorySize;
     
     /**
      * Constructor
      */
     public PrivateVariableMap() {
-        this.fPrivateVariableMap = new HashMap<Variable, TimeValueMap>();
+        this(false);
+    }
+    
+    /**
+     * Constructor
+     * 
+     * @param pIncremental
+     *            - save only overwritten values, in an undo log?
+     */
+    public PrivateVariableMap(final boolean pIncremental) {
+        this.fPrivateVariableMap = new VariableArrayMap<TimeValueMap>();
+        this.fIncrementalVariableMap =
+                pIncremental ? new IncrementalVariableMap() : null;
+        this.fCheckpointVariableMap = null;
+    }
+    
+    /**
+     * Constructor
+     * 
+     * @param pCheckpointInterval
+     *            - number of time steps between checkpoints, at least 1
+     */
+    public PrivateVariableMap(final int pCheckpointInterval) {
+        this.fPrivateVariableMap = new VariableArrayMap<TimeValueMap>();
+        this.fIncrementalVariableMap = null;
+        this.fCheckpointVariableMap =
+                new CheckpointVariableMap(pCheckpointInterval);
     }
     
     /**
      * Clear the private variable map
      */
     public void clear() {
+        if (this.fIncrementalVariableMap != null)
+            this.fIncrementalVariableMap.clear();
+        if (this.fCheckpointVariableMap != null)
+            this.fCheckpointVariableMap.clear();
         this.fPrivateVariableMap.clear();
+        this.fHistorySize = 0;
     }
     
     /**
@@ -38,7 +82,11 @@ public class PrivateVariableMap {
      * @return true if private variable map contains variable, false otherwise
      */
     public boolean containsVariable(final Variable pVariable) {
-        return this.fPrivateVariableMap.containsKey(pVariable);
+        if (this.fIncrementalVariableMap != null)
+            return this.fIncrementalVariableMap.containsVariable(pVariable);
+        if (this.fCheckpointVariableMap != null)
+            return this.fCheckpointVariableMap.containsVariable(pVariable);
+        return this.fPrivateVariableMap.containsVariable(pVariable);
     }
     
     /**
@@ -47,10 +95,19 @@ public class PrivateVariableMap {
      * @param pTime - time
      */
     public void add(final Variable pVariable, final Value<?> pValue, final int pTime) {
-        if (this.fPrivateVariableMap.containsKey(pVariable))
+        if (this.fIncrementalVariableMap != null) {
+            this.fIncrementalVariableMap.add(pVariable, pValue, pTime);
+            return;
+        }
+        if (this.fCheckpointVariableMap != null) {
+            this.fCheckpointVariableMap.add(pVariable, pValue, pTime);
+            return;
+        }
+        if (this.fPrivateVariableMap.containsVariable(pVariable))
             throw new InvalidVariableException();
         final TimeValueMap newTimeValueMap = new TimeValueMap(pTime, pValue);
         this.fPrivateVariableMap.put(pVariable, newTimeValueMap);
+        this.fHistorySize++;
     }
     
     /**
@@ -59,9 +116,13 @@ public class PrivateVariableMap {
      * @return (Value<?>) value
      */
     public Value<?> get(final Variable pVariable, final int pTime) {
-        if (!this.fPrivateVariableMap.containsKey(pVariable))
-            throw new InvalidVariableException();
-        return this.fPrivateVariableMap.get(pVariable).get(pTime);
+        if (this.fIncrementalVariableMap != null)
+            return this.fIncrementalVariableMap.get(pVariable, pTime);
+        if (this.fCheckpointVariableMap != null)
+            return this.fCheckpointVariableMap.get(pVariable, pTime);
+        final TimeValueMap timeValueMap = this.fPrivateVariableMap.get(pVariable);
+        if (timeValueMap == null) throw new InvalidVariableException();
+        return timeValueMap.get(pTime);
     }
     
     /**
@@ -70,10 +131,18 @@ public class PrivateVariableMap {
      * @param pTime - time
      */
     public void set(final Variable pVariable, final Value<?> pValue, final int pTime) {
-        if (!this.fPrivateVariableMap.containsKey(pVariable))
-            throw new InvalidVariableException();
-        assert null != this.fPrivateVariableMap.get(pVariable) : "TimeValueMap is null!";
-        this.fPrivateVariableMap.get(pVariable).set(pTime, pValue);
+        if (this.fIncrementalVariableMap != null) {
+            this.fIncrementalVariableMap.set(pVariable, pValue, pTime);
+            return;
+        }
+        if (this.fCheckpointVariableMap != null) {
+            this.fCheckpointVariableMap.set(pVariable, pValue, pTime);
+            return;
+        }
+        final TimeValueMap timeValueMap = this.fPrivateVariableMap.get(pVariable);
+        if (timeValueMap == null) throw new InvalidVariableException();
+        timeValueMap.set(pTime, pValue);
+        this.fHistorySize++;
     }
     
     /**
@@ -81,27 +150,71 @@ public class PrivateVariableMap {
      */
     public void removeLessThan(final int pGlobalVariableTime) {
         LOG.finest("RemoveLessThan with time: " + pGlobalVariableTime);
-        for (TimeValueMap timeValueMap : this.fPrivateVariableMap.values()) {
+        if (this.fIncrementalVariableMap != null)
+            this.fIncrementalVariableMap.removeLessThan(pGlobalVariableTime);
+        if (this.fCheckpointVariableMap != null)
+            this.fCheckpointVariableMap.removeLessThan(pGlobalVariableTime);
+        for (int slot = 0; slot < this.fPrivateVariableMap.capacity(); slot++) {
+            final TimeValueMap timeValueMap =
+                    this.fPrivateVariableMap.getAt(slot);
+            if (timeValueMap == null) continue;
+            this.fHistorySize -= timeValueMap.size();
             timeValueMap.removeLessThan(pGlobalVariableTime);
+            this.fHistorySize += timeValueMap.size();
         }
         LOG.finest("Finished RemoveLessThan with time: " + pGlobalVariableTime);
     }
     
     /**
      * @param pTime - time
+     * @return (int) time the values were restored to, before the time if a
+     *         checkpoint was restored
      */
-    public void removeMoreThan(final int pTime) {
-        for (TimeValueMap timeValueMap : this.fPrivateVariableMap.values())
+    public int removeMoreThan(final int pTime) {
+        if (this.fCheckpointVariableMap != null)
+            return this.fCheckpointVariableMap.removeMoreThan(pTime);
+        if (this.fIncrementalVariableMap != null) {
+            this.fIncrementalVariableMap.removeMoreThan(pTime);
+            return pTime;
+        }
+        for (int slot = 0; slot < this.fPrivateVariableMap.capacity(); slot++) {
+            final TimeValueMap timeValueMap =
+                    this.fPrivateVariableMap.getAt(slot);
+            if (timeValueMap == null) continue;
+            this.fHistorySize -= timeValueMap.size();
             timeValueMap.removeMoreThan(pTime);
+            this.fHistorySize += timeValueMap.size();
+        }
+        return pTime;
+    }
+    
+    /**
+     * @return (int) number of values held over all variables
+     */
+    public int getHistorySize() {
+        if (this.fIncrementalVariableMap != null)
+            return this.fIncrementalVariableMap.getHistorySize();
+        if (this.fCheckpointVariableMap != null)
+            return this.fCheckpointVariableMap.getHistorySize();
+        return this.fHistorySize;
     }
     
     @Override
     public String toString() {
+        if (this.fIncrementalVariableMap != null)
+            return this.fIncrementalVariableMap.toString();
+        if (this.fCheckpointVariableMap != null)
+            return this.fCheckpointVariableMap.toString();
         final StringBuilder result = new StringBuilder();
         result.append("PrivateVariableMap {");
-        for (final Variable variable : this.fPrivateVariableMap.keySet()) {
-            result.append(" (" + variable.getVariableId());
-            result.append(", " + this.fPrivateVariableMap.get(variable).toString());
+        for (int slot = 0; slot < this.fPrivateVariableMap.capacity(); slot++) {
+            final TimeValueMap timeValueMap =
+                    this.fPrivateVariableMap.getAt(slot);
+            if (timeValueMap == null) continue;
+            result.append(" ("
+                    + this.fPrivateVariableMap.getVariableAt(slot)
+                            .getVariableId());
+            result.append(", " + timeValueMap.toString());
             result.append("),");
         }
         result.deleteCharAt(result.length() - 1);
@@ -0,0 +1,200 @@
+package mwgrid.middleware.kernel;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import mwgrid.middleware.distributedobject.Location;
+
+/**
+ * Cache of range query results per time and tile, shared by all agents.
+ * Agents query overlapping neighbourhoods at the same time, so a query is
+ * answered from the cached tiles it overlaps, and only the tiles not cached
+ * yet are queried from the spatial index.
+ * <p>
+ * A cached tile lists the objects located in it at its time. When an object
+ * is added or written at a time, the cached tiles from that time on that
+ * hold the object, or the tile of its new location, are invalidated. Tiles
+ * before the GVT are dropped on fossil collection, and at most MAX_TIMES
+ * times are cached.
+ * <p>
+ * The cache is not thread-safe, the SequentialSSVHandler uses it under its
+ * own lock.
+ *
+ * @author Dr B.G.W. Craenen <b.g.w.craenen@cs.bham.ac.uk>
+ */
+class RangeQueryCache {
+    static final int MAX_TIMES = 16;
+    static final int MAX_QUERY_TILES = 64;
+    private final SpatialIndex fSpatialIndex;
+    private final int fTileSize;
+    private final TreeMap<Integer, Map<Long, Map<Long, Location>>> fTiles;
+    private long fHits;
+    private long fMisses;
+    
+    /**
+     * Constructor
+     * 
+     * @param pSpatialIndex
+     *            - spatial index answering the tiles not cached
+     * @param pTileSize
+     *            - width and height of a tile
+     */
+    RangeQueryCache(final SpatialIndex pSpatialIndex, final int pTileSize) {
+        if (pTileSize < 1)
+            throw new IllegalArgumentException("Tile size must be at least 1");
+        this.fSpatialIndex = pSpatialIndex;
+        this.fTileSize = pTileSize;
+        this.fTiles = new TreeMap<Integer, Map<Long, Map<Long, Location>>>();
+        this.fHits = 0;
+        this.fMisses = 0;
+    }
+    
+    /**
+     * @param pTime
+     *            - time
+     * @param pStartLocation
+     *            - start location
+     * @param pEndLocation
+     *            - end location
+     * @return (Map<Long, Location>) object IDs and locations in range at the
+     *         time
+     */
+    Map<Long, Location> rangeQuery(final int pTime,
+            final Location pStartLocation, final Location pEndLocation) {
+        final int minX =
+                SpatialIndex.cell(Math.min(pStartLocation.getX(), pEndLocation
+                        .getX()), this.fTileSize);
+        final int maxX =
+                SpatialIndex.cell(Math.max(pStartLocation.getX(), pEndLocation
+                        .getX()), this.fTileSize);
+        final int minY =
+                SpatialIndex.cell(Math.min(pStartLocation.getY(), pEndLocation
+                        .getY()), this.fTileSize);
+        final int maxY =
+                SpatialIndex.cell(Math.max(pStartLocation.getY(), pEndLocation
+                        .getY()), this.fTileSize);
+        final long rangeTiles =
+                ((long) maxX - minX + 1) * ((long) maxY - minY + 1);
+        if (rangeTiles > MAX_QUERY_TILES) {
+            // Large ranges would cache mostly empty tiles
+            this.fMisses++;
+            return this.fSpatialIndex.rangeQuery(pTime, pStartLocation,
+                pEndLocation);
+        }
+        final Map<Long, Map<Long, Location>> tiles = this.getTiles(pTime);
+        final Map<Long, Location> result = new HashMap<Long, Location>();
+        for (int x = minX; x <= maxX; x++)
+            for (int y = minY; y <= maxY; y++) {
+                final Long key = SpatialIndex.cellKey(x, y);
+                Map<Long, Location> tile = tiles.get(key);
+                if (tile == null) {
+                    this.fMisses++;
+                    tile =
+                            this.fSpatialIndex.rangeQuery(pTime, new Location(x
+                                    * this.fTileSize, y * this.fTileSize),
+                                new Location((x + 1) * this.fTileSize - 1,
+                                        (y + 1) * this.fTileSize - 1));
+                    tiles.put(key, tile);
+                } else {
+                    this.fHits++;
+                }
+                for (final Map.Entry<Long, Location> entry : tile.entrySet())
+                    if (entry.getValue().in(pStartLocation, pEndLocation))
+                        result.put(entry.getKey(), entry.getValue());
+            }
+        return result;
+    }
+    
+    /**
+     * Invalidate the tiles an object was added or written to
+     * 
+     * @param pObjectId
+     *            - object ID
+     * @param pTime
+     *            - time of the add or write
+     * @param pLocation
+     *            - location added or written
+     */
+    void invalidate(final long pObjectId, final int pTime,
+            final Location pLocation) {
+        final Long key =
+                SpatialIndex.cellKey(SpatialIndex.cell(pLocation.getX(),
+                    this.fTileSize), SpatialIndex.cell(pLocation.getY(),
+                    this.fTileSize));
+        final Long objectId = new Long(pObjectId);
+        for (final Map<Long, Map<Long, Location>> tiles : this.fTiles.tailMap(
+            new Integer(pTime), true).values()) {
+            tiles.remove(key);
+            removeTilesHolding(tiles, objectId);
+        }
+    }
+    
+    /**
+     * Invalidate the tiles holding a removed object
+     * 
+     * @param pObjectId
+     *            - object ID
+     */
+    void remove(final long pObjectId) {
+        final Long objectId = new Long(pObjectId);
+        for (final Map<Long, Map<Long, Location>> tiles : this.fTiles.values())
+            removeTilesHolding(tiles, objectId);
+    }
+    
+    /**
+     * Drop the tiles of times before the time
+     * 
+     * @param pTime
+     *            - time, usually the GVT
+     */
+    void removeLessThan(final int pTime) {
+        this.fTiles.headMap(new Integer(pTime)).clear();
+    }
+    
+    /**
+     * @return (long) number of tiles answered from the cache
+     */
+    long getHits() {
+        return this.fHits;
+    }
+    
+    /**
+     * @return (long) number of tiles queried from the spatial index
+     */
+    long getMisses() {
+        return this.fMisses;
+    }
+    
+    /**
+     * @param pTime
+     *            - time
+     * @return (Map<Long, Map<Long, Location>>) cached tiles of the time
+     */
+    private Map<Long, Map<Long, Location>> getTiles(final int pTime) {
+        final Integer time = new Integer(pTime);
+        Map<Long, Map<Long, Location>> result = this.fTiles.get(time);
+        if (result == null) {
+            result = new HashMap<Long, Map<Long, Location>>();
+            this.fTiles.put(time, result);
+            if (this.fTiles.size() > MAX_TIMES)
+                this.fTiles.remove(this.fTiles.firstKey());
+        }
+        return result;
+    }
+    
+    /**
+     * @param pTiles
+     *            - cached tiles of a time
+     * @param pObjectId
+     *            - object ID
+     */
+    private static void removeTilesHolding(
+            final Map<Long, Map<Long, Location>> pTiles, final Long pObjectId) {
+        final Iterator<Map<Long, Location>> iterator =
+                pTiles.values().iterator();
+        while (iterator.hasNext())
+            if (iterator.next().containsKey(pObjectId)) iterator.remove();
+    }
+}
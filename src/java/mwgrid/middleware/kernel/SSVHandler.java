@@ -76,6 +76,133 @@ public interface SSVHandler {
             Value<?> pValue, int pTime) throws RollbackException,
             SSVNotFoundException;
     
+    /**
+     * Read an Integer SSV without wrapping it in a Value.
+     * 
+     * @param pAgentId
+     *            - agent ID
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable of type Integer
+     * @param pTime
+     *            - time
+     * @return (int) value
+     * @throws SSVNotFoundException
+     *             - thrown if SSV is not found
+     * @throws RollbackException
+     *             - thrown if rollback occurs
+     */
+    int readInt(long pAgentId, long pObjectId, Variable pVariable, int pTime)
+            throws RollbackException, SSVNotFoundException;
+    
+    /**
+     * Read a Double SSV without wrapping it in a Value.
+     * 
+     * @param pAgentId
+     *            - agent ID
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable of type Double
+     * @param pTime
+     *            - time
+     * @return (double) value
+     * @throws SSVNotFoundException
+     *             - thrown if SSV is not found
+     * @throws RollbackException
+     *             - thrown if rollback occurs
+     */
+    double readDouble(long pAgentId, long pObjectId, Variable pVariable,
+            int pTime) throws RollbackException, SSVNotFoundException;
+    
+    /**
+     * Read a Location SSV without wrapping it in a Value.
+     * 
+     * @param pAgentId
+     *            - agent ID
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable of type Location
+     * @param pTime
+     *            - time
+     * @return (Location) value
+     * @throws SSVNotFoundException
+     *             - thrown if SSV is not found
+     * @throws RollbackException
+     *             - thrown if rollback occurs
+     */
+    Location readLocation(long pAgentId, long pObjectId, Variable pVariable,
+            int pTime) throws RollbackException, SSVNotFoundException;
+    
+    /**
+     * Read the same variable of many objects in one call, so a distributed
+     * handler can send the reads in one message.
+     * 
+     * @param pAgentId
+     *            - agent ID
+     * @param pObjectIds
+     *            - object IDs
+     * @param pVariable
+     *            - variable
+     * @param pTime
+     *            - time
+     * @return (Value<?>[]) values, in the order of the object IDs
+     * @throws SSVNotFoundException
+     *             - thrown if the SSV of any object is not found
+     * @throws RollbackException
+     *             - thrown if rollback occurs
+     */
+    Value<?>[] readAll(long pAgentId, long[] pObjectIds, Variable pVariable,
+            int pTime) throws RollbackException, SSVNotFoundException;
+    
+    /**
+     * Write an Integer SSV without wrapping it in a Value.
+     * 
+     * @param pAgentId
+     *            - agent ID
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable of type Integer
+     * @param pValue
+     *            - value
+     * @param pTime
+     *            - time
+     * @return (boolean) success?
+     * @throws SSVNotFoundException
+     *             - thrown if SSV not found
+     * @throws RollbackException
+     *             - thrown if rollback occurs
+     */
+    boolean writeInt(long pAgentId, long pObjectId, Variable pVariable,
+            int pValue, int pTime) throws RollbackException,
+            SSVNotFoundException;
+    
+    /**
+     * Write a Double SSV without wrapping it in a Value.
+     * 
+     * @param pAgentId
+     *            - agent ID
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable of type Double
+     * @param pValue
+     *            - value
+     * @param pTime
+     *            - time
+     * @return (boolean) success?
+     * @throws SSVNotFoundException
+     *             - thrown if SSV not found
+     * @throws RollbackException
+     *             - thrown if rollback occurs
+     */
+    boolean writeDouble(long pAgentId, long pObjectId, Variable pVariable,
+            double pValue, int pTime) throws RollbackException,
+            SSVNotFoundException;
+    
     /**
      * @param pAgentId
      *            - agent ID
@@ -115,6 +242,14 @@ public interface SSVHandler {
      */
     int getRollbackMapTime(final long pAgentId);
     
+    /**
+     * Take the next agent ID put in the roll-back map. Every agent is queued
+     * once until its roll-back map time is taken.
+     * 
+     * @return (long) agent ID, -1 if no roll-backs are queued
+     */
+    long pollRollback();
+    
     /**
      * @param pObjectId
      *            - object ID
@@ -158,4 +293,27 @@ public interface SSVHandler {
      * Send GVT message
      */
     void sendGVTMessage();
+    
+    /**
+     * @return (boolean) does a new GVT value signal a state change to the
+     *         scheduler? If not, the scheduler polls the GVT while parked.
+     */
+    boolean isGVTSignalled();
+    
+    /**
+     * @return (long) number of saved values held by this handler, 0 if they
+     *         are held elsewhere
+     */
+    long getHistorySize();
+    
+    /**
+     * Fossil collect the saved values before the GVT, keeping the last value
+     * at or before the GVT.
+     * 
+     * @param pGlobalVariableTime
+     *            - global variable time
+     * @return (long) estimated bytes reclaimed, 0 if the values are held
+     *         elsewhere
+     */
+    long cleanToGVT(int pGlobalVariableTime);
 }
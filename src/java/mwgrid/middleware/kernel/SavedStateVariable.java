@@ -1,76 +1,34 @@
 package mwgrid.middleware.kernel;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
 
-import mwgrid.common.EqualsUtil;
-import mwgrid.common.HashCodeUtil;
 import mwgrid.middleware.distributedobject.Value;
 
 /**
+ * History of a shared state variable. Write times and values are kept in
+ * parallel arrays sorted on time, so reads are a binary search and writes in
+ * time order are an amortised constant time append. Writes before the GVT are
+ * fossil collected, keeping the last write at or before the GVT.
+ * <p>
+ * Typed int and double writes are kept as raw bits in a parallel array of
+ * longs, allocated on the first typed write, with a null value, so they
+ * allocate no Value. Such a write is only boxed when it is read as a Value.
+ * 
  * @author Dr B.G.W. Craenen
  */
 public class SavedStateVariable {
-    private class WritePeriod implements Comparable<WritePeriod> {
-        private final int fTime;
-        private final Value<?> fValue;
-        
-        /**
-         * Constructor
-         * 
-         * @param pTime
-         *            - time
-         * @param pValue
-         *            - value
-         */
-        public WritePeriod(final int pTime, final Value<?> pValue) {
-            // Constructor
-            this.fTime = pTime;
-            this.fValue = pValue;
-        }
-        
-        @Override
-        public int compareTo(final WritePeriod pWritePeriod) {
-            if (this.fTime < pWritePeriod.fTime) return -1;
-            if (this.fTime > pWritePeriod.fTime) return 1;
-            return 0;
-        }
-        
-        @Override
-        public boolean equals(final Object pObject) {
-            if (this == pObject) return true;
-            if (!(pObject instanceof WritePeriod)) return false;
-            final WritePeriod that = (WritePeriod) pObject;
-            return EqualsUtil.areEqual(this.fTime, that.fTime)
-                    && EqualsUtil.areEqual(this.fValue, that.fValue);
-        }
-        
-        /**
-         * @return (int) time
-         */
-        public int getTime() {
-            return this.fTime;
-        }
-        
-        /**
-         * @return (Value<?>) value
-         */
-        public Value<?> getValue() {
-            return this.fValue;
-        }
-        
-        @Override
-        public int hashCode() {
-            int result = HashCodeUtil.SEED;
-            result = HashCodeUtil.hash(result, this.fTime);
-            result = HashCodeUtil.hash(result, this.fValue);
-            return result;
-        }
-    }
-    
+    private static final int INITIAL_CAPACITY = 4;
+    /** Estimated bytes per array slot, a time or a compressed reference */
+    static final int SLOT_BYTES = 4;
+    /** Estimated bytes per value object, including its boxed payload */
+    static final int VALUE_BYTES = 32;
     private final Identifier fIdentifier;
-    private final List<WritePeriod> fWritePeriodList;
+    private int[] fTimes;
+    private Value<?>[] fValues;
+    // Raw bits of the typed writes, null until the first typed write
+    private long[] fPrimitives;
+    private int fSize;
+    private int fCollectedTime;
     
     /**
      * Constructor
@@ -85,8 +43,13 @@ public class SavedStateVariable {
     public SavedStateVariable(final Identifier pIdentifier,
             final Value<?> pInitialValue, final int pTime) {
         this.fIdentifier = pIdentifier;
-        this.fWritePeriodList = new ArrayList<WritePeriod>();
-        this.fWritePeriodList.add(new WritePeriod(pTime, pInitialValue));
+        this.fTimes = new int[INITIAL_CAPACITY];
+        this.fValues = new Value<?>[INITIAL_CAPACITY];
+        this.fTimes[0] = pTime;
+        this.fValues[0] = pInitialValue;
+        this.fPrimitives = null;
+        this.fSize = 1;
+        this.fCollectedTime = Integer.MIN_VALUE;
     }
     
     /**
@@ -96,25 +59,56 @@ public class SavedStateVariable {
         return this.fIdentifier;
     }
     
+    /**
+     * @return (int) number of writes held
+     */
+    public int size() {
+        return this.fSize;
+    }
+    
+    /**
+     * @param pIndex
+     *            - index of a held write, 0 being the oldest
+     * @return (Value<?>) value of the write
+     */
+    Value<?> getValue(final int pIndex) {
+        if (pIndex < 0 || pIndex >= this.fSize)
+            throw new IndexOutOfBoundsException();
+        return this.value(pIndex);
+    }
+    
     /**
      * @param pTime
      *            - time
-     * @return (Value<?>) value
+     * @return (Value<?>) value of the last write at or before the time
      */
     public Value<?> read(final int pTime) {
-        // Sort the write period list
-        Collections.sort(this.fWritePeriodList);
-        // If time is before write period list initial time
-        // throw IllegalArgumentException
-        if (this.fWritePeriodList.get(0).getTime() > pTime)
-            throw new IllegalArgumentException();
-        Value<?> result = null;
-        for (final WritePeriod writePeriod : this.fWritePeriodList) {
-            result = writePeriod.getValue();
-            // Test what happens when time = writePeriod.getTime()
-            if (writePeriod.getTime() > pTime) break;
-        }
-        return result;
+        return this.value(this.readIndex(pTime));
+    }
+    
+    /**
+     * @param pTime
+     *            - time
+     * @return (int) value of the last write at or before the time, of a
+     *         variable of type Integer
+     */
+    public int readInt(final int pTime) {
+        final int index = this.readIndex(pTime);
+        if (this.fValues[index] == null) return (int) this.fPrimitives[index];
+        return ((Integer) this.fValues[index].get()).intValue();
+    }
+    
+    /**
+     * @param pTime
+     *            - time
+     * @return (double) value of the last write at or before the time, of a
+     *         variable of type Double
+     */
+    public double readDouble(final int pTime) {
+        final int index = this.readIndex(pTime);
+        if (this.fValues[index] == null)
+            return Double.longBitsToDouble(this.fPrimitives[index]);
+        return ((Double) this.fValues[index].get()).doubleValue();
     }
     
     /**
@@ -125,17 +119,184 @@ public class SavedStateVariable {
      * @return (boolean) success?
      */
     public boolean write(final int pTime, final Value<?> pValue) {
-        // Sort the write periods
-        Collections.sort(this.fWritePeriodList);
-        // If before initial time throw Illegal argument
-        if (this.fWritePeriodList.get(0).getTime() > pTime)
-            throw new IllegalArgumentException();
-        // Check if there is a write for the same time,if so return false
-        for (final WritePeriod writePeriod : this.fWritePeriodList)
-            if (writePeriod.getTime() == pTime) return false;
-        // Create new write period and add write period to list
-        this.fWritePeriodList.add(new WritePeriod(pTime, pValue));
-        // return true
+        final int index = this.insert(pTime);
+        if (index < 0) return false;
+        this.fValues[index] = pValue;
         return true;
     }
+    
+    /**
+     * @param pTime
+     *            - time
+     * @param pValue
+     *            - value of a variable of type Integer
+     * @return (boolean) success?
+     */
+    public boolean writeInt(final int pTime, final int pValue) {
+        return this.writePrimitive(pTime, pValue);
+    }
+    
+    /**
+     * @param pTime
+     *            - time
+     * @param pValue
+     *            - value of a variable of type Double
+     * @return (boolean) success?
+     */
+    public boolean writeDouble(final int pTime, final double pValue) {
+        return this.writePrimitive(pTime, Double.doubleToRawLongBits(pValue));
+    }
+    
+    /**
+     * Fossil collect the writes before the GVT, keeping the last write at or
+     * before the GVT so reads from the GVT on are unchanged. The arrays are
+     * halved while at most a quarter full.
+     * 
+     * @param pGlobalVariableTime
+     *            - global variable time
+     * @return (long) estimated bytes reclaimed
+     */
+    public long removeLessThan(final int pGlobalVariableTime) {
+        if (pGlobalVariableTime > this.fCollectedTime)
+            this.fCollectedTime = pGlobalVariableTime;
+        if (this.fTimes[0] >= pGlobalVariableTime) return 0;
+        final int removed = this.floorIndex(pGlobalVariableTime);
+        if (removed == 0) return 0;
+        long result = 0;
+        for (int index = 0; index < removed; index++)
+            if (this.fValues[index] != null) result += VALUE_BYTES;
+        System.arraycopy(this.fTimes, removed, this.fTimes, 0, this.fSize
+                - removed);
+        System.arraycopy(this.fValues, removed, this.fValues, 0, this.fSize
+                - removed);
+        if (this.fPrimitives != null)
+            System.arraycopy(this.fPrimitives, removed, this.fPrimitives, 0,
+                this.fSize - removed);
+        // Clear the references so the values can be collected
+        Arrays.fill(this.fValues, this.fSize - removed, this.fSize, null);
+        this.fSize -= removed;
+        int capacity = this.fTimes.length;
+        while (capacity > INITIAL_CAPACITY && this.fSize <= capacity / 4)
+            capacity /= 2;
+        if (capacity < this.fTimes.length) {
+            // A primitive slot is as wide as a time and a reference together
+            result +=
+                    (long) (this.fTimes.length - capacity)
+                            * (this.fPrimitives == null ? 2 : 4) * SLOT_BYTES;
+            this.fTimes = Arrays.copyOf(this.fTimes, capacity);
+            this.fValues = Arrays.copyOf(this.fValues, capacity);
+            if (this.fPrimitives != null)
+                this.fPrimitives = Arrays.copyOf(this.fPrimitives, capacity);
+        }
+        return result;
+    }
+    
+    /**
+     * @param pTime
+     *            - time
+     * @param pBits
+     *            - raw bits of the value
+     * @return (boolean) success?
+     */
+    private boolean writePrimitive(final int pTime, final long pBits) {
+        final int index = this.insert(pTime);
+        if (index < 0) return false;
+        if (this.fPrimitives == null)
+            this.fPrimitives = new long[this.fTimes.length];
+        this.fPrimitives[index] = pBits;
+        this.fValues[index] = null;
+        return true;
+    }
+    
+    /**
+     * Make room for a write, the caller fills in its value
+     * 
+     * @param pTime
+     *            - time
+     * @return (int) index of the write, -1 if there already is a write for
+     *         the time
+     */
+    private int insert(final int pTime) {
+        // If before initial time throw Illegal argument
+        if (this.fTimes[0] > pTime) throw new IllegalArgumentException();
+        // Writes usually come in time order, append those
+        if (this.fTimes[this.fSize - 1] < pTime) {
+            this.ensureCapacity();
+            this.fTimes[this.fSize] = pTime;
+            return this.fSize++;
+        }
+        // Check if there is a write for the same time,if so return -1
+        final int index = Arrays.binarySearch(this.fTimes, 0, this.fSize, pTime);
+        if (index >= 0) return -1;
+        // Insert an earlier write in its place
+        final int insertionPoint = -index - 1;
+        this.ensureCapacity();
+        System.arraycopy(this.fTimes, insertionPoint, this.fTimes,
+            insertionPoint + 1, this.fSize - insertionPoint);
+        System.arraycopy(this.fValues, insertionPoint, this.fValues,
+            insertionPoint + 1, this.fSize - insertionPoint);
+        if (this.fPrimitives != null)
+            System.arraycopy(this.fPrimitives, insertionPoint,
+                this.fPrimitives, insertionPoint + 1, this.fSize
+                        - insertionPoint);
+        this.fTimes[insertionPoint] = pTime;
+        this.fSize++;
+        return insertionPoint;
+    }
+    
+    /**
+     * @param pTime
+     *            - time
+     * @return (int) index of the last write at or before the time
+     */
+    private int readIndex(final int pTime) {
+        // Before the collected time only the committed value is left
+        if (pTime < this.fCollectedTime) return 0;
+        // If time is before initial time throw IllegalArgumentException
+        if (this.fTimes[0] > pTime) throw new IllegalArgumentException();
+        return this.floorIndex(pTime);
+    }
+    
+    /**
+     * @param pIndex
+     *            - index of a held write
+     * @return (Value<?>) value of the write, boxing a typed write
+     */
+    private Value<?> value(final int pIndex) {
+        final Value<?> result = this.fValues[pIndex];
+        if (result != null) return result;
+        if (this.fIdentifier.getVariable().getType() == Double.class)
+            return new Value<Double>(Double.valueOf(Double
+                    .longBitsToDouble(this.fPrimitives[pIndex])));
+        return new Value<Integer>(Integer.valueOf(
+                (int) this.fPrimitives[pIndex]));
+    }
+    
+    /**
+     * @param pTime
+     *            - time, not before the initial time
+     * @return (int) index of the last write at or before the time
+     */
+    private int floorIndex(final int pTime) {
+        int low = 0;
+        int high = this.fSize - 1;
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+            if (this.fTimes[middle] <= pTime) low = middle;
+            else high = middle - 1;
+        }
+        return low;
+    }
+    
+    /**
+     * Double the arrays when full
+     */
+    private void ensureCapacity() {
+        if (this.fSize < this.fTimes.length) return;
+        this.fTimes = Arrays.copyOf(this.fTimes, this.fTimes.length * 2);
+        this.fValues = Arrays.copyOf(this.fValues, this.fValues.length * 2);
+        if (this.fPrimitives != null)
+            this.fPrimitives =
+                    Arrays.copyOf(this.fPrimitives, this.fPrimitives.length * 2);
+    }
 }
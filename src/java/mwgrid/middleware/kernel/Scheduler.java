@@ -1,11 +1,22 @@
 package mwgrid.middleware.kernel;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -15,6 +26,93 @@ import mwgrid.middleware.exception.RollbackException;
 import mwgrid.middleware.exception.SchedulerException;
 
 public class Scheduler {
+    public enum SchedulingPolicy {
+        /** Step every distributed object once per pass */
+        ROUND_ROBIN,
+        /** Step only the distributed objects with the lowest time */
+        LOWEST_TIMESTAMP_FIRST;
+    }
+    
+    public enum ObjectThreads {
+        /** Step distributed objects on the scheduler thread or step pool */
+        NONE,
+        /** Step each distributed object on a platform thread of its own */
+        PLATFORM,
+        /** Step each distributed object on a virtual thread of its own */
+        VIRTUAL;
+    }
+    
+    /**
+     * Fork-join task stepping a range of distributed objects. Ranges larger
+     * than the batch size are split in half.
+     */
+    final class StepTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final DistributedObject[] fDistributedObjects;
+        private final int fFrom;
+        private final int fTo;
+        private final int fBatchSize;
+        
+        /**
+         * Constructor
+         * 
+         * @param pDistributedObjects
+         *            - distributed objects
+         * @param pFrom
+         *            - first index (inclusive)
+         * @param pTo
+         *            - last index (exclusive)
+         * @param pBatchSize
+         *            - largest range stepped without splitting
+         */
+        StepTask(final DistributedObject[] pDistributedObjects,
+                final int pFrom, final int pTo, final int pBatchSize) {
+            this.fDistributedObjects = pDistributedObjects;
+            this.fFrom = pFrom;
+            this.fTo = pTo;
+            this.fBatchSize = pBatchSize;
+        }
+        
+        @Override
+        protected void compute() {
+            if (this.fTo - this.fFrom <= this.fBatchSize) {
+                for (int index = this.fFrom; index < this.fTo; index++)
+                    Scheduler.this.fSchedulerThread
+                            .stepDistributedObject(this.fDistributedObjects[index]);
+                return;
+            }
+            final int middle = (this.fFrom + this.fTo) >>> 1;
+            invokeAll(new StepTask(this.fDistributedObjects, this.fFrom,
+                    middle, this.fBatchSize), new StepTask(
+                    this.fDistributedObjects, middle, this.fTo,
+                    this.fBatchSize));
+        }
+    }
+    
+    /**
+     * Task stepping a single distributed object on a thread of its own.
+     */
+    final class ObjectStepTask implements Callable<Void> {
+        private final DistributedObject fDistributedObject;
+        
+        /**
+         * Constructor
+         * 
+         * @param pDistributedObject
+         *            - distributed object
+         */
+        ObjectStepTask(final DistributedObject pDistributedObject) {
+            this.fDistributedObject = pDistributedObject;
+        }
+        
+        @Override
+        public Void call() {
+            Scheduler.this.fSchedulerThread
+                    .stepDistributedObject(this.fDistributedObject);
+            return null;
+        }
+    }
+    
     final class SchedulerThread extends Thread {
         private boolean fIsStopRequested;
         
@@ -28,59 +126,38 @@ public class Scheduler {
         
         @Override
         public void run() {
+            MemorySampler memorySampler = null;
+            if (LOG.isLoggable(Level.FINE)) {
+                memorySampler =
+                        new MemorySampler(Kernel.getSSVHandler().getRank(),
+                                Scheduler.MEMORY_SAMPLE_INTERVAL,
+                                Scheduler.MEMORY_SAMPLE_BUFFER);
+                memorySampler.start();
+            }
             while (!this.isStopRequested()) {
                 handleBufferUpdate();
-                synchronized (Scheduler.this.fDistributedObjectList) {
-                    handleCallStep();
-                    handleReportCollection();
-                    handleGVTUpdate();
-                    handleStopSimulation();
-                    if (LOG.isLoggable(Level.FINE)) {
-                        long totalMemory = 0;
-                        long usedMemory = 0;
-                        long freeMemory = 0;
-                        try {
-                            final Process process =
-                                    Runtime.getRuntime().exec("free -b");
-                            final BufferedReader inputStream =
-                                    new BufferedReader(new InputStreamReader(
-                                            process.getInputStream()));
-                            inputStream.readLine();
-                            final String[] values =
-                                    inputStream.readLine().split("\\s+");
-                            totalMemory = Long.parseLong(values[1]);
-                            usedMemory = Long.parseLong(values[2]);
-                            freeMemory = Long.parseLong(values[3]);
-                            inputStream.close();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                        FilePrint
-                                .printToFile(
-                                    Kernel.getSSVHandler().getRank(),
-                                    FilePrint.Filename.SCHED_MEM,
-                                    +(Runtime.getRuntime().totalMemory() - Runtime
-                                            .getRuntime().freeMemory())
-                                            + "\t"
-                                            + Runtime.getRuntime()
-                                                    .maxMemory()
-                                            + "\t"
-                                            + totalMemory
-                                            + "\t"
-                                            + usedMemory
-                                            + "\t"
-                                            + freeMemory);
-                    }
-                }
+                final Collection<DistributedObject> steppedObjects =
+                        handleCallStep();
+                handleReportCollection(steppedObjects);
+                handleGVTUpdate();
+                handleStopSimulation(steppedObjects.size());
             }
+            if (memorySampler != null) memorySampler.stop();
+            if (Scheduler.this.fStepPool != null)
+                Scheduler.this.fStepPool.shutdown();
+            if (Scheduler.this.fObjectExecutor != null)
+                Scheduler.this.fObjectExecutor.shutdown();
         }
         
         /**
          * Request stop
          */
-        public synchronized void requestStop() {
+        public void requestStop() {
             LOG.finest("Stop requested");
-            this.fIsStopRequested = true;
+            synchronized (this) {
+                this.fIsStopRequested = true;
+            }
+            Scheduler.this.signalStateChange();
         }
         
         /**
@@ -98,18 +175,7 @@ public class Scheduler {
             LOG.finest("Scheduler buffer update on: "
                     + Kernel.getSSVHandler().getRank());
             try {
-                synchronized (Scheduler.this.fDistributedObjectList) {
-                    synchronized (Scheduler.this.fDistributedObjectAddBuffer) {
-                        Scheduler.this.fDistributedObjectList
-                                .addAll(Scheduler.this.fDistributedObjectAddBuffer);
-                        Scheduler.this.fDistributedObjectAddBuffer.clear();
-                    }
-                    synchronized (Scheduler.this.fDistributedObjectRemoveBuffer) {
-                        Scheduler.this.fDistributedObjectList
-                                .removeAll(Scheduler.this.fDistributedObjectRemoveBuffer);
-                        Scheduler.this.fDistributedObjectRemoveBuffer.clear();
-                    }
-                }
+                Scheduler.this.updateRegisteredDistributedObjects();
             } finally {
                 LOG.finest("Finish scheduler buffer update on: "
                         + Kernel.getSSVHandler().getRank());
@@ -118,8 +184,11 @@ public class Scheduler {
         
         /**
          * Handle call to step
+         * 
+         * @return (Collection<DistributedObject>) distributed objects stepped
+         *         this pass
          */
-        private void handleCallStep() {
+        private Collection<DistributedObject> handleCallStep() {
             LOG.finest("Scheduler call step on: "
                     + Kernel.getSSVHandler().getRank());
             if (LOG.isLoggable(Level.FINEST)) {
@@ -127,75 +196,46 @@ public class Scheduler {
                     FilePrint.Filename.TRACE, "Scheduler; handle call step");
             }
             try {
-                for (final DistributedObject distributedObject : Scheduler.this.fDistributedObjectList) {
-                    handleRollbackCallback(distributedObject);
-                    distributedObject.resetRolledBackFlag();
-                    distributedObject.increaseTime();
-                    if (Scheduler.this.fEndTime + 1 > distributedObject
-                            .getTime()) {
-                        long startTime = 0;
-                        if (LOG.isLoggable(Level.FINE)) {
-                            startTime = System.currentTimeMillis();
-                            LOG.finest("Call step on agent: "
-                                    + distributedObject.getObjectId()
-                                    + ", at time: "
-                                    + distributedObject.getTime());
-                        }
-                        try {
-                            distributedObject.step();
-                        } catch (final RollbackException e) {
-                            if (LOG.isLoggable(Level.FINEST)) {
-                                FilePrint
-                                        .printToFile(Kernel.getSSVHandler()
-                                                .getRank(),
-                                            FilePrint.Filename.TRACE,
-                                            "Scheduler; Rollback exception during step!");
-                            }
-                            handleRollbackException(e, distributedObject);
-                            continue;
-                        } finally {
-                            LOG.finest("Finish call step on agent: "
-                                    + distributedObject.getObjectId()
-                                    + ", at time: "
-                                    + distributedObject.getTime());
-                            if (LOG.isLoggable(Level.FINE)) {
-                                final long duration =
-                                        System.currentTimeMillis()
-                                                - startTime;
-                                FilePrint.printToFile(
-                                    Kernel.getSSVHandler().getRank(),
-                                    FilePrint.Filename.SCHED_STEP,
-                                    duration + "\t"
-                                            + distributedObject.getObjectId()
-                                            + "\t"
-                                            + distributedObject.getTime());
-                            }
-                        }
-                    } else {
-                        try {
-                            LOG.finest("Ping agent: "
-                                    + distributedObject.getObjectId()
-                                    + ", at time: "
-                                    + distributedObject.getTime()
-                                    + ", end time: "
-                                    + Scheduler.this.fEndTime);
-                            distributedObject.getClassTypeId();
-                        } catch (final RollbackException e) {
-                            if (LOG.isLoggable(Level.FINEST)) {
-                                FilePrint
-                                        .printToFile(Kernel.getSSVHandler()
-                                                .getRank(),
-                                            FilePrint.Filename.TRACE,
-                                            "Scheduler; Rollback exception during ping!");
-                            }
-                            handleRollbackException(e, distributedObject);
-                            continue;
-                        }
+                handlePendingRollbacks();
+                Collection<DistributedObject> steppedObjects;
+                if (Scheduler.this.fSchedulingPolicy == SchedulingPolicy.LOWEST_TIMESTAMP_FIRST)
+                    steppedObjects = selectLowestTimestampObjects();
+                else steppedObjects =
+                        Scheduler.this.fDistributedObjectMap.values();
+                Scheduler.this.fBlockedCount = 0;
+                if (Scheduler.this.fOptimismWindow != null) {
+                    final int scheduledObjects = steppedObjects.size();
+                    steppedObjects = selectUnblockedObjects(steppedObjects);
+                    Scheduler.this.fBlockedCount =
+                            scheduledObjects - steppedObjects.size();
+                    if (scheduledObjects > 0 && steppedObjects.isEmpty()) {
+                        LOG.finest("Sending GVT message because all objects are blocked on: "
+                                + Kernel.getSSVHandler().getRank());
+                        Kernel.getSSVHandler().sendGVTMessage();
+                        awaitProgress();
+                        return steppedObjects;
                     }
-                    Kernel.getSSVHandler().setGVTTime(
-                        distributedObject.getObjectId(),
-                        distributedObject.getTime());
                 }
+                if (Scheduler.this.fObjectExecutor != null) {
+                    stepOnObjectThreads(steppedObjects);
+                } else if (Scheduler.this.fStepPool == null) {
+                    for (final DistributedObject distributedObject : steppedObjects)
+                        stepDistributedObject(distributedObject);
+                } else {
+                    // Worker threads split an indexed snapshot of the objects
+                    final DistributedObject[] distributedObjects =
+                            steppedObjects
+                                    .toArray(new DistributedObject[steppedObjects
+                                            .size()]);
+                    final int batchSize =
+                            Math.max(1, distributedObjects.length
+                                    / (Scheduler.this.fStepPool
+                                            .getParallelism() * Scheduler.BATCHES_PER_WORKER));
+                    Scheduler.this.fStepPool.invoke(new StepTask(
+                            distributedObjects, 0, distributedObjects.length,
+                            batchSize));
+                }
+                return steppedObjects;
             } finally {
                 LOG.finest("Finish Scheduler call step on: "
                         + Kernel.getSSVHandler().getRank());
@@ -207,10 +247,163 @@ public class Scheduler {
             }
         }
         
+        /**
+         * Step every distributed object on a pooled thread of its own and
+         * wait for all of them, so their blocking reads are in flight
+         * together, up to the object thread limit.
+         * 
+         * @param pDistributedObjects
+         *            - distributed objects to step
+         */
+        private void stepOnObjectThreads(
+                final Collection<DistributedObject> pDistributedObjects) {
+            final List<ObjectStepTask> tasks =
+                    new ArrayList<ObjectStepTask>(pDistributedObjects.size());
+            for (final DistributedObject distributedObject : pDistributedObjects)
+                tasks.add(new ObjectStepTask(distributedObject));
+            try {
+                for (final Future<Void> future : Scheduler.this.fObjectExecutor
+                        .invokeAll(tasks))
+                    future.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.requestStop();
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                throw new SchedulerException(e.getCause().toString());
+            }
+        }
+        
+        /**
+         * Select the distributed objects with the lowest time, in one scan
+         * of the registered objects. Pending roll-backs have been handled, so
+         * the objects are compared on their current time. Objects ahead of
+         * the lowest time wait for the others to catch up.
+         * 
+         * @return (List<DistributedObject>) distributed objects with the
+         *         lowest time
+         */
+        private List<DistributedObject> selectLowestTimestampObjects() {
+            final List<DistributedObject> result =
+                    new ArrayList<DistributedObject>();
+            int lowestTime = Integer.MAX_VALUE;
+            for (final DistributedObject distributedObject : Scheduler.this.fDistributedObjectMap
+                    .values()) {
+                final int time = distributedObject.getTime();
+                if (time > lowestTime) continue;
+                if (time < lowestTime) {
+                    lowestTime = time;
+                    result.clear();
+                }
+                result.add(distributedObject);
+            }
+            LOG.finest("Lowest time: " + lowestTime + ", objects: "
+                    + result.size() + ", on: "
+                    + Kernel.getSSVHandler().getRank());
+            return result;
+        }
+        
+        /**
+         * Select the distributed objects within the optimism window. Pending
+         * roll-backs have been handled, so a rolled back object is back in
+         * the window straight away.
+         * 
+         * @param pDistributedObjects
+         *            - distributed objects scheduled this pass
+         * @return (List<DistributedObject>) distributed objects not blocked
+         */
+        private List<DistributedObject> selectUnblockedObjects(
+                final Collection<DistributedObject> pDistributedObjects) {
+            final OptimismWindow optimismWindow =
+                    Scheduler.this.fOptimismWindow;
+            final List<DistributedObject> result =
+                    new ArrayList<DistributedObject>(pDistributedObjects.size());
+            for (final DistributedObject distributedObject : pDistributedObjects) {
+                if (optimismWindow.isBlocked(distributedObject.getTime(),
+                    Scheduler.this.fGVT)) {
+                    LOG.finest("Blocked agent: "
+                            + distributedObject.getObjectId() + ", at time: "
+                            + distributedObject.getTime() + ", GVT: "
+                            + Scheduler.this.fGVT);
+                } else result.add(distributedObject);
+            }
+            return result;
+        }
+        
+        /**
+         * Step a single distributed object, handling its roll-backs and
+         * updating its GVT time. Called from the fork-join workers when
+         * stepping in parallel, so it must only touch the given object.
+         * 
+         * @param pDistributedObject
+         *            - distributed object
+         */
+        void stepDistributedObject(final DistributedObject pDistributedObject) {
+            pDistributedObject.resetRolledBackFlag();
+            pDistributedObject.increaseTime();
+            if (Scheduler.this.fEndTime + 1 > pDistributedObject.getTime()) {
+                long startTime = 0;
+                if (LOG.isLoggable(Level.FINE)) {
+                    startTime = System.currentTimeMillis();
+                    LOG.finest("Call step on agent: "
+                            + pDistributedObject.getObjectId() + ", at time: "
+                            + pDistributedObject.getTime());
+                }
+                try {
+                    pDistributedObject.step();
+                } catch (final RollbackException e) {
+                    if (LOG.isLoggable(Level.FINEST)) {
+                        FilePrint.printToFile(Kernel.getSSVHandler()
+                                .getRank(), FilePrint.Filename.TRACE,
+                            "Scheduler; Rollback exception during step!");
+                    }
+                    handleRollbackException(e, pDistributedObject);
+                    return;
+                } finally {
+                    LOG.finest("Finish call step on agent: "
+                            + pDistributedObject.getObjectId() + ", at time: "
+                            + pDistributedObject.getTime());
+                    if (LOG.isLoggable(Level.FINE)) {
+                        final long duration =
+                                System.currentTimeMillis() - startTime;
+                        FilePrint.printToFile(Kernel.getSSVHandler()
+                                .getRank(), FilePrint.Filename.SCHED_STEP,
+                            duration + "\t"
+                                    + pDistributedObject.getObjectId() + "\t"
+                                    + pDistributedObject.getTime());
+                    }
+                }
+            } else {
+                try {
+                    LOG.finest("Ping agent: "
+                            + pDistributedObject.getObjectId() + ", at time: "
+                            + pDistributedObject.getTime() + ", end time: "
+                            + Scheduler.this.fEndTime);
+                    pDistributedObject.getClassTypeId();
+                } catch (final RollbackException e) {
+                    if (LOG.isLoggable(Level.FINEST)) {
+                        FilePrint.printToFile(Kernel.getSSVHandler()
+                                .getRank(), FilePrint.Filename.TRACE,
+                            "Scheduler; Rollback exception during ping!");
+                    }
+                    handleRollbackException(e, pDistributedObject);
+                    return;
+                }
+            }
+            Kernel.getSSVHandler().setGVTTime(
+                pDistributedObject.getObjectId(), pDistributedObject.getTime());
+        }
+        
         /**
          * Handle report collection
+         * 
+         * @param pSteppedObjects
+         *            - distributed objects stepped this pass
          */
-        private void handleReportCollection() {
+        private void handleReportCollection(
+                final Collection<DistributedObject> pSteppedObjects) {
             LOG.finest("Report collection on: "
                     + Kernel.getSSVHandler().getRank());
             if (LOG.isLoggable(Level.FINEST)) {
@@ -219,63 +412,62 @@ public class Scheduler {
                     "Scheduler; handle report collection");
             }
             try {
+                handlePendingRollbacks();
                 synchronized (Scheduler.this.fSchedulerListenerList) {
-                    for (final SchedulerListener listener : Scheduler.this.fSchedulerListenerList) {
-                        for (final DistributedObject distributedObject : Scheduler.this.fDistributedObjectList) {
-                            handleRollbackCallback(distributedObject);
-                            final boolean hasRolledBack =
-                                    distributedObject.resetRolledBackFlag();
-                            if (!hasRolledBack
-                                    && Scheduler.this.fEndTime + 1 > distributedObject
-                                            .getTime()) {
-                                LOG.finest("Call report on agent: "
-                                        + distributedObject.getObjectId()
-                                        + ", at time: "
-                                        + distributedObject.getTime());
-                                final long objectId =
-                                        distributedObject.getObjectId();
-                                final int time = distributedObject.getTime();
-                                try {
-                                    final String report =
-                                            distributedObject.report();
+                    for (final DistributedObject distributedObject : pSteppedObjects) {
+                        final boolean hasRolledBack =
+                                distributedObject.resetRolledBackFlag();
+                        if (!hasRolledBack
+                                && Scheduler.this.fEndTime + 1 > distributedObject
+                                        .getTime()) {
+                            LOG.finest("Call report on agent: "
+                                    + distributedObject.getObjectId()
+                                    + ", at time: "
+                                    + distributedObject.getTime());
+                            final long objectId =
+                                    distributedObject.getObjectId();
+                            final int time = distributedObject.getTime();
+                            try {
+                                // Report once, every listener gets the same
+                                // report
+                                final String report = distributedObject.report();
+                                for (final SchedulerListener listener : Scheduler.this.fSchedulerListenerList) {
                                     LOG.finest("Call collectReport for agent: "
                                             + objectId + ", at time: " + time);
                                     listener.collectReport(objectId, time,
                                         report);
-                                    LOG.finest("Finish call report on agent: "
-                                            + distributedObject.getObjectId()
-                                            + ", at time: "
-                                            + distributedObject.getTime()
-                                            + ", endtime: "
-                                            + Scheduler.this.fEndTime);
-                                } catch (RollbackException e) {
-                                    if (LOG.isLoggable(Level.FINEST)) {
-                                        FilePrint
-                                                .printToFile(Kernel
-                                                        .getSSVHandler()
-                                                        .getRank(),
-                                                    FilePrint.Filename.TRACE,
-                                                    "Scheduler; Rollback exception during report!");
-                                    }
-                                    handleRollbackException(e,
-                                        distributedObject);
-                                    // Reset rolled back flag so it isn't
-                                    // ignored
-                                    // Next report cycle
-                                    distributedObject.resetRolledBackFlag();
-                                    // Break loop for next cycle
-                                    continue;
                                 }
-                            } else {
-                                LOG.finest("Ignoring agent: "
+                                LOG.finest("Finish call report on agent: "
                                         + distributedObject.getObjectId()
                                         + ", at time: "
-                                        + distributedObject.getTime());
+                                        + distributedObject.getTime()
+                                        + ", endtime: "
+                                        + Scheduler.this.fEndTime);
+                            } catch (RollbackException e) {
+                                if (LOG.isLoggable(Level.FINEST)) {
+                                    FilePrint
+                                            .printToFile(Kernel
+                                                    .getSSVHandler()
+                                                    .getRank(),
+                                                FilePrint.Filename.TRACE,
+                                                "Scheduler; Rollback exception during report!");
+                                }
+                                handleRollbackException(e, distributedObject);
+                                // Reset rolled back flag so it isn't ignored
+                                // Next report cycle
+                                distributedObject.resetRolledBackFlag();
+                                // Break loop for next cycle
+                                continue;
                             }
-                            Kernel.getSSVHandler().setGVTTime(
-                                distributedObject.getObjectId(),
-                                distributedObject.getTime());
+                        } else {
+                            LOG.finest("Ignoring agent: "
+                                    + distributedObject.getObjectId()
+                                    + ", at time: "
+                                    + distributedObject.getTime());
                         }
+                        Kernel.getSSVHandler().setGVTTime(
+                            distributedObject.getObjectId(),
+                            distributedObject.getTime());
                     }
                 }
             } finally {
@@ -298,18 +490,20 @@ public class Scheduler {
                 }
             }
             try {
-                for (final DistributedObject distributedObject : Scheduler.this.fDistributedObjectList) {
-                    final int globalVariableTime =
-                            Kernel.getSSVHandler().getGVTTime();
-                    if (globalVariableTime != Scheduler.this.fGVT) {
-                        LOG.finest("Clean to GVT: " + globalVariableTime
-                                + ", on agent: "
-                                + distributedObject.getObjectId()
-                                + ", at time: " + distributedObject.getTime()
-                                + ", on: " + Kernel.getSSVHandler().getRank());
-                        distributedObject.cleanToGVT(globalVariableTime - 1);
-                    }
+                final int globalVariableTime =
+                        Kernel.getSSVHandler().getGVTTime();
+                if (globalVariableTime == Scheduler.this.fGVT) return;
+                for (final DistributedObject distributedObject : Scheduler.this.fDistributedObjectMap
+                    .values()) {
+                    LOG.finest("Clean to GVT: " + globalVariableTime
+                            + ", on agent: " + distributedObject.getObjectId()
+                            + ", at time: " + distributedObject.getTime()
+                            + ", on: " + Kernel.getSSVHandler().getRank());
+                    distributedObject.cleanToGVT(globalVariableTime - 1);
                 }
+                if (globalVariableTime > 1)
+                    Scheduler.this.fGVTController.recordCollection(Kernel
+                            .getSSVHandler().cleanToGVT(globalVariableTime - 1));
             } finally {
                 LOG.finest("Finish scheduler clean to GVT on: "
                         + Kernel.getSSVHandler().getRank());
@@ -318,42 +512,48 @@ public class Scheduler {
         
         /**
          * Handle stopping the simulation
+         * 
+         * @param pStepped
+         *            - number of distributed objects stepped this pass
          */
-        private void handleStopSimulation() {
+        private void handleStopSimulation(final int pStepped) {
             if (LOG.isLoggable(Level.FINEST)) {
                 FilePrint.printToFile(Kernel.getSSVHandler().getRank(),
                     FilePrint.Filename.TRACE,
                     "Scheduler; handle stop simulation");
             }
-            Scheduler.this.fGVTCounter++;
-            LOG.finest("GVT counter: " + Scheduler.this.fGVTCounter
-                    + ", on: " + Kernel.getSSVHandler().getRank());
-            if (Scheduler.this.fGVTCounter == Scheduler.GVT_INTERVAL) {
-                Scheduler.this.fGVTCounter = 0;
-                LOG.finest("Sending GVT message because of counter on: "
+            int lvt = Integer.MAX_VALUE;
+            int highestTime = 0;
+            long historySize = Kernel.getSSVHandler().getHistorySize();
+            for (final DistributedObject distributedObject : Scheduler.this.fDistributedObjectMap
+                    .values()) {
+                if (lvt > distributedObject.getTime())
+                    lvt = distributedObject.getTime();
+                if (highestTime < distributedObject.getTime())
+                    highestTime = distributedObject.getTime();
+                historySize += distributedObject.getHistorySize();
+            }
+            final int rollbacks = Scheduler.this.fRollbackCounter.getAndSet(0);
+            if (Scheduler.this.fOptimismWindow != null)
+                Scheduler.this.fOptimismWindow.update(pStepped,
+                    Scheduler.this.fBlockedCount, rollbacks);
+            if (Scheduler.this.fGVTController.isGVTDue(historySize,
+                Scheduler.this.fDistributedObjectMap.size(), pStepped,
+                rollbacks, highestTime, Scheduler.this.fGVT)) {
+                LOG.finest("Sending GVT message because of controller on: "
                         + Kernel.getSSVHandler().getRank());
                 Kernel.getSSVHandler().sendGVTMessage();
                 LOG.finest("Send GVT message on: "
                         + Kernel.getSSVHandler().getRank());
             }
-            int lvt = Integer.MAX_VALUE;
-            for (final DistributedObject distributedObject : Scheduler.this.fDistributedObjectList) {
-                if (lvt > distributedObject.getTime())
-                    lvt = distributedObject.getTime();
-            }
             if (lvt > Scheduler.this.fEndTime) {
                 LOG.finest("Sending GVT message because of LVT on: "
                         + Kernel.getSSVHandler().getRank());
                 Kernel.getSSVHandler().sendGVTMessage();
                 LOG.finest("Send GVT message on: "
                         + Kernel.getSSVHandler().getRank());
-                try {
-                    LOG.finest("Wait of one second");
-                    // Do nothing for 1000 miliseconds
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+                if (Kernel.getSSVHandler().getGVTTime() < Scheduler.this.fEndTime)
+                    awaitProgress();
             }
             Scheduler.this.fGVT = Kernel.getSSVHandler().getGVTTime();
             LOG.finest("GVT on: " + Kernel.getSSVHandler().getRank()
@@ -366,25 +566,88 @@ public class Scheduler {
         }
         
         /**
-         * @param pDistributedObject
-         *            - distributed object
+         * Park the scheduler while no distributed object can progress, as all
+         * are past the end time or blocked by the optimism window, and wait
+         * for a new GVT value, a roll-back callback or a registration, which
+         * signal a state change. A GVT message is resent every GVT message
+         * interval.
+         * <p>
+         * The DistributedSSVHandler can't signal new GVT values, as the
+         * PDESMAS library has no GVT callback, so with it the GVT is polled
+         * every GVT poll interval while parked.
          */
-        private void handleRollbackCallback(
-                final DistributedObject pDistributedObject) {
+        private void awaitProgress() {
+            LOG.finest("Park scheduler on: "
+                    + Kernel.getSSVHandler().getRank());
+            final boolean isGVTSignalled =
+                    Kernel.getSSVHandler().isGVTSignalled();
+            final long waitInterval =
+                    isGVTSignalled ? Scheduler.GVT_MESSAGE_INTERVAL
+                            : Scheduler.GVT_POLL_INTERVAL;
+            long lastGVTMessage = System.currentTimeMillis();
+            while (!this.isStopRequested()) {
+                if (Scheduler.this.awaitStateChange(waitInterval)) break;
+                if (!isGVTSignalled
+                        && Kernel.getSSVHandler().getGVTTime() != Scheduler.this.fGVT)
+                    break;
+                if (System.currentTimeMillis() - lastGVTMessage >= Scheduler.GVT_MESSAGE_INTERVAL) {
+                    Kernel.getSSVHandler().sendGVTMessage();
+                    lastGVTMessage = System.currentTimeMillis();
+                }
+            }
+            LOG.finest("Unpark scheduler on: "
+                    + Kernel.getSSVHandler().getRank());
+        }
+        
+        /**
+         * Handle the roll-back callbacks queued by the SSV handler since the
+         * last call. Callbacks for distributed objects that aren't registered
+         * yet are retried once on the next call, after the registry has been
+         * updated, and dropped if the object still isn't registered.
+         */
+        private void handlePendingRollbacks() {
+            final SSVHandler ssvHandler = Kernel.getSSVHandler();
+            final List<Long> deferredRollbacks =
+                    Scheduler.this.fDeferredRollbacks;
+            final int deferred = deferredRollbacks.size();
+            for (int index = 0; index < deferred; index++)
+                handlePendingRollback(ssvHandler, deferredRollbacks.get(index)
+                        .longValue(), false);
+            deferredRollbacks.subList(0, deferred).clear();
+            long objectId;
+            while ((objectId = ssvHandler.pollRollback()) != -1)
+                handlePendingRollback(ssvHandler, objectId, true);
+        }
+        
+        /**
+         * @param pSSVHandler
+         *            - SSV handler
+         * @param pObjectId
+         *            - object ID with a queued roll-back
+         * @param pDefer
+         *            - defer the roll-back if the object isn't registered?
+         */
+        private void handlePendingRollback(final SSVHandler pSSVHandler,
+                final long pObjectId, final boolean pDefer) {
+            if (!pSSVHandler.isInRollbackMap(pObjectId)) return;
+            final DistributedObject distributedObject =
+                    Scheduler.this.fDistributedObjectMap.get(new Long(
+                            pObjectId));
+            if (distributedObject == null) {
+                if (pDefer)
+                    Scheduler.this.fDeferredRollbacks.add(new Long(pObjectId));
+                else pSSVHandler.getRollbackMapTime(pObjectId);
+                return;
+            }
             if (LOG.isLoggable(Level.FINEST)) {
                 FilePrint.printToFile(
-                    Kernel.getSSVHandler().getRank(),
+                    pSSVHandler.getRank(),
                     FilePrint.Filename.TRACE,
-                    "Handle rollback callback; agent: "
-                            + pDistributedObject.getObjectId() + ", time: "
-                            + pDistributedObject.getTime());
-            }
-            final long objectId = pDistributedObject.getObjectId();
-            if (Kernel.getSSVHandler().isInRollbackMap(objectId)) {
-                final int rollbackTime =
-                        Kernel.getSSVHandler().getRollbackMapTime(objectId);
-                handleRollback(pDistributedObject, rollbackTime);
+                    "Handle rollback callback; agent: " + pObjectId
+                            + ", time: " + distributedObject.getTime());
             }
+            handleRollback(distributedObject,
+                pSSVHandler.getRollbackMapTime(pObjectId));
         }
         
         /**
@@ -434,6 +697,7 @@ public class Scheduler {
                             + pRollbackObject.getTime() + ", to time: "
                             + (pRollbackTime - 1));
                 }
+                Scheduler.this.fRollbackCounter.incrementAndGet();
                 try {
                     pRollbackObject.rollBack(pRollbackTime - 1);
                 } finally {
@@ -479,14 +743,31 @@ public class Scheduler {
     static final Logger LOG = Logger.getLogger(Scheduler.class.getPackage()
             .getName());
     static final int GVT_INTERVAL = 10;
+    static final int BATCHES_PER_WORKER = 4;
+    static final long GVT_POLL_INTERVAL = 10;
+    static final long GVT_MESSAGE_INTERVAL = 1000;
+    static final long MEMORY_SAMPLE_INTERVAL = 100;
+    static final int MEMORY_SAMPLE_BUFFER = 100;
+    static final int OBJECT_THREAD_LIMIT = 256;
     final int fEndTime;
-    List<DistributedObject> fDistributedObjectList;
-    List<DistributedObject> fDistributedObjectAddBuffer;
-    List<DistributedObject> fDistributedObjectRemoveBuffer;
+    final Map<Long, DistributedObject> fDistributedObjectMap;
+    final Queue<DistributedObject> fDistributedObjectAddQueue;
+    final Queue<DistributedObject> fDistributedObjectRemoveQueue;
     List<SchedulerListener> fSchedulerListenerList;
-    int fGVTCounter;
+    final GVTController fGVTController;
+    final AtomicInteger fRollbackCounter;
+    final List<Long> fDeferredRollbacks;
     int fGVT;
-    private final SchedulerThread fSchedulerThread;
+    ForkJoinPool fStepPool;
+    ObjectThreads fObjectThreads;
+    ExecutorService fObjectExecutor;
+    int fObjectThreadLimit;
+    OptimismWindow fOptimismWindow;
+    int fBlockedCount;
+    SchedulingPolicy fSchedulingPolicy;
+    final SchedulerThread fSchedulerThread;
+    private final Object fStateChangeMonitor;
+    private boolean fStateChanged;
     
     /**
      * Constructor
@@ -495,24 +776,231 @@ public class Scheduler {
      *            - end time
      */
     public Scheduler(final int pEndTime) {
-        this.fGVTCounter = 0;
+        this.fGVTController = new GVTController(Scheduler.GVT_INTERVAL);
+        this.fRollbackCounter = new AtomicInteger(0);
+        this.fDeferredRollbacks = new ArrayList<Long>();
         this.fGVT = 0;
         this.fEndTime = pEndTime;
-        this.fDistributedObjectList =
-                Collections
-                        .synchronizedList(new ArrayList<DistributedObject>());
-        this.fDistributedObjectAddBuffer =
-                Collections
-                        .synchronizedList(new ArrayList<DistributedObject>());
-        this.fDistributedObjectRemoveBuffer =
-                Collections
-                        .synchronizedList(new ArrayList<DistributedObject>());
+        this.fDistributedObjectMap =
+                new LinkedHashMap<Long, DistributedObject>();
+        this.fDistributedObjectAddQueue =
+                new ConcurrentLinkedQueue<DistributedObject>();
+        this.fDistributedObjectRemoveQueue =
+                new ConcurrentLinkedQueue<DistributedObject>();
         this.fSchedulerListenerList =
                 Collections
                         .synchronizedList(new ArrayList<SchedulerListener>());
+        this.fStepPool = null;
+        this.fObjectThreads = ObjectThreads.NONE;
+        this.fObjectExecutor = null;
+        this.fObjectThreadLimit = Scheduler.OBJECT_THREAD_LIMIT;
+        this.fOptimismWindow = null;
+        this.fBlockedCount = 0;
+        this.fSchedulingPolicy = SchedulingPolicy.ROUND_ROBIN;
+        this.fStateChangeMonitor = new Object();
+        this.fStateChanged = false;
         this.fSchedulerThread = new SchedulerThread();
     }
     
+    /**
+     * Step the registered distributed objects on a fork-join pool with the
+     * given number of workers. With a parallelism of 1 (the default) all
+     * objects are stepped on the scheduler thread. Roll-backs and GVT times
+     * are still handled per distributed object, but the SSV handler and
+     * anything touched from step() must allow concurrent access.
+     * <p>
+     * The SequentialSSVHandler allows it under one lock, so steps only run
+     * in parallel between their SSV accesses. Use the ConcurrentSSVHandler,
+     * as Kernel.getSequentionalInstance does for a parallelism above 1, or
+     * the DistributedSSVHandler for steps to scale.
+     * 
+     * @param pParallelism
+     *            - number of worker threads
+     */
+    public void setStepParallelism(final int pParallelism) {
+        if (pParallelism < 1)
+            throw new IllegalArgumentException(
+                    "Step parallelism must be at least 1");
+        if (this.fSchedulerThread.isAlive())
+            throw new SchedulerException(
+                    "Step parallelism can't be changed while running");
+        if (pParallelism > 1 && this.fObjectThreads != ObjectThreads.NONE)
+            throw new SchedulerException(
+                    "Step parallelism can't be combined with object threads");
+        LOG.finest("Step parallelism: " + pParallelism);
+        if (pParallelism > 1
+                && Kernel.getSSVHandler() instanceof SequentialSSVHandler)
+            LOG.warning("Step parallelism with the SequentialSSVHandler, "
+                    + "SSV accesses of parallel steps are serialized");
+        if (this.fStepPool != null) this.fStepPool.shutdown();
+        if (pParallelism == 1) this.fStepPool = null;
+        else this.fStepPool = new ForkJoinPool(pParallelism);
+    }
+    
+    /**
+     * Bound how far distributed objects may run ahead of the GVT. Objects
+     * outside the window are skipped, and not reported, until the GVT
+     * advances. Without a window (the default) objects are never blocked.
+     * 
+     * @param pOptimismWindow
+     *            - optimism window, null for none
+     */
+    public void setOptimismWindow(final OptimismWindow pOptimismWindow) {
+        if (this.fSchedulerThread.isAlive())
+            throw new SchedulerException(
+                    "Optimism window can't be changed while running");
+        this.fOptimismWindow = pOptimismWindow;
+    }
+    
+    /**
+     * @return (OptimismWindow) optimism window, null if none
+     */
+    public OptimismWindow getOptimismWindow() {
+        return this.fOptimismWindow;
+    }
+    
+    /**
+     * @return (GVTController) controller deciding when GVT messages are sent
+     */
+    public GVTController getGVTController() {
+        return this.fGVTController;
+    }
+    
+    /**
+     * @return (int) number of threads stepping distributed objects
+     */
+    public int getStepParallelism() {
+        if (this.fStepPool == null) return 1;
+        return this.fStepPool.getParallelism();
+    }
+    
+    /**
+     * Step distributed objects on threads of their own, with at most
+     * OBJECT_THREAD_LIMIT threads.
+     * 
+     * @param pObjectThreads
+     *            - object threads
+     * @see #setObjectThreads(ObjectThreads, int)
+     */
+    public void setObjectThreads(final ObjectThreads pObjectThreads) {
+        this.setObjectThreads(pObjectThreads, Scheduler.OBJECT_THREAD_LIMIT);
+    }
+    
+    /**
+     * Step each distributed object on a thread of its own, so the blocking
+     * remote reads of many objects are in flight together. Roll-backs and GVT
+     * times are still handled per distributed object, and the scheduler waits
+     * for all steps before reporting, as with step parallelism.
+     * <p>
+     * The threads are pooled and at most the thread limit of them exist, so
+     * that many objects don't need as many native threads. Steps beyond the
+     * limit wait for a thread, which bounds the reads in flight by the limit.
+     * <p>
+     * VIRTUAL uses virtual threads when the JVM provides them (Java 21 and
+     * later) and falls back to PLATFORM otherwise. Note that the PDESMAS
+     * calls of the distributed SSV handler are native, and a virtual thread
+     * blocked in native code pins its carrier thread. The number of reads in
+     * flight is then bounded by the number of carrier threads, so PLATFORM is
+     * the better choice to hide CLP latency.
+     * 
+     * @param pObjectThreads
+     *            - object threads
+     * @param pThreadLimit
+     *            - maximum number of threads stepping distributed objects
+     */
+    public void setObjectThreads(final ObjectThreads pObjectThreads,
+            final int pThreadLimit) {
+        if (pThreadLimit < 1)
+            throw new IllegalArgumentException(
+                    "Object thread limit must be at least 1");
+        if (this.fSchedulerThread.isAlive())
+            throw new SchedulerException(
+                    "Object threads can't be changed while running");
+        if (pObjectThreads != ObjectThreads.NONE && this.fStepPool != null)
+            throw new SchedulerException(
+                    "Object threads can't be combined with step parallelism");
+        LOG.finest("Object threads: " + pObjectThreads + ", limit: "
+                + pThreadLimit);
+        if (this.fObjectExecutor != null) this.fObjectExecutor.shutdown();
+        this.fObjectExecutor = null;
+        this.fObjectThreads = pObjectThreads;
+        this.fObjectThreadLimit = pThreadLimit;
+        if (pObjectThreads == ObjectThreads.NONE) return;
+        ThreadFactory threadFactory = null;
+        if (pObjectThreads == ObjectThreads.VIRTUAL)
+            threadFactory = newVirtualThreadFactory();
+        if (threadFactory == null) {
+            this.fObjectThreads = ObjectThreads.PLATFORM;
+            threadFactory = new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable pRunnable) {
+                    final Thread thread = new Thread(pRunnable);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+        }
+        this.fObjectExecutor =
+                Executors.newFixedThreadPool(pThreadLimit, threadFactory);
+    }
+    
+    /**
+     * @return (ObjectThreads) threads the distributed objects are stepped on,
+     *         PLATFORM if VIRTUAL was requested but isn't available
+     */
+    public ObjectThreads getObjectThreads() {
+        return this.fObjectThreads;
+    }
+    
+    /**
+     * @return (int) maximum number of threads stepping distributed objects
+     */
+    public int getObjectThreadLimit() {
+        return this.fObjectThreadLimit;
+    }
+    
+    /**
+     * Virtual threads are looked up reflectively, so the middleware still
+     * runs on JVMs without them.
+     * 
+     * @return (ThreadFactory) virtual thread factory, null if virtual threads
+     *         aren't available
+     */
+    private static ThreadFactory newVirtualThreadFactory() {
+        try {
+            final Object builder =
+                    Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+                    .getMethod("factory").invoke(builder);
+        } catch (final Exception e) {
+            LOG.info("Virtual threads not available, using platform threads");
+            return null;
+        }
+    }
+    
+    /**
+     * With LOWEST_TIMESTAMP_FIRST only the distributed objects furthest
+     * behind are stepped each pass, so objects that ran ahead stop piling up
+     * speculative state while the others catch up.
+     * 
+     * @param pSchedulingPolicy
+     *            - scheduling policy
+     */
+    public void setSchedulingPolicy(final SchedulingPolicy pSchedulingPolicy) {
+        if (this.fSchedulerThread.isAlive())
+            throw new SchedulerException(
+                    "Scheduling policy can't be changed while running");
+        LOG.finest("Scheduling policy: " + pSchedulingPolicy);
+        this.fSchedulingPolicy = pSchedulingPolicy;
+    }
+    
+    /**
+     * @return (SchedulingPolicy) scheduling policy
+     */
+    public SchedulingPolicy getSchedulingPolicy() {
+        return this.fSchedulingPolicy;
+    }
+    
     /**
      * Start the simulation
      */
@@ -522,12 +1010,10 @@ public class Scheduler {
             if (this.fSchedulerListenerList.isEmpty())
                 throw new SchedulerException();
         }
-        synchronized (this.fDistributedObjectList) {
-            synchronized (this.fDistributedObjectAddBuffer) {
-                if (this.fDistributedObjectList.isEmpty()
-                        && this.fDistributedObjectAddBuffer.isEmpty())
-                    throw new SchedulerException();
-            }
+        synchronized (this.fDistributedObjectMap) {
+            if (this.fDistributedObjectMap.isEmpty()
+                    && this.fDistributedObjectAddQueue.isEmpty())
+                throw new SchedulerException();
         }
         this.fSchedulerThread.start();
     }
@@ -547,22 +1033,64 @@ public class Scheduler {
     }
     
     /**
-     * @return list of registered distributed objects
+     * Wake the scheduler if it is parked waiting for progress. Called on
+     * roll-back callbacks, GVT messages and (de)registrations.
+     */
+    public void signalStateChange() {
+        synchronized (this.fStateChangeMonitor) {
+            this.fStateChanged = true;
+            this.fStateChangeMonitor.notifyAll();
+        }
+    }
+    
+    /**
+     * @param pTimeout
+     *            - maximum time to wait in milliseconds
+     * @return (boolean) was a state change signalled?
+     */
+    boolean awaitStateChange(final long pTimeout) {
+        synchronized (this.fStateChangeMonitor) {
+            if (!this.fStateChanged) {
+                try {
+                    this.fStateChangeMonitor.wait(pTimeout);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            final boolean result = this.fStateChanged;
+            this.fStateChanged = false;
+            return result;
+        }
+    }
+    
+    /**
+     * @return snapshot of the registered distributed objects
      */
     public List<DistributedObject> getRegisteredDistributedObjects() {
-        return Collections.unmodifiableList(this.fDistributedObjectList);
+        synchronized (this.fDistributedObjectMap) {
+            return Collections.unmodifiableList(new ArrayList<DistributedObject>(
+                    this.fDistributedObjectMap.values()));
+        }
     }
     
     /**
-     * Update the registered distributed objects
+     * Update the registered distributed objects with the queued
+     * (de)registrations. Called by the scheduler thread on every pass, so
+     * other threads should only call this before the simulation starts.
      */
     public void updateRegisteredDistributedObjects() {
         LOG.finest("Update registered distributed objects");
-        this.fDistributedObjectList.addAll(this.fDistributedObjectAddBuffer);
-        this.fDistributedObjectAddBuffer.clear();
-        this.fDistributedObjectList
-                .removeAll(this.fDistributedObjectRemoveBuffer);
-        this.fDistributedObjectRemoveBuffer.clear();
+        synchronized (this.fDistributedObjectMap) {
+            DistributedObject distributedObject;
+            while ((distributedObject = this.fDistributedObjectAddQueue.poll()) != null)
+                this.fDistributedObjectMap.put(
+                    new Long(distributedObject.getObjectId()),
+                    distributedObject);
+            while ((distributedObject = this.fDistributedObjectRemoveQueue
+                    .poll()) != null)
+                this.fDistributedObjectMap.remove(new Long(distributedObject
+                        .getObjectId()));
+        }
     }
     
     /**
@@ -571,9 +1099,8 @@ public class Scheduler {
      */
     public void registerDistributedObject(
             final DistributedObject pDistributedObject) {
-        synchronized (this.fDistributedObjectAddBuffer) {
-            this.fDistributedObjectAddBuffer.add(pDistributedObject);
-        }
+        this.fDistributedObjectAddQueue.offer(pDistributedObject);
+        this.signalStateChange();
     }
     
     /**
@@ -582,9 +1109,8 @@ public class Scheduler {
      */
     public void deregisterDistributedObject(
             final DistributedObject pDistributedObject) {
-        synchronized (this.fDistributedObjectRemoveBuffer) {
-            this.fDistributedObjectRemoveBuffer.add(pDistributedObject);
-        }
+        this.fDistributedObjectRemoveQueue.offer(pDistributedObject);
+        this.signalStateChange();
     }
     
     /**
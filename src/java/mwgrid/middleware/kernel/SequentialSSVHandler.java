@@ -2,12 +2,15 @@ package mwgrid.middleware.kernel;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import mwgrid.common.LongHashMap;
 import mwgrid.middleware.distributedobject.KernelVariables;
 import mwgrid.middleware.distributedobject.Location;
 import mwgrid.middleware.distributedobject.Value;
@@ -16,19 +19,46 @@ import mwgrid.middleware.exception.SSVAlreadyExistsException;
 import mwgrid.middleware.exception.SSVNotFoundException;
 
 /**
+ * SSV handler keeping all SSVs in memory. Every access holds the one lock of
+ * the handler, so distributed objects stepped in parallel don't speed up, use
+ * the ConcurrentSSVHandler for that.
+ * 
  * @author Dr B.G.W. Craenen
  */
 public class SequentialSSVHandler implements SSVHandler {
     private static final Logger LOG = Logger
             .getLogger(SequentialSSVHandler.class.getPackage().getName());
+    public static final int DEFAULT_CELL_SIZE = 8;
     private int fNodeID;
-    private final Map<Identifier, SavedStateVariable> fSavedStateVariableMap;
+    // Keyed by the packed long key of the identifier, so reads and writes
+    // allocate nothing to find an SSV
+    private final LongHashMap<SavedStateVariable> fSavedStateVariableMap;
+    // SSVs per object, so removing an object only touches its own SSVs
+    private final LongHashMap<List<SavedStateVariable>> fObjectVariableMap;
     private final Map<Long, Integer> fGlobalVariableTimeMap;
+    // LOCATION SSVs, so range queries only read the SSVs near the range
+    private final SpatialIndex fSpatialIndex;
+    // Range query results per time and cell, shared by the agents querying
+    // the same neighbourhood
+    private final RangeQueryCache fRangeQueryCache;
+    private long fHistorySize;
     
     /**
      * Constructor
      */
     public SequentialSSVHandler() {
+        this(DEFAULT_CELL_SIZE);
+    }
+    
+    /**
+     * Constructor
+     * 
+     * @param pCellSize
+     *            - width and height of the spatial index cells and of the
+     *            cached range query tiles, about the size of the usual range
+     *            query
+     */
+    public SequentialSSVHandler(final int pCellSize) {
         try {
             this.fNodeID = InetAddress.getLocalHost().hashCode();
             SequentialSSVHandler.LOG.finest("NodeID: " + this.fNodeID);
@@ -38,8 +68,14 @@ public class SequentialSSVHandler implements SSVHandler {
             this.fNodeID = 1;
         }
         this.fSavedStateVariableMap =
-                new HashMap<Identifier, SavedStateVariable>();
+                new LongHashMap<SavedStateVariable>(0,
+                        Identifier.VARIABLE_BITS);
+        this.fObjectVariableMap = new LongHashMap<List<SavedStateVariable>>();
         this.fGlobalVariableTimeMap = new HashMap<Long, Integer>();
+        this.fSpatialIndex = new SpatialIndex(pCellSize);
+        this.fRangeQueryCache =
+                new RangeQueryCache(this.fSpatialIndex, pCellSize);
+        this.fHistorySize = 0;
     }
     
     @Override
@@ -48,7 +84,7 @@ public class SequentialSSVHandler implements SSVHandler {
     }
     
     @Override
-    public boolean add(final long pObjectId, final Variable pVariable,
+    public synchronized boolean add(final long pObjectId, final Variable pVariable,
             final Value<?> pInitValue, final int pTime)
             throws SSVAlreadyExistsException {
         LOG.finest("Add, agent: " + pObjectId + ", variable: " + pVariable
@@ -58,14 +94,29 @@ public class SequentialSSVHandler implements SSVHandler {
             final Identifier identifier =
                     new Identifier(pObjectId, pVariable);
             // If SSV already in SSVMap, throw SSVAlreadyExistsException
-            if (this.fSavedStateVariableMap.containsKey(identifier))
+            if (this.fSavedStateVariableMap.containsKey(identifier.getKey()))
                 throw new SSVAlreadyExistsException();
             // Create SSV
             final SavedStateVariable savedStateVariable =
                     new SavedStateVariable(identifier, pInitValue, pTime);
+            this.fHistorySize++;
+            if (isLocation(pVariable)) {
+                this.fSpatialIndex.add(savedStateVariable,
+                    (Location) pInitValue.get());
+                this.fRangeQueryCache.invalidate(pObjectId, pTime,
+                    (Location) pInitValue.get());
+            }
+            // List SSV with its object
+            List<SavedStateVariable> objectVariables =
+                    this.fObjectVariableMap.get(pObjectId);
+            if (objectVariables == null) {
+                objectVariables = new ArrayList<SavedStateVariable>(4);
+                this.fObjectVariableMap.put(pObjectId, objectVariables);
+            }
+            objectVariables.add(savedStateVariable);
             // Add SSV to Map, return true if didn't exist before
-            return null == this.fSavedStateVariableMap.put(identifier,
-                savedStateVariable);
+            return null == this.fSavedStateVariableMap.put(identifier
+                    .getKey(), savedStateVariable);
         } finally {
             LOG.finest("Finish, Add, agent: " + pObjectId + ", variable: "
                     + pVariable + ", value: " + pInitValue + ", time: "
@@ -74,21 +125,15 @@ public class SequentialSSVHandler implements SSVHandler {
     }
     
     @Override
-    public Value<?> read(final long pAgentId, final long pObjectId,
+    public synchronized Value<?> read(final long pAgentId, final long pObjectId,
             final Variable pVariable, final int pTime)
             throws SSVNotFoundException {
         LOG.finest("Read, agent: " + pAgentId + ", objectID: " + pObjectId
                 + ", variable: " + pVariable + ", time: " + pTime);
         try {
-            // Create identifier
-            final Identifier identifier =
-                    new Identifier(pObjectId, pVariable);
-            // If not exist, throw SSVNotFoundException
-            if (!this.fSavedStateVariableMap.containsKey(identifier))
-                throw new SSVNotFoundException();
-            // Get SSV with correct SSVID
+            // Get SSV, throws SSVNotFoundException if not exist
             final SavedStateVariable savedStateVariable =
-                    this.fSavedStateVariableMap.get(identifier);
+                    this.getSavedStateVariable(pObjectId, pVariable);
             // If exists, return value
             return savedStateVariable.read(pTime);
         } finally {
@@ -99,26 +144,27 @@ public class SequentialSSVHandler implements SSVHandler {
     }
     
     @Override
-    public boolean write(final long pAgentId, final long pObjectId,
+    public synchronized boolean write(final long pAgentId, final long pObjectId,
             final Variable pVariable, final Value<?> pValue, final int pTime)
             throws SSVNotFoundException {
         LOG.finest("write, agent: " + pAgentId + ", objectID: " + pObjectId
                 + ", variable: " + pVariable + ", value: " + pValue.get()
                 + ", time: " + pTime);
         try {
-            // Create identifier
-            final Identifier identifier =
-                    new Identifier(pObjectId, pVariable);
-            // If SSV not in map, throw SSVNotFoundException
-            if (!this.fSavedStateVariableMap.containsKey(identifier))
-                throw new SSVNotFoundException();
-            // Remove the SSV from the map
+            // Get SSV, throws SSVNotFoundException if not exist
             final SavedStateVariable savedStateVariable =
-                    this.fSavedStateVariableMap.get(identifier);
+                    this.getSavedStateVariable(pObjectId, pVariable);
             // Call write on SSV
             final boolean success = savedStateVariable.write(pTime, pValue);
-            // Place SSV in map
-            this.fSavedStateVariableMap.put(identifier, savedStateVariable);
+            if (success) {
+                this.fHistorySize++;
+                if (isLocation(pVariable)) {
+                    this.fSpatialIndex.add(savedStateVariable,
+                        (Location) pValue.get());
+                    this.fRangeQueryCache.invalidate(pObjectId, pTime,
+                        (Location) pValue.get());
+                }
+            }
             // Return success
             return success;
         } finally {
@@ -129,33 +175,92 @@ public class SequentialSSVHandler implements SSVHandler {
     }
     
     @Override
-    public Map<Long, Location> rangeQuery(final long pAgentId,
+    public synchronized int readInt(final long pAgentId, final long pObjectId,
+            final Variable pVariable, final int pTime)
+            throws SSVNotFoundException {
+        if (LOG.isLoggable(Level.FINEST))
+            LOG.finest("ReadInt, agent: " + pAgentId + ", objectID: "
+                    + pObjectId + ", variable: " + pVariable + ", time: "
+                    + pTime);
+        return this.getSavedStateVariable(pObjectId, pVariable).readInt(pTime);
+    }
+    
+    @Override
+    public synchronized double readDouble(final long pAgentId,
+            final long pObjectId, final Variable pVariable, final int pTime)
+            throws SSVNotFoundException {
+        if (LOG.isLoggable(Level.FINEST))
+            LOG.finest("ReadDouble, agent: " + pAgentId + ", objectID: "
+                    + pObjectId + ", variable: " + pVariable + ", time: "
+                    + pTime);
+        return this.getSavedStateVariable(pObjectId, pVariable).readDouble(
+            pTime);
+    }
+    
+    @Override
+    public synchronized Location readLocation(final long pAgentId,
+            final long pObjectId, final Variable pVariable, final int pTime)
+            throws SSVNotFoundException {
+        LOG.finest("ReadLocation, agent: " + pAgentId + ", objectID: "
+                + pObjectId + ", variable: " + pVariable + ", time: " + pTime);
+        return (Location) this.getSavedStateVariable(pObjectId, pVariable)
+                .read(pTime).get();
+    }
+    
+    @Override
+    public synchronized Value<?>[] readAll(final long pAgentId,
+            final long[] pObjectIds, final Variable pVariable, final int pTime)
+            throws SSVNotFoundException {
+        LOG.finest("ReadAll, agent: " + pAgentId + ", objects: "
+                + pObjectIds.length + ", variable: " + pVariable + ", time: "
+                + pTime);
+        final Value<?>[] result = new Value<?>[pObjectIds.length];
+        for (int index = 0; index < pObjectIds.length; index++)
+            result[index] =
+                    this.getSavedStateVariable(pObjectIds[index], pVariable)
+                            .read(pTime);
+        return result;
+    }
+    
+    @Override
+    public synchronized boolean writeInt(final long pAgentId,
+            final long pObjectId, final Variable pVariable, final int pValue,
+            final int pTime) throws SSVNotFoundException {
+        if (LOG.isLoggable(Level.FINEST))
+            LOG.finest("writeInt, agent: " + pAgentId + ", objectID: "
+                    + pObjectId + ", variable: " + pVariable + ", value: "
+                    + pValue + ", time: " + pTime);
+        final boolean success =
+                this.getSavedStateVariable(pObjectId, pVariable).writeInt(
+                    pTime, pValue);
+        if (success) this.fHistorySize++;
+        return success;
+    }
+    
+    @Override
+    public synchronized boolean writeDouble(final long pAgentId,
+            final long pObjectId, final Variable pVariable,
+            final double pValue, final int pTime) throws SSVNotFoundException {
+        if (LOG.isLoggable(Level.FINEST))
+            LOG.finest("writeDouble, agent: " + pAgentId + ", objectID: "
+                    + pObjectId + ", variable: " + pVariable + ", value: "
+                    + pValue + ", time: " + pTime);
+        final boolean success =
+                this.getSavedStateVariable(pObjectId, pVariable).writeDouble(
+                    pTime, pValue);
+        if (success) this.fHistorySize++;
+        return success;
+    }
+    
+    @Override
+    public synchronized Map<Long, Location> rangeQuery(final long pAgentId,
             final int pTime, final Location pStartLocation,
             final Location pEndLocation) {
         LOG.finest("rangeQuery, agent: " + pAgentId + ", time: " + pTime
                 + ", start: " + pStartLocation + ", end: " + pEndLocation);
         try {
-            // Instantiate result map
-            final Map<Long, Location> result = new HashMap<Long, Location>();
-            // For each saved state variable in the map
-            for (final SavedStateVariable savedStateVariable : this.fSavedStateVariableMap
-                    .values())
-                // If the SSV is a LOCATION
-                if (savedStateVariable.getIdentifier().getVariable()
-                        .getVariableId() == KernelVariables.LOCATION
-                        .getVariableId()) {
-                    // Read the SSV value
-                    final Location location =
-                            (Location) savedStateVariable.read(pTime).get();
-                    /*
-                     * If the value is within range add the ObjectID|value in
-                     * the map.
-                     */
-                    if (location.in(pStartLocation, pEndLocation))
-                        result.put(new Long(savedStateVariable
-                                .getIdentifier().getObjectId()), location);
-                }
-            return result;
+            return this.fRangeQueryCache.rangeQuery(pTime, pStartLocation,
+                pEndLocation);
         } finally {
             LOG.finest("Finish rangeQuery, agent: " + pAgentId + ", time: "
                     + pTime + ", start: " + pStartLocation + ", end: "
@@ -185,12 +290,25 @@ public class SequentialSSVHandler implements SSVHandler {
     }
     
     @Override
-    public void removeVariables(final long pObjectId) {
+    public long pollRollback() {
+        return -1;
+    }
+    
+    @Override
+    public synchronized void removeVariables(final long pObjectId) {
         LOG.finest("removeVariables, agent: " + pObjectId);
         try {
-            for (Identifier identifier : this.fSavedStateVariableMap.keySet()) {
-                if (identifier.getObjectId() == pObjectId) {
-                    this.fSavedStateVariableMap.remove(identifier);
+            final List<SavedStateVariable> objectVariables =
+                    this.fObjectVariableMap.remove(pObjectId);
+            if (objectVariables == null) return;
+            for (final SavedStateVariable savedStateVariable : objectVariables) {
+                this.fSavedStateVariableMap.remove(savedStateVariable
+                        .getIdentifier().getKey());
+                this.fHistorySize -= savedStateVariable.size();
+                if (isLocation(savedStateVariable.getIdentifier()
+                        .getVariable())) {
+                    this.fSpatialIndex.remove(savedStateVariable);
+                    this.fRangeQueryCache.remove(pObjectId);
                 }
             }
         } finally {
@@ -219,7 +337,7 @@ public class SequentialSSVHandler implements SSVHandler {
     }
     
     @Override
-    public void setGVTTime(final long pObjectId, final int pTime) {
+    public synchronized void setGVTTime(final long pObjectId, final int pTime) {
         LOG.finest("Set GVT time for agent: " + pObjectId + ", to time: "
                 + pTime);
         this.fGlobalVariableTimeMap.put(new Long(pObjectId), new Integer(
@@ -227,7 +345,7 @@ public class SequentialSSVHandler implements SSVHandler {
     }
     
     @Override
-    public int getGVTTime() {
+    public synchronized int getGVTTime() {
         if (LOG.isLoggable(Level.FINEST)) {
             final StringBuilder result = new StringBuilder();
             result.append("{ ");
@@ -244,6 +362,80 @@ public class SequentialSSVHandler implements SSVHandler {
     
     @Override
     public void sendGVTMessage() {
-        return;
+        // The GVT is computed locally, so it is available straight away
+        Kernel.getScheduler().signalStateChange();
+    }
+    
+    @Override
+    public boolean isGVTSignalled() {
+        // The GVT only changes through setGVTTime, called by the scheduler
+        // itself, and sendGVTMessage, which signals
+        return true;
+    }
+    
+    @Override
+    public synchronized long getHistorySize() {
+        return this.fHistorySize;
+    }
+    
+    @Override
+    public synchronized long cleanToGVT(final int pGlobalVariableTime) {
+        LOG.finest("Clean to GVT: " + pGlobalVariableTime);
+        long result = 0;
+        for (final SavedStateVariable savedStateVariable : this.fSavedStateVariableMap) {
+            final int size = savedStateVariable.size();
+            result += savedStateVariable.removeLessThan(pGlobalVariableTime);
+            if (size == savedStateVariable.size()) continue;
+            this.fHistorySize -= size - savedStateVariable.size();
+            if (isLocation(savedStateVariable.getIdentifier().getVariable()))
+                this.fSpatialIndex.prune(savedStateVariable);
+        }
+        this.fRangeQueryCache.removeLessThan(pGlobalVariableTime);
+        LOG.fine("Clean to GVT: " + pGlobalVariableTime + ", reclaimed: "
+                + result + " bytes");
+        return result;
+    }
+    
+    /**
+     * @return (long) number of range query tiles answered from the cache
+     */
+    public synchronized long getRangeQueryHits() {
+        return this.fRangeQueryCache.getHits();
+    }
+    
+    /**
+     * @return (long) number of range query tiles queried from the spatial
+     *         index
+     */
+    public synchronized long getRangeQueryMisses() {
+        return this.fRangeQueryCache.getMisses();
+    }
+    
+    /**
+     * @param pVariable
+     *            - variable
+     * @return (boolean) is the variable the LOCATION kernel variable?
+     */
+    private static boolean isLocation(final Variable pVariable) {
+        return pVariable.getVariableId() == KernelVariables.LOCATION
+                .getVariableId();
+    }
+    
+    /**
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable
+     * @return (SavedStateVariable) SSV
+     * @throws SSVNotFoundException
+     *             - thrown if SSV not found
+     */
+    private SavedStateVariable getSavedStateVariable(final long pObjectId,
+            final Variable pVariable) throws SSVNotFoundException {
+        final SavedStateVariable result =
+                this.fSavedStateVariableMap.get(Identifier.key(pObjectId,
+                    pVariable));
+        if (result == null) throw new SSVNotFoundException();
+        return result;
     }
 }
@@ -0,0 +1,250 @@
+package mwgrid.middleware.kernel;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import mwgrid.middleware.distributedobject.Location;
+
+/**
+ * Uniform grid over LOCATION SSVs, so a range query only reads the SSVs in
+ * the cells overlapping the range instead of every SSV.
+ * <p>
+ * An SSV is entered in the cell of every write it holds, so queries at past
+ * times still find it. Queries read each candidate at the query time and keep
+ * it only if it was in range then. Cells an SSV no longer holds a write for
+ * are pruned after fossil collection.
+ * <p>
+ * The index itself is not thread-safe. SSVs are read and pruned under their
+ * own monitor, so the ConcurrentSSVHandler can write them while the index is
+ * queried under its read lock.
+ *
+ * @author Dr B.G.W. Craenen <b.g.w.craenen@cs.bham.ac.uk>
+ */
+class SpatialIndex {
+    private final int fCellSize;
+    private final Map<Long, Set<SavedStateVariable>> fCells;
+    private final Map<SavedStateVariable, Set<Long>> fCellKeys;
+    
+    /**
+     * Constructor
+     * 
+     * @param pCellSize
+     *            - width and height of a cell
+     */
+    SpatialIndex(final int pCellSize) {
+        if (pCellSize < 1)
+            throw new IllegalArgumentException("Cell size must be at least 1");
+        this.fCellSize = pCellSize;
+        this.fCells = new HashMap<Long, Set<SavedStateVariable>>();
+        this.fCellKeys = new HashMap<SavedStateVariable, Set<Long>>();
+    }
+    
+    /**
+     * Enter a written location of an SSV
+     * 
+     * @param pSavedStateVariable
+     *            - LOCATION SSV
+     * @param pLocation
+     *            - location written
+     */
+    void add(final SavedStateVariable pSavedStateVariable,
+            final Location pLocation) {
+        final Long key =
+                cellKey(cell(pLocation.getX(), this.fCellSize), cell(pLocation
+                        .getY(), this.fCellSize));
+        Set<Long> keys = this.fCellKeys.get(pSavedStateVariable);
+        if (keys == null) {
+            keys = new HashSet<Long>(4);
+            this.fCellKeys.put(pSavedStateVariable, keys);
+        }
+        if (!keys.add(key)) return;
+        Set<SavedStateVariable> cell = this.fCells.get(key);
+        if (cell == null) {
+            cell = new HashSet<SavedStateVariable>();
+            this.fCells.put(key, cell);
+        }
+        cell.add(pSavedStateVariable);
+    }
+    
+    /**
+     * @param pSavedStateVariable
+     *            - LOCATION SSV
+     * @param pLocation
+     *            - location
+     * @return (boolean) is the SSV entered in the cell of the location?
+     */
+    boolean contains(final SavedStateVariable pSavedStateVariable,
+            final Location pLocation) {
+        final Set<Long> keys = this.fCellKeys.get(pSavedStateVariable);
+        return keys != null
+                && keys.contains(cellKey(cell(pLocation.getX(),
+                    this.fCellSize), cell(pLocation.getY(), this.fCellSize)));
+    }
+    
+    /**
+     * Remove an SSV from all cells
+     * 
+     * @param pSavedStateVariable
+     *            - LOCATION SSV
+     */
+    void remove(final SavedStateVariable pSavedStateVariable) {
+        final Set<Long> keys = this.fCellKeys.remove(pSavedStateVariable);
+        if (keys == null) return;
+        for (final Long key : keys)
+            this.removeFromCell(key, pSavedStateVariable);
+    }
+    
+    /**
+     * Remove an SSV from the cells it no longer holds a write for, after its
+     * history has been fossil collected
+     * 
+     * @param pSavedStateVariable
+     *            - LOCATION SSV
+     */
+    void prune(final SavedStateVariable pSavedStateVariable) {
+        final Set<Long> keys = this.fCellKeys.get(pSavedStateVariable);
+        if (keys == null || keys.size() == 1) return;
+        final Set<Long> held = new HashSet<Long>(4);
+        synchronized (pSavedStateVariable) {
+            for (int index = 0; index < pSavedStateVariable.size(); index++) {
+                final Location location =
+                        (Location) pSavedStateVariable.getValue(index).get();
+                held.add(cellKey(cell(location.getX(), this.fCellSize), cell(
+                    location.getY(), this.fCellSize)));
+            }
+        }
+        for (final Long key : keys)
+            if (!held.contains(key))
+                this.removeFromCell(key, pSavedStateVariable);
+        keys.retainAll(held);
+    }
+    
+    /**
+     * @param pTime
+     *            - time
+     * @param pStartLocation
+     *            - start location
+     * @param pEndLocation
+     *            - end location
+     * @return (Map<Long, Location>) object IDs and locations in range at the
+     *         time
+     */
+    Map<Long, Location> rangeQuery(final int pTime,
+            final Location pStartLocation, final Location pEndLocation) {
+        final int minX =
+                cell(Math.min(pStartLocation.getX(), pEndLocation.getX()),
+                    this.fCellSize);
+        final int maxX =
+                cell(Math.max(pStartLocation.getX(), pEndLocation.getX()),
+                    this.fCellSize);
+        final int minY =
+                cell(Math.min(pStartLocation.getY(), pEndLocation.getY()),
+                    this.fCellSize);
+        final int maxY =
+                cell(Math.max(pStartLocation.getY(), pEndLocation.getY()),
+                    this.fCellSize);
+        final Map<Long, Location> result = new HashMap<Long, Location>();
+        final long rangeCells =
+                ((long) maxX - minX + 1) * ((long) maxY - minY + 1);
+        if (rangeCells > this.fCells.size()) {
+            // Large ranges visit the occupied cells instead
+            for (final Map.Entry<Long, Set<SavedStateVariable>> entry : this.fCells
+                    .entrySet()) {
+                final long key = entry.getKey().longValue();
+                final int x = (int) (key >> 32);
+                final int y = (int) key;
+                if (x >= minX && x <= maxX && y >= minY && y <= maxY)
+                    collect(entry.getValue(), pTime, pStartLocation,
+                        pEndLocation, result);
+            }
+            return result;
+        }
+        for (int x = minX; x <= maxX; x++)
+            for (int y = minY; y <= maxY; y++) {
+                final Set<SavedStateVariable> cell =
+                        this.fCells.get(cellKey(x, y));
+                if (cell != null)
+                    collect(cell, pTime, pStartLocation, pEndLocation, result);
+            }
+        return result;
+    }
+    
+    /**
+     * @return (int) number of occupied cells
+     */
+    int getCellCount() {
+        return this.fCells.size();
+    }
+    
+    /**
+     * Add the SSVs of a cell that are in range at the time
+     * 
+     * @param pCell
+     *            - SSVs in the cell
+     * @param pTime
+     *            - time
+     * @param pStartLocation
+     *            - start location
+     * @param pEndLocation
+     *            - end location
+     * @param pResult
+     *            - object IDs and locations in range
+     */
+    private static void collect(final Set<SavedStateVariable> pCell,
+            final int pTime, final Location pStartLocation,
+            final Location pEndLocation, final Map<Long, Location> pResult) {
+        for (final SavedStateVariable savedStateVariable : pCell) {
+            final Long objectId =
+                    new Long(savedStateVariable.getIdentifier().getObjectId());
+            // Entered in more than one cell in range
+            if (pResult.containsKey(objectId)) continue;
+            final Location location;
+            synchronized (savedStateVariable) {
+                location = (Location) savedStateVariable.read(pTime).get();
+            }
+            if (location.in(pStartLocation, pEndLocation))
+                pResult.put(objectId, location);
+        }
+    }
+    
+    /**
+     * @param pKey
+     *            - cell key
+     * @param pSavedStateVariable
+     *            - SSV to remove from the cell
+     */
+    private void removeFromCell(final Long pKey,
+            final SavedStateVariable pSavedStateVariable) {
+        final Set<SavedStateVariable> cell = this.fCells.get(pKey);
+        if (cell == null) return;
+        cell.remove(pSavedStateVariable);
+        if (cell.isEmpty()) this.fCells.remove(pKey);
+    }
+    
+    /**
+     * @param pCoordinate
+     *            - x or y coordinate
+     * @param pCellSize
+     *            - width and height of a cell
+     * @return (int) cell coordinate, rounded down for negative coordinates
+     */
+    static int cell(final int pCoordinate, final int pCellSize) {
+        final int result = pCoordinate / pCellSize;
+        if (pCoordinate < 0 && result * pCellSize != pCoordinate)
+            return result - 1;
+        return result;
+    }
+    
+    /**
+     * @param pX
+     *            - cell x coordinate
+     * @param pY
+     *            - cell y coordinate
+     * @return (Long) cell key
+     */
+    static Long cellKey(final int pX, final int pY) {
+        return new Long(((long) pX << 32) | (pY & 0xFFFFFFFFL));
+    }
+}
@@ -1,13 +1,12 @@
 package mwgrid.middleware.kernel;
 
 import java.io.Serializable;
-import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import mwgrid.common.FilePrint;
-import mwgrid.middleware.distributedobject.PrivateVariable;
-import mwgrid.middleware.distributedobject.PublicVariable;
+import mwgrid.middleware.distributedobject.Location;
 import mwgrid.middleware.distributedobject.Value;
 import mwgrid.middleware.distributedobject.Variable;
 import mwgrid.middleware.exception.InvalidTypeException;
@@ -20,25 +19,63 @@ public class Statebase implements Serializable {
     private static final long serialVersionUID = 1L;
     private static final Logger LOG = Logger.getLogger(Statebase.class
             .getPackage().getName());
-    private static long fObjectCounter = 1;
+    // Atomic as distributed objects may be created from parallel steps
+    private static final AtomicLong OBJECT_COUNTER = new AtomicLong(1);
     // private static final long MAX_AGENTS = 1000000;
     // private final Map<Variable, Map<Integer, Value<?>>> fPrivateVariableMap;
     private final PrivateVariableMap fPrivateVariableMap;
     private final long fObjectID;
     private int fTime;
     private boolean fRolledBack;
+    // Kernel writes up to this time are suppressed while re-executing steps
+    private int fCoastForwardTime;
     
     /**
      * Constructor
      */
     public Statebase() {
+        this(false);
+    }
+    
+    /**
+     * Constructor
+     * 
+     * @param pIncrementalStateSaving
+     *            - save only the overwritten values of private variables, in
+     *            an undo log, instead of every value written?
+     */
+    public Statebase(final boolean pIncrementalStateSaving) {
+        this(new PrivateVariableMap(pIncrementalStateSaving));
+    }
+    
+    /**
+     * Constructor
+     * 
+     * @param pCheckpointInterval
+     *            - save the private variables every number of time steps,
+     *            and re-execute the steps since the last checkpoint on
+     *            rollback
+     */
+    public Statebase(final int pCheckpointInterval) {
+        this(new PrivateVariableMap(pCheckpointInterval));
+    }
+    
+    /**
+     * Constructor
+     * 
+     * @param pPrivateVariableMap
+     *            - private variable map
+     */
+    private Statebase(final PrivateVariableMap pPrivateVariableMap) {
         this.fObjectID =
-        /* Kernel.getSSVHandler().getRank() * MAX_AGENTS + */fObjectCounter++;
+        /* Kernel.getSSVHandler().getRank() * MAX_AGENTS + */OBJECT_COUNTER
+                .getAndIncrement();
         // this.fPrivateVariableMap = new HashMap<Variable, Map<Integer,
         // Value<?>>>();
-        this.fPrivateVariableMap = new PrivateVariableMap();
+        this.fPrivateVariableMap = pPrivateVariableMap;
         this.fTime = 0;
         this.fRolledBack = false;
+        this.fCoastForwardTime = -1;
     }
     
     /**
@@ -196,6 +233,37 @@ public class Statebase implements Serializable {
         return result;
     }
     
+    /**
+     * Get a public variable of many objects in one read from the kernel
+     * 
+     * @param pObjectIds
+     *            - object IDs
+     * @param pVariable
+     *            - public variable
+     * @return (Value<?>[]) values, in the order of the object IDs
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    public Value<?>[] getVariables(final long[] pObjectIds,
+            final Variable pVariable) throws RollbackException {
+        // Check if variable is private
+        if (this.isPrivateVariable(pVariable))
+            throw new InvalidVariableException();
+        final Value<?>[] result;
+        try {
+            result =
+                    Kernel.getSSVHandler().readAll(this.fObjectID,
+                        pObjectIds, pVariable, this.getTime() - 1);
+        } catch (final SSVNotFoundException e) {
+            throw new InvalidVariableException(e);
+        }
+        // Check if Variable and Value types are equal
+        for (final Value<?> value : result)
+            if (!pVariable.getType().equals(value.getType()))
+                throw new InvalidTypeException();
+        return result;
+    }
+    
     /**
      * @param pVariable
      *            - field ID
@@ -239,6 +307,183 @@ public class Statebase implements Serializable {
         this.setKernelVariable(pObjectId, pVariable, pValue);
     }
     
+    /**
+     * @param pVariable
+     *            - variable of type Integer
+     * @return (int) value
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    public int getInt(final Variable pVariable) throws RollbackException {
+        checkType(pVariable, Integer.class);
+        if (this.isPrivateVariable(pVariable))
+            return ((Integer) this.fPrivateVariableMap.get(pVariable,
+                this.getTime()).get()).intValue();
+        return this.getKernelInt(this.fObjectID, pVariable);
+    }
+    
+    /**
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - public variable of type Integer
+     * @return (int) value
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    public int getInt(final long pObjectId, final Variable pVariable)
+            throws RollbackException {
+        checkType(pVariable, Integer.class);
+        // Check if variable is private
+        if (this.isPrivateVariable(pVariable))
+            throw new InvalidVariableException();
+        return this.getKernelInt(pObjectId, pVariable);
+    }
+    
+    /**
+     * @param pVariable
+     *            - variable of type Double
+     * @return (double) value
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    public double getDouble(final Variable pVariable)
+            throws RollbackException {
+        checkType(pVariable, Double.class);
+        if (this.isPrivateVariable(pVariable))
+            return ((Double) this.fPrivateVariableMap.get(pVariable,
+                this.getTime()).get()).doubleValue();
+        return this.getKernelDouble(this.fObjectID, pVariable);
+    }
+    
+    /**
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - public variable of type Double
+     * @return (double) value
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    public double getDouble(final long pObjectId, final Variable pVariable)
+            throws RollbackException {
+        checkType(pVariable, Double.class);
+        // Check if variable is private
+        if (this.isPrivateVariable(pVariable))
+            throw new InvalidVariableException();
+        return this.getKernelDouble(pObjectId, pVariable);
+    }
+    
+    /**
+     * @param pVariable
+     *            - variable of type Location
+     * @return (Location) value
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    public Location getLocation(final Variable pVariable)
+            throws RollbackException {
+        checkType(pVariable, Location.class);
+        if (this.isPrivateVariable(pVariable))
+            return (Location) this.fPrivateVariableMap.get(pVariable,
+                this.getTime()).get();
+        return this.getKernelLocation(this.fObjectID, pVariable);
+    }
+    
+    /**
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - public variable of type Location
+     * @return (Location) value
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    public Location getLocation(final long pObjectId,
+            final Variable pVariable) throws RollbackException {
+        checkType(pVariable, Location.class);
+        // Check if variable is private
+        if (this.isPrivateVariable(pVariable))
+            throw new InvalidVariableException();
+        return this.getKernelLocation(pObjectId, pVariable);
+    }
+    
+    /**
+     * @param pVariable
+     *            - variable of type Integer
+     * @param pValue
+     *            - value
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    public void setInt(final Variable pVariable, final int pValue)
+            throws RollbackException {
+        checkType(pVariable, Integer.class);
+        if (this.isPrivateVariable(pVariable)) {
+            this.fPrivateVariableMap.set(pVariable, new Value<Integer>(
+                    Integer.valueOf(pValue)), this.getTime());
+            return;
+        }
+        this.setKernelInt(this.fObjectID, pVariable, pValue);
+    }
+    
+    /**
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - public variable of type Integer
+     * @param pValue
+     *            - value
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    public void setInt(final long pObjectId, final Variable pVariable,
+            final int pValue) throws RollbackException {
+        checkType(pVariable, Integer.class);
+        // Check if variable is private
+        if (this.isPrivateVariable(pVariable))
+            throw new InvalidVariableException();
+        this.setKernelInt(pObjectId, pVariable, pValue);
+    }
+    
+    /**
+     * @param pVariable
+     *            - variable of type Double
+     * @param pValue
+     *            - value
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    public void setDouble(final Variable pVariable, final double pValue)
+            throws RollbackException {
+        checkType(pVariable, Double.class);
+        if (this.isPrivateVariable(pVariable)) {
+            this.fPrivateVariableMap.set(pVariable, new Value<Double>(
+                    Double.valueOf(pValue)), this.getTime());
+            return;
+        }
+        this.setKernelDouble(this.fObjectID, pVariable, pValue);
+    }
+    
+    /**
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - public variable of type Double
+     * @param pValue
+     *            - value
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    public void setDouble(final long pObjectId, final Variable pVariable,
+            final double pValue) throws RollbackException {
+        checkType(pVariable, Double.class);
+        // Check if variable is private
+        if (this.isPrivateVariable(pVariable))
+            throw new InvalidVariableException();
+        this.setKernelDouble(pObjectId, pVariable, pValue);
+    }
+    
     /**
      * @param pRollbackTime
      *            - roll-back time Update private variable map by removing all
@@ -247,16 +492,29 @@ public class Statebase implements Serializable {
     public void rollBack(final int pRollbackTime) {
         LOG.finest("Rolling back agent: " + this.getObjectID() + ", to: "
                 + pRollbackTime + ", at time: " + this.getTime());
-        // Remove all from rollback time minus one
-        this.fPrivateVariableMap.removeMoreThan(pRollbackTime);
-        // Set time to rollback time
-        this.setTime(pRollbackTime);
+        // Remove all from rollback time minus one, when checkpointing this
+        // restores the last checkpoint at or before the rollback time
+        final int restoredTime =
+                this.fPrivateVariableMap.removeMoreThan(pRollbackTime);
+        // Set time to restored time, the steps up to the rollback time are
+        // re-executed from there
+        this.setTime(restoredTime);
+        this.fCoastForwardTime = pRollbackTime;
         // Set rolled back flag
         this.fRolledBack = true;
         LOG.finest("Finished rolling back agent: " + this.getObjectID()
                 + ", time now at: " + this.getTime());
     }
     
+    /**
+     * @return (int) time up to which the steps are re-executed after a
+     *         rollback to a checkpoint, the kernel writes of those steps are
+     *         already in the kernel and are suppressed
+     */
+    public int getCoastForwardTime() {
+        return this.fCoastForwardTime;
+    }
+    
     /**
      * Update private variable map to GVT time by removing all values up to GVT
      * 
@@ -274,6 +532,13 @@ public class Statebase implements Serializable {
                 + this.getTime());
     }
     
+    /**
+     * @return (int) number of private values held, including history
+     */
+    public int getHistorySize() {
+        return this.fPrivateVariableMap.getHistorySize();
+    }
+    
     @Override
     public String toString() {
         final StringBuilder result = new StringBuilder();
@@ -290,44 +555,15 @@ public class Statebase implements Serializable {
      * @return (boolean) is variable annotated as PrivateVariable?
      */
     private boolean isPrivateVariable(final Variable pVariable) {
-        // Check if variable is declared in enum
-        if (!pVariable.getClass().isEnum()) {
-            LOG.warning("Variable is not declared in Enum, "
-                    + "handling as public variable");
-            return false;
-        }
-        // Get field
-        Field field;
-        try {
-            field = pVariable.getClass().getField(pVariable.toString());
-        } catch (SecurityException e) {
-            LOG.warning("SecurityException thrown, "
-                    + "handling as public variable");
-            return false;
-        } catch (NoSuchFieldException e) {
-            LOG.warning("Variable field could not be found, "
-                    + "handling as public variable");
-            return false;
-        }
-        // Check if field is enum constant
-        if (!field.isEnumConstant()) {
-            LOG.warning("Variable field is not an enum constant, "
-                    + "handling as public variable");
-            return false;
-        }
-        // Check if field has correct annotations
-        if (!field.isAnnotationPresent(PublicVariable.class)
-                && !field.isAnnotationPresent(PrivateVariable.class)) {
-            LOG.warning("Variable field is not annotated, "
-                    + "handling as public variable");
-            return false;
-        }
-        // Check if field has private variable annotation
-        if (field.isAnnotationPresent(PrivateVariable.class)) {
-            LOG.finest("Variable field is annotated as private variable");
-            return true;
-        }
-        return false;
+        // Resolved by reflection once per variable class, then cached
+        return VariableMetadata.isPrivate(pVariable);
+    }
+    
+    /**
+     * @return (boolean) is a step before the rollback time re-executed?
+     */
+    private boolean isCoastingForward() {
+        return this.fTime <= this.fCoastForwardTime;
     }
     
     /**
@@ -368,6 +604,7 @@ public class Statebase implements Serializable {
     private void setKernelVariable(final long pObjectId,
             final Variable pVariable, final Value<?> pValue)
             throws RollbackException {
+        if (this.isCoastingForward()) return;
         boolean success = false;
         try {
             Statebase.LOG.finest("Called SSVHandler write; Time: "
@@ -380,7 +617,119 @@ public class Statebase implements Serializable {
         } catch (final SSVNotFoundException e) {
             throw new InvalidVariableException(e);
         }
-        if (!success) {
+        this.checkKernelWrite(success);
+    }
+    
+    /**
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable
+     * @return (int) value
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    private int getKernelInt(final long pObjectId,
+            final Variable pVariable) throws RollbackException {
+        try {
+            return Kernel.getSSVHandler().readInt(this.fObjectID,
+                pObjectId, pVariable, this.getTime() - 1);
+        } catch (final SSVNotFoundException e) {
+            throw new InvalidVariableException(e);
+        }
+    }
+    
+    /**
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable
+     * @return (double) value
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    private double getKernelDouble(final long pObjectId,
+            final Variable pVariable) throws RollbackException {
+        try {
+            return Kernel.getSSVHandler().readDouble(this.fObjectID,
+                pObjectId, pVariable, this.getTime() - 1);
+        } catch (final SSVNotFoundException e) {
+            throw new InvalidVariableException(e);
+        }
+    }
+    
+    /**
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable
+     * @return (Location) value
+     * @throws RollbackException
+     *             - roll-back exception
+     */
+    private Location getKernelLocation(final long pObjectId,
+            final Variable pVariable) throws RollbackException {
+        try {
+            return Kernel.getSSVHandler().readLocation(this.fObjectID,
+                pObjectId, pVariable, this.getTime() - 1);
+        } catch (final SSVNotFoundException e) {
+            throw new InvalidVariableException(e);
+        }
+    }
+    
+    /**
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable
+     * @param pValue
+     *            - value
+     * @throws RollbackException
+     *             - rollback exception
+     */
+    private void setKernelInt(final long pObjectId,
+            final Variable pVariable, final int pValue)
+            throws RollbackException {
+        if (this.isCoastingForward()) return;
+        try {
+            this.checkKernelWrite(Kernel.getSSVHandler().writeInt(
+                this.fObjectID, pObjectId, pVariable, pValue, this.getTime()));
+        } catch (final SSVNotFoundException e) {
+            throw new InvalidVariableException(e);
+        }
+    }
+    
+    /**
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable
+     * @param pValue
+     *            - value
+     * @throws RollbackException
+     *             - rollback exception
+     */
+    private void setKernelDouble(final long pObjectId,
+            final Variable pVariable, final double pValue)
+            throws RollbackException {
+        if (this.isCoastingForward()) return;
+        try {
+            this.checkKernelWrite(Kernel.getSSVHandler().writeDouble(
+                this.fObjectID, pObjectId, pVariable, pValue, this.getTime()));
+        } catch (final SSVNotFoundException e) {
+            throw new InvalidVariableException(e);
+        }
+    }
+    
+    /**
+     * @param pSuccess
+     *            - success of the write to the kernel
+     * @throws RollbackException
+     *             - rollback exception, thrown if the write failed
+     */
+    private void checkKernelWrite(final boolean pSuccess)
+            throws RollbackException {
+        if (!pSuccess) {
             if (LOG.isLoggable(Level.FINEST)) {
                 FilePrint.printToFile(
                     Kernel.getSSVHandler().getRank(),
@@ -392,4 +741,18 @@ public class Statebase implements Serializable {
             throw new RollbackException(this.getObjectID(), this.getTime());
         }
     }
+    
+    /**
+     * @param pVariable
+     *            - variable
+     * @param pType
+     *            - type accessed
+     */
+    private static void checkType(final Variable pVariable,
+            final Class<?> pType) {
+        if (!pVariable.getType().equals(pType))
+            throw new InvalidTypeException("Expected type: "
+                    + pVariable.getType() + " but got: " + pType
+                    + " instead.");
+    }
 }
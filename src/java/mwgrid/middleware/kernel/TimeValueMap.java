@@ -3,10 +3,7 @@
  */
 package mwgrid.middleware.kernel;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -14,12 +11,20 @@ import mwgrid.common.FilePrint;
 import mwgrid.middleware.distributedobject.Value;
 
 /**
+ * History of a private variable. Times and values are kept in parallel arrays
+ * sorted on time, so a get is a binary search for the last time at or before
+ * the time asked, and rollback and fossil collection truncate the arrays
+ * without boxing a time.
+ * 
  * @author Dr B.G.W. Craenen <b.g.w.craenen@cs.bham.ac.uk>
  */
 public class TimeValueMap {
     private static final Logger LOG = Logger.getLogger(TimeValueMap.class
             .getPackage().getName());
-    private final Map<Integer, Value<?>> fTimeValueMap;
+    private static final int INITIAL_CAPACITY = 4;
+    private int[] fTimes;
+    private Value<?>[] fValues;
+    private int fSize;
     
     /**
      * @param pTime
@@ -28,18 +33,23 @@ public class TimeValueMap {
      *            - value
      */
     public TimeValueMap(final int pTime, final Value<?> pValue) {
-        this.fTimeValueMap = new HashMap<Integer, Value<?>>();
-        this.fTimeValueMap.put(new Integer(pTime), pValue);
+        this.fTimes = new int[INITIAL_CAPACITY];
+        this.fValues = new Value<?>[INITIAL_CAPACITY];
+        this.fTimes[0] = pTime;
+        this.fValues[0] = pValue;
+        this.fSize = 1;
     }
     
     /**
      * @param pTime
      *            - time
-     * @return (Value<?>) value
+     * @return (Value<?>) value at the last time at or before the time, or null
+     *         if there is none
      */
     public Value<?> get(final int pTime) {
-        final int closestTime = this.getClosestTime(pTime);
-        return this.fTimeValueMap.get(new Integer(closestTime));
+        final int index = this.floorIndex(pTime);
+        if (index < 0) return null;
+        return this.fValues[index];
     }
     
     /**
@@ -49,11 +59,29 @@ public class TimeValueMap {
      *            - value
      */
     public void set(final int pTime, final Value<?> pValue) {
-        assert !this.fTimeValueMap.containsKey(new Integer(pTime)) : "TimeValueMap already contains time!";
-        this.fTimeValueMap.put(new Integer(pTime), pValue);
+        this.ensureCapacity();
+        // Values are usually set in time order, append those
+        if (this.fTimes[this.fSize - 1] < pTime) {
+            this.fTimes[this.fSize] = pTime;
+            this.fValues[this.fSize] = pValue;
+            this.fSize++;
+            return;
+        }
+        final int index = Arrays.binarySearch(this.fTimes, 0, this.fSize, pTime);
+        assert index < 0 : "TimeValueMap already contains time!";
+        final int insertionPoint = -index - 1;
+        System.arraycopy(this.fTimes, insertionPoint, this.fTimes,
+            insertionPoint + 1, this.fSize - insertionPoint);
+        System.arraycopy(this.fValues, insertionPoint, this.fValues,
+            insertionPoint + 1, this.fSize - insertionPoint);
+        this.fTimes[insertionPoint] = pTime;
+        this.fValues[insertionPoint] = pValue;
+        this.fSize++;
     }
     
     /**
+     * Roll back, removing the values after the time
+     * 
      * @param pTime
      *            - time
      */
@@ -63,28 +91,14 @@ public class TimeValueMap {
                 FilePrint.Filename.TRACE, "removeMoreThan: at time: " + pTime
                         + ", before time-value map: " + this.toString());
         }
-        final int closestTime = this.getClosestTime(pTime);
+        final int closestIndex = this.floorIndex(pTime);
         // There should be a closest time for a rollback, so this assert should
         // still work
-        assert closestTime != -1 : "Couldn't find closest time when there should be one! time: "
+        assert closestIndex >= 0 : "Couldn't find closest time when there should be one! time: "
                 + pTime + ", " + this.toString();
-        final List<Integer> timesToRemove = new ArrayList<Integer>();
-        for (Integer timeInMap : this.fTimeValueMap.keySet())
-            if (timeInMap.intValue() > closestTime)
-                timesToRemove.add(timeInMap);
-        assert timesToRemove.size() < this.fTimeValueMap.keySet().size() : "Removing too many values!";
-        for (Integer timeToRemove : timesToRemove) {
-            assert this.fTimeValueMap.containsKey(timeToRemove) : "Time to remove is not in TimeValueMap!";
-            if (LOG.isLoggable(Level.FINEST)) {
-                FilePrint.printToFile(Kernel.getSSVHandler().getRank(),
-                    FilePrint.Filename.TRACE,
-                    "removeMoreThan: time: " + timeToRemove + ", value: "
-                            + this.fTimeValueMap.get(timeToRemove));
-            }
-            this.fTimeValueMap.remove(timeToRemove);
-        }
-        assert !this.fTimeValueMap.isEmpty() : "TimeValueMap is empty!";
-        assert this.fTimeValueMap.containsKey(new Integer(closestTime)) : "Closest time not contained in TimeValueMap!";
+        // Clear the references so the values can be collected
+        Arrays.fill(this.fValues, closestIndex + 1, this.fSize, null);
+        this.fSize = closestIndex + 1;
         if (LOG.isLoggable(Level.FINEST)) {
             FilePrint.printToFile(Kernel.getSSVHandler().getRank(),
                 FilePrint.Filename.TRACE, "removeMoreThan: at time: " + pTime
@@ -93,56 +107,30 @@ public class TimeValueMap {
     }
     
     /**
+     * Fossil collect, removing the values before the GVT and moving the value
+     * at the last time before the GVT to the GVT
+     * 
      * @param pGlobalVariableTime
      *            - time
      */
     public void removeLessThan(final int pGlobalVariableTime) {
-        LOG.finest("time: " + pGlobalVariableTime);
-        LOG.finest("before: " + this.toString());
         if (LOG.isLoggable(Level.FINEST)) {
             FilePrint.printToFile(Kernel.getSSVHandler().getRank(),
                 FilePrint.Filename.TRACE,
                 "removeLessThan: at time: " + pGlobalVariableTime
                         + ", time-value map: " + this.toString());
         }
-        final int closestTime = this.getClosestTime(pGlobalVariableTime);
-        // If there's no closest time it will return -1. In this case a previous
-        // GVT has already removed all that needs to be removed and we can
-        // continue on and do nothing.
-        if (closestTime == -1) return;
-        final List<Integer> timesToRemove = new ArrayList<Integer>();
-        for (Integer timeInMap : this.fTimeValueMap.keySet())
-            if (timeInMap.intValue() < closestTime)
-                timesToRemove.add(timeInMap);
-        assert timesToRemove.size() < this.fTimeValueMap.keySet().size() : "Removing too many values!";
-        for (Integer timeToRemove : timesToRemove) {
-            assert this.fTimeValueMap.containsKey(timeToRemove) : "Time to remove is not in TimeValueMap!";
-            if (LOG.isLoggable(Level.FINEST)) {
-                FilePrint.printToFile(Kernel.getSSVHandler().getRank(),
-                    FilePrint.Filename.TRACE,
-                    "removeLessThan: time: " + timeToRemove + ", value: "
-                            + this.fTimeValueMap.get(timeToRemove));
-            }
-            this.fTimeValueMap.remove(timeToRemove);
-        }
-        assert !this.fTimeValueMap.isEmpty() : "TimeValueMap is empty!";
-        assert this.fTimeValueMap.containsKey(new Integer(closestTime)) : "Closest time not contained in TimeValueMap!";
-        if (closestTime != pGlobalVariableTime) {
-            this.fTimeValueMap.put(new Integer(pGlobalVariableTime),
-                this.fTimeValueMap.get(new Integer(closestTime)));
-            if (LOG.isLoggable(Level.FINEST)) {
-                FilePrint.printToFile(
-                    Kernel.getSSVHandler().getRank(),
-                    FilePrint.Filename.TRACE,
-                    "removeLessThan: replace, time: "
-                            + closestTime
-                            + ", value: "
-                            + this.fTimeValueMap
-                                    .get(new Integer(closestTime)));
-            }
-            this.fTimeValueMap.remove(new Integer(closestTime));
-        }
-        LOG.finest("after: " + this.toString());
+        final int closestIndex = this.floorIndex(pGlobalVariableTime);
+        // If there's no closest time a previous GVT has already removed all
+        // that needs to be removed and we can continue on and do nothing.
+        if (closestIndex < 0) return;
+        System.arraycopy(this.fTimes, closestIndex, this.fTimes, 0,
+            this.fSize - closestIndex);
+        System.arraycopy(this.fValues, closestIndex, this.fValues, 0,
+            this.fSize - closestIndex);
+        Arrays.fill(this.fValues, this.fSize - closestIndex, this.fSize, null);
+        this.fSize -= closestIndex;
+        this.fTimes[0] = pGlobalVariableTime;
         if (LOG.isLoggable(Level.FINEST)) {
             FilePrint.printToFile(Kernel.getSSVHandler().getRank(),
                 FilePrint.Filename.TRACE, "removeLessThan: at time: "
@@ -154,26 +142,43 @@ public class TimeValueMap {
     /**
      * @param pTime
      *            - time
-     * @return (int) closest time
+     * @return (int) index of the last time at or before the time, or -1 if
+     *         there is none
      */
-    private int getClosestTime(final int pTime) {
-        if (this.fTimeValueMap.containsKey(new Integer(pTime))) return pTime;
-        int closestTime = -1;
-        for (Integer timeInMap : this.fTimeValueMap.keySet()) {
-            if (timeInMap.intValue() > closestTime
-                    && timeInMap.intValue() < pTime)
-                closestTime = timeInMap.intValue();
+    private int floorIndex(final int pTime) {
+        int low = 0;
+        int high = this.fSize - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (this.fTimes[middle] <= pTime) low = middle + 1;
+            else high = middle - 1;
         }
-        return closestTime;
+        return high;
+    }
+    
+    /**
+     * Double the arrays when full
+     */
+    private void ensureCapacity() {
+        if (this.fSize < this.fTimes.length) return;
+        this.fTimes = Arrays.copyOf(this.fTimes, this.fTimes.length * 2);
+        this.fValues = Arrays.copyOf(this.fValues, this.fValues.length * 2);
+    }
+    
+    /**
+     * @return (int) number of values held
+     */
+    public int size() {
+        return this.fSize;
     }
     
     @Override
     public String toString() {
         final StringBuilder result = new StringBuilder();
         result.append("TimeValueMap {");
-        for (final Integer timeInMap : this.fTimeValueMap.keySet()) {
-            result.append(" (" + timeInMap.intValue());
-            result.append(", " + this.fTimeValueMap.get(timeInMap).toString());
+        for (int index = 0; index < this.fSize; index++) {
+            result.append(" (" + this.fTimes[index]);
+            result.append(", " + this.fValues[index].toString());
             result.append("),");
         }
         result.deleteCharAt(result.length() - 1);
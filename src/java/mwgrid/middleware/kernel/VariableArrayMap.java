@@ -0,0 +1,132 @@
+package mwgrid.middleware.kernel;
+
+import java.util.Arrays;
+
+import mwgrid.middleware.distributedobject.Variable;
+
+/**
+ * Map from variables to values, in arrays indexed by the slot of the
+ * variable, see VariableMetadata. Slots are small and dense whatever the
+ * variable IDs are, and no two variables share one, so a lookup is an array
+ * index without hashing.
+ * <p>
+ * Null values are not allowed, a null slot marks an empty slot. The map is
+ * not thread-safe.
+ *
+ * @param <V>
+ *            - value type
+ * @author Dr B.G.W. Craenen <b.g.w.craenen@cs.bham.ac.uk>
+ */
+final class VariableArrayMap<V> {
+    private static final Variable[] NO_VARIABLES = new Variable[0];
+    private static final Object[] NO_VALUES = new Object[0];
+    private Variable[] fVariables;
+    private Object[] fValues;
+    private int fSize;
+    
+    /**
+     * Constructor
+     */
+    VariableArrayMap() {
+        this.fVariables = NO_VARIABLES;
+        this.fValues = NO_VALUES;
+        this.fSize = 0;
+    }
+    
+    /**
+     * Constructor
+     * 
+     * @param pMap
+     *            - map to copy
+     */
+    VariableArrayMap(final VariableArrayMap<V> pMap) {
+        this.fVariables = pMap.fVariables.clone();
+        this.fValues = pMap.fValues.clone();
+        this.fSize = pMap.fSize;
+    }
+    
+    /**
+     * @param pVariable
+     *            - variable
+     * @return (V) value of the variable, or null if the variable is not in
+     *         the map
+     */
+    @SuppressWarnings("unchecked")
+    V get(final Variable pVariable) {
+        final int slot = VariableMetadata.slot(pVariable);
+        if (slot >= this.fValues.length) return null;
+        return (V) this.fValues[slot];
+    }
+    
+    /**
+     * @param pVariable
+     *            - variable
+     * @return (boolean) is the variable in the map?
+     */
+    boolean containsVariable(final Variable pVariable) {
+        return this.get(pVariable) != null;
+    }
+    
+    /**
+     * @param pVariable
+     *            - variable
+     * @param pValue
+     *            - value, not null
+     */
+    void put(final Variable pVariable, final V pValue) {
+        final int slot = VariableMetadata.slot(pVariable);
+        if (slot >= this.fValues.length) {
+            final int length = Math.max(slot + 1, this.fValues.length * 2);
+            this.fVariables = Arrays.copyOf(this.fVariables, length);
+            this.fValues = Arrays.copyOf(this.fValues, length);
+        }
+        if (this.fVariables[slot] == null) {
+            this.fVariables[slot] = pVariable;
+            this.fSize++;
+        }
+        this.fValues[slot] = pValue;
+    }
+    
+    /**
+     * Remove all entries, keeping the capacity
+     */
+    void clear() {
+        Arrays.fill(this.fVariables, null);
+        Arrays.fill(this.fValues, null);
+        this.fSize = 0;
+    }
+    
+    /**
+     * @return (int) number of entries
+     */
+    int size() {
+        return this.fSize;
+    }
+    
+    /**
+     * @return (int) one more than the highest slot that can be in the map
+     *         without growing it, the bound for iterating with getAt
+     */
+    int capacity() {
+        return this.fValues.length;
+    }
+    
+    /**
+     * @param pSlot
+     *            - slot, below the capacity
+     * @return (Variable) variable in the slot, or null if there is none
+     */
+    Variable getVariableAt(final int pSlot) {
+        return this.fVariables[pSlot];
+    }
+    
+    /**
+     * @param pSlot
+     *            - slot, below the capacity
+     * @return (V) value of the variable in the slot, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    V getAt(final int pSlot) {
+        return (V) this.fValues[pSlot];
+    }
+}
@@ -0,0 +1,174 @@
+package mwgrid.middleware.kernel;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import mwgrid.middleware.distributedobject.PrivateVariable;
+import mwgrid.middleware.distributedobject.PublicVariable;
+import mwgrid.middleware.distributedobject.Variable;
+
+/**
+ * Public/private classification and slots of variables, resolved once per
+ * variable class. The annotations of all constants of an enum are read by
+ * reflection on the first access to any of them, and kept in a table indexed
+ * by ordinal, so later accesses are a map lookup and an array index.
+ * <p>
+ * Every variable gets a slot, a small int no other variable has, so maps
+ * keyed by variable can be arrays indexed by slot whatever the variable IDs
+ * are. The constants of an enum get consecutive slots when the enum is
+ * resolved. Other variables get theirs on the first access, one per equal
+ * variable.
+ * <p>
+ * Variables not declared as annotated enum constants are handled as public
+ * variables, with a warning logged once per class.
+ *
+ * @author Dr B.G.W. Craenen <b.g.w.craenen@cs.bham.ac.uk>
+ */
+final class VariableMetadata {
+    private static final Logger LOG = Logger.getLogger(VariableMetadata.class
+            .getPackage().getName());
+    private static final AtomicInteger NEXT_SLOT = new AtomicInteger();
+    private static final ConcurrentMap<Class<?>, Table> TABLES =
+            new ConcurrentHashMap<Class<?>, Table>();
+    private static final ConcurrentMap<Variable, Integer> OTHER_SLOTS =
+            new ConcurrentHashMap<Variable, Integer>();
+    
+    /**
+     * Metadata of the constants of a variable class, indexed by ordinal
+     */
+    private static final class Table {
+        // Null if all variables of the class are public
+        private final boolean[] fPrivate;
+        // Null if the class is not an enum
+        private final int[] fSlots;
+        
+        /**
+         * Constructor
+         * 
+         * @param pPrivate
+         *            - is the constant of each ordinal private?
+         * @param pSlots
+         *            - slot of the constant of each ordinal
+         */
+        Table(final boolean[] pPrivate, final int[] pSlots) {
+            this.fPrivate = pPrivate;
+            this.fSlots = pSlots;
+        }
+    }
+    
+    /**
+     * Private constructor
+     */
+    private VariableMetadata() {
+        LOG.finest("Private Constructor");
+    }
+    
+    /**
+     * @param pVariable
+     *            - variable
+     * @return (boolean) is variable annotated as PrivateVariable?
+     */
+    static boolean isPrivate(final Variable pVariable) {
+        final Table table = table(pVariable.getClass());
+        if (table.fPrivate == null) return false;
+        return table.fPrivate[((Enum<?>) pVariable).ordinal()];
+    }
+    
+    /**
+     * @param pVariable
+     *            - variable
+     * @return (int) slot of the variable, from 0 up
+     */
+    static int slot(final Variable pVariable) {
+        final Table table = table(pVariable.getClass());
+        if (table.fSlots != null)
+            return table.fSlots[((Enum<?>) pVariable).ordinal()];
+        Integer result = OTHER_SLOTS.get(pVariable);
+        if (result == null) {
+            final Integer slot = new Integer(NEXT_SLOT.getAndIncrement());
+            result = OTHER_SLOTS.putIfAbsent(pVariable, slot);
+            if (result == null) result = slot;
+        }
+        return result.intValue();
+    }
+    
+    /**
+     * @param pType
+     *            - variable class
+     * @return (Table) metadata of the constants of the class
+     */
+    private static Table table(final Class<?> pType) {
+        final Table result = TABLES.get(pType);
+        if (result != null) return result;
+        // Racing threads agree on the first table put, the slots of the
+        // others are left unused
+        final Table table = resolve(pType);
+        final Table previous = TABLES.putIfAbsent(pType, table);
+        return previous != null ? previous : table;
+    }
+    
+    /**
+     * @param pType
+     *            - variable class
+     * @return (Table) metadata of the constants of the class
+     */
+    private static Table resolve(final Class<?> pType) {
+        // Check if variable is declared in enum
+        if (!pType.isEnum()) {
+            LOG.warning("Variable " + pType.getName()
+                    + " is not declared in Enum, handling as public variable");
+            return new Table(null, null);
+        }
+        final Object[] constants = pType.getEnumConstants();
+        final boolean[] isPrivate = new boolean[constants.length];
+        final int[] slots = new int[constants.length];
+        final int firstSlot = NEXT_SLOT.getAndAdd(constants.length);
+        for (int ordinal = 0; ordinal < constants.length; ordinal++) {
+            isPrivate[ordinal] = isPrivateField(pType, constants[ordinal]);
+            slots[ordinal] = firstSlot + ordinal;
+        }
+        return new Table(isPrivate, slots);
+    }
+    
+    /**
+     * @param pType
+     *            - enum class
+     * @param pConstant
+     *            - enum constant
+     * @return (boolean) is the field of the constant annotated as
+     *         PrivateVariable?
+     */
+    private static boolean isPrivateField(final Class<?> pType,
+            final Object pConstant) {
+        // Get field
+        Field field;
+        try {
+            field = pType.getField(pConstant.toString());
+        } catch (SecurityException e) {
+            LOG.warning("SecurityException thrown for " + pConstant
+                    + ", handling as public variable");
+            return false;
+        } catch (NoSuchFieldException e) {
+            LOG.warning("Variable field " + pConstant
+                    + " could not be found, handling as public variable");
+            return false;
+        }
+        // Check if field is enum constant
+        if (!field.isEnumConstant()) {
+            LOG.warning("Variable field " + pConstant
+                    + " is not an enum constant, handling as public variable");
+            return false;
+        }
+        // Check if field has correct annotations
+        if (!field.isAnnotationPresent(PublicVariable.class)
+                && !field.isAnnotationPresent(PrivateVariable.class)) {
+            LOG.warning("Variable field " + pConstant
+                    + " is not annotated, handling as public variable");
+            return false;
+        }
+        return field.isAnnotationPresent(PrivateVariable.class);
+    }
+}
@@ -122,6 +122,92 @@ public class PDESMASInterface {
             final int pVariable, final int pTime)
             throws RollbackException, SSVNotFoundException;
     
+    /**
+     * Native method for reading Integer SSVs.
+     * 
+     * @param pAgentId
+     *            - agent ID
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable
+     * @param pTime
+     *            - time
+     * @return (int) value of variable
+     * @throws SSVNotFoundException
+     *             - exception thrown when SSV is not found
+     * @throws RollbackException
+     *             - exception thrown when Rollback occurred
+     */
+    public native int readInt(final long pAgentId, final long pObjectId,
+            final int pVariable, final int pTime) throws RollbackException,
+            SSVNotFoundException;
+    
+    /**
+     * Native method for reading Double SSVs.
+     * 
+     * @param pAgentId
+     *            - agent ID
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable
+     * @param pTime
+     *            - time
+     * @return (double) value of variable
+     * @throws SSVNotFoundException
+     *             - exception thrown when SSV is not found
+     * @throws RollbackException
+     *             - exception thrown when Rollback occurred
+     */
+    public native double readDouble(final long pAgentId,
+            final long pObjectId, final int pVariable, final int pTime)
+            throws RollbackException, SSVNotFoundException;
+    
+    /**
+     * Native method for reading Location SSVs.
+     * 
+     * @param pAgentId
+     *            - agent ID
+     * @param pObjectId
+     *            - object ID
+     * @param pVariable
+     *            - variable
+     * @param pTime
+     *            - time
+     * @return (Location) value of variable
+     * @throws SSVNotFoundException
+     *             - exception thrown when SSV is not found
+     * @throws RollbackException
+     *             - exception thrown when Rollback occurred
+     */
+    public native Location readLocation(final long pAgentId,
+            final long pObjectId, final int pVariable, final int pTime)
+            throws RollbackException, SSVNotFoundException;
+    
+    /**
+     * Native method for reading the same SSV of many objects, sent to the CLPs
+     * in one message.
+     * 
+     * @param pAgentId
+     *            - agent ID
+     * @param pObjectIds
+     *            - object IDs
+     * @param pVariable
+     *            - variable
+     * @param pTime
+     *            - time
+     * @return (Value<?>[]) values of the variable, in the order of the object
+     *         IDs
+     * @throws SSVNotFoundException
+     *             - exception thrown when an SSV is not found
+     * @throws RollbackException
+     *             - exception thrown when Rollback occurred
+     */
+    public native Value<?>[] readAll(final long pAgentId,
+            final long[] pObjectIds, final int pVariable, final int pTime)
+            throws RollbackException, SSVNotFoundException;
+    
     /**
      * Native method for writing SSVs.
      * 
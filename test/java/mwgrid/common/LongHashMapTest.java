@@ -0,0 +1,128 @@
+package mwgrid.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LongHashMapTest {
+    private static final int OPERATIONS = 200000;
+    private static final int KEYS = 5000;
+    private static final int LOOKUP_KEYS = 20000;
+    
+    /**
+     * Empty constructor
+     */
+    public LongHashMapTest() {
+        // Empty constructor
+    }
+    
+    /**
+     * Test random puts and removes give the same entries as a HashMap. Keys
+     * are packed like SSV keys, so many share their low bits.
+     */
+    @Test
+    public void testSameAsHashMap() {
+        testSameAsHashMap(new LongHashMap<Long>(), 4);
+    }
+    
+    /**
+     * Test random puts and removes give the same entries as a HashMap, with
+     * a map told how the keys are packed
+     */
+    @Test
+    public void testPackedSameAsHashMap() {
+        testSameAsHashMap(new LongHashMap<Long>(0, 16), 4);
+    }
+    
+    /**
+     * Test random puts and removes give the same entries as a HashMap, with
+     * more low parts per high part than fit between consecutive high parts
+     * before the map widens its stride
+     */
+    @Test
+    public void testWidePackedSameAsHashMap() {
+        testSameAsHashMap(new LongHashMap<Long>(0, 16), 20);
+    }
+    
+    /**
+     * Test looking up every key of many high parts with many low parts each
+     * takes about as long as with few low parts each, so keys of consecutive
+     * high parts don't pile up in one probe sequence
+     */
+    @Test
+    public void testWidePackedLookups() {
+        final long fewTime = timeLookups(4);
+        final long manyTime = timeLookups(20);
+        // Five times the keys, allowing for noise
+        Assert.assertTrue("4 low parts: " + fewTime + " ns, 20 low parts: "
+                + manyTime + " ns", manyTime < 50 * Math.max(fewTime, 1000000));
+    }
+    
+    /**
+     * @param pMap
+     *            - empty map
+     * @param pLowKeys
+     *            - number of low parts per high part
+     */
+    private static void testSameAsHashMap(final LongHashMap<Long> pMap,
+            final int pLowKeys) {
+        final Random random = new Random(1);
+        final Map<Long, Long> expected = new HashMap<Long, Long>();
+        for (int operation = 0; operation < OPERATIONS; operation++) {
+            final long key =
+                    (long) random.nextInt(KEYS) << 16
+                            | random.nextInt(pLowKeys);
+            final Long boxedKey = new Long(key);
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(expected.remove(boxedKey),
+                    pMap.remove(key));
+            } else {
+                final Long value = new Long(operation);
+                Assert.assertEquals(expected.put(boxedKey, value),
+                    pMap.put(key, value));
+            }
+            Assert.assertEquals(expected.size(), pMap.size());
+        }
+        for (int key = 0; key < KEYS; key++)
+            for (int variable = 0; variable < pLowKeys; variable++) {
+                final long packed = (long) key << 16 | variable;
+                Assert.assertEquals(expected.get(new Long(packed)), pMap
+                        .get(packed));
+            }
+        final List<Long> values = new ArrayList<Long>();
+        for (final Long value : pMap)
+            values.add(value);
+        final List<Long> expectedValues =
+                new ArrayList<Long>(expected.values());
+        Collections.sort(values);
+        Collections.sort(expectedValues);
+        Assert.assertEquals(expectedValues, values);
+        pMap.clear();
+        Assert.assertTrue(pMap.isEmpty());
+        Assert.assertNull(pMap.get(0));
+    }
+    
+    /**
+     * @param pLowKeys
+     *            - number of low parts per high part
+     * @return (long) nanoseconds to put and get every key, in key order
+     */
+    private static long timeLookups(final int pLowKeys) {
+        final LongHashMap<Long> map = new LongHashMap<Long>(0, 16);
+        final Long value = new Long(0);
+        final long startTime = System.nanoTime();
+        for (int key = 0; key < LOOKUP_KEYS; key++)
+            for (int variable = 0; variable < pLowKeys; variable++)
+                map.put((long) key << 16 | variable, value);
+        for (int key = 0; key < LOOKUP_KEYS; key++)
+            for (int variable = 0; variable < pLowKeys; variable++)
+                Assert.assertSame(value, map.get((long) key << 16 | variable));
+        return System.nanoTime() - startTime;
+    }
+}
@@ -0,0 +1,228 @@
+package mwgrid.middleware.experiment;
+
+import mwgrid.middleware.distributedobject.DistributedObject;
+import mwgrid.middleware.distributedobject.PrivateVariable;
+import mwgrid.middleware.distributedobject.Value;
+import mwgrid.middleware.distributedobject.Variable;
+import mwgrid.middleware.exception.RollbackException;
+import mwgrid.middleware.kernel.Kernel;
+import mwgrid.middleware.kernel.SchedulerListener;
+
+/**
+ * Benchmark for saving private state by checkpointing. An agent with a
+ * number of private variables writes a few of them per step. The agents are
+ * stepped for a number of time steps, with fossil collection a fixed window
+ * behind, and are rolled back a random number of steps now and then. Prints
+ * the private values held on average, as a measure of the memory footprint,
+ * and the time per rollback, including re-executing the steps since the
+ * restored checkpoint, for saving every value, incremental saving and a
+ * range of checkpoint intervals.
+ * <p>
+ * Arguments: number of agents (default 1000), number of time steps (default
+ * 2000).
+ *
+ * @author Dr B.G.W. Craenen <b.g.w.craenen@cs.bham.ac.uk>
+ */
+public final class CheckpointBenchmark {
+    private static final int DEFAULT_AGENTS = 1000;
+    private static final int DEFAULT_STEPS = 2000;
+    private static final int[] INTERVALS = { 1, 2, 4, 8, 16, 32 };
+    private static final int WRITES_PER_STEP = 4;
+    private static final int GVT_WINDOW = 32;
+    private static final int ROLLBACK_PERIOD = 50;
+    private static final int MAX_ROLLBACK = 16;
+    
+    /**
+     * Private state of the benchmark agent
+     */
+    public enum BenchmarkVariables implements Variable {
+        @PrivateVariable
+        V0, @PrivateVariable
+        V1, @PrivateVariable
+        V2, @PrivateVariable
+        V3, @PrivateVariable
+        V4, @PrivateVariable
+        V5, @PrivateVariable
+        V6, @PrivateVariable
+        V7, @PrivateVariable
+        V8, @PrivateVariable
+        V9, @PrivateVariable
+        V10, @PrivateVariable
+        V11, @PrivateVariable
+        V12, @PrivateVariable
+        V13, @PrivateVariable
+        V14, @PrivateVariable
+        V15;
+        
+        @Override
+        public Class<?> getType() {
+            return Integer.class;
+        }
+        
+        @Override
+        public int getVariableId() {
+            return this.ordinal() + 1;
+        }
+        
+        @Override
+        public String getName() {
+            return this.name();
+        }
+    }
+    
+    /**
+     * Agent writing a few of its private variables each step, depending on
+     * its state only, so re-executed steps write the same values
+     */
+    private static final class BenchmarkAgent extends DistributedObject {
+        /**
+         * Constructor
+         * 
+         * @param pCheckpointInterval
+         *            - checkpoint interval, at least 1
+         */
+        BenchmarkAgent(final int pCheckpointInterval) {
+            super(1, pCheckpointInterval);
+            this.addVariables();
+        }
+        
+        /**
+         * Constructor
+         * 
+         * @param pIncrementalStateSaving
+         *            - save incrementally?
+         */
+        BenchmarkAgent(final boolean pIncrementalStateSaving) {
+            super(1, pIncrementalStateSaving);
+            this.addVariables();
+        }
+        
+        /**
+         * Add the private variables
+         */
+        private void addVariables() {
+            for (final BenchmarkVariables variable : BenchmarkVariables
+                    .values())
+                this.addVariable(variable, new Value<Integer>(new Integer(0)));
+        }
+        
+        @Override
+        public void step() throws RollbackException {
+            final BenchmarkVariables[] variables = BenchmarkVariables.values();
+            int sum = 0;
+            for (final BenchmarkVariables variable : variables)
+                sum += this.getInt(variable);
+            for (int write = 0; write < WRITES_PER_STEP; write++) {
+                final int variable =
+                        (this.getTime() * WRITES_PER_STEP + write)
+                                % variables.length;
+                this.setInt(variables[variable], sum + write);
+            }
+        }
+        
+        @Override
+        public String report() throws RollbackException {
+            return "";
+        }
+    }
+    
+    /**
+     * Private constructor
+     */
+    private CheckpointBenchmark() {
+        // Private constructor
+    }
+    
+    /**
+     * @param pArguments
+     *            - arguments
+     * @throws Exception
+     *             - thrown on failure
+     */
+    public static void main(final String[] pArguments) throws Exception {
+        final int agents =
+                pArguments.length > 0 ? Integer.parseInt(pArguments[0])
+                        : DEFAULT_AGENTS;
+        final int steps =
+                pArguments.length > 1 ? Integer.parseInt(pArguments[1])
+                        : DEFAULT_STEPS;
+        // Warm up
+        run("Warm up", 0, agents, steps);
+        run("Snapshots", 0, agents, steps);
+        run("Incremental", -1, agents, steps);
+        for (final int interval : INTERVALS)
+            run("Checkpoint k=" + interval, interval, agents, steps);
+    }
+    
+    /**
+     * @param pName
+     *            - state saving name
+     * @param pCheckpointInterval
+     *            - checkpoint interval, 0 to save every value and -1 to save
+     *            incrementally
+     * @param pAgents
+     *            - number of agents
+     * @param pSteps
+     *            - number of time steps
+     * @throws RollbackException
+     *             - thrown if rollback occurs
+     */
+    private static void run(final String pName,
+            final int pCheckpointInterval, final int pAgents,
+            final int pSteps) throws RollbackException {
+        Kernel.getSequentionalInstance(new SchedulerListener() {
+            @Override
+            public void collectReport(final long pAgentId, final int pTime,
+                    final String pReport) {
+                // No reports
+            }
+        }, pSteps);
+        final BenchmarkAgent[] agents = new BenchmarkAgent[pAgents];
+        for (int agent = 0; agent < pAgents; agent++)
+            agents[agent] =
+                    pCheckpointInterval > 0 ? new BenchmarkAgent(
+                            pCheckpointInterval) : new BenchmarkAgent(
+                            pCheckpointInterval < 0);
+        long historySize = 0;
+        long samples = 0;
+        long rollbackTime = 0;
+        long rollbacks = 0;
+        long stepTime = 0;
+        for (int agent = 0; agent < pAgents; agent++) {
+            final BenchmarkAgent benchmarkAgent = agents[agent];
+            // Roll back each agent at a different phase
+            long state = agent * 0x9E3779B97F4A7C15L;
+            int step = agent;
+            final long startTime = System.nanoTime();
+            while (benchmarkAgent.getTime() < pSteps) {
+                step++;
+                benchmarkAgent.increaseTime();
+                benchmarkAgent.step();
+                final int time = benchmarkAgent.getTime();
+                if (time > GVT_WINDOW)
+                    benchmarkAgent.cleanToGVT(time - GVT_WINDOW);
+                if (step % ROLLBACK_PERIOD == 0 && time > MAX_ROLLBACK) {
+                    state = state * 6364136223846793005L + 1442695040888963407L;
+                    final int distance =
+                            1 + (int) ((state >>> 33) % MAX_ROLLBACK);
+                    final long rollbackStartTime = System.nanoTime();
+                    benchmarkAgent.rollBack(time - distance);
+                    rollbackTime += System.nanoTime() - rollbackStartTime;
+                    rollbacks++;
+                }
+                if (step % GVT_WINDOW == 0) {
+                    historySize += benchmarkAgent.getHistorySize();
+                    samples++;
+                }
+            }
+            stepTime += System.nanoTime() - startTime;
+        }
+        stepTime -= rollbackTime;
+        System.out.println(pName + "\t" + historySize / samples
+                + " values held per agent\t" + rollbackTime / rollbacks
+                + " ns per rollback\t" + stepTime
+                / ((long) pAgents * pSteps) + " ns per step");
+        for (final BenchmarkAgent agent : agents)
+            agent.destroyDistributedObject();
+    }
+}
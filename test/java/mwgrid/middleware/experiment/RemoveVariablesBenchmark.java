@@ -0,0 +1,136 @@
+package mwgrid.middleware.experiment;
+
+import mwgrid.middleware.distributedobject.KernelVariables;
+import mwgrid.middleware.distributedobject.Location;
+import mwgrid.middleware.distributedobject.Value;
+import mwgrid.middleware.exception.RollbackException;
+import mwgrid.middleware.exception.SSVAlreadyExistsException;
+import mwgrid.middleware.exception.SSVNotFoundException;
+import mwgrid.middleware.kernel.ColumnarSSVHandler;
+import mwgrid.middleware.kernel.ConcurrentSSVHandler;
+import mwgrid.middleware.kernel.SSVHandler;
+import mwgrid.middleware.kernel.SequentialSSVHandler;
+
+/**
+ * Benchmark for destroying agents in bulk. Each run creates the SSVs of a
+ * population, then replaces half of it over a number of generations, as in
+ * birth/death-heavy models, and finally destroys the rest. Prints the time
+ * spent in removeVariables per handler.
+ * <p>
+ * Arguments: number of agents (default 100000), number of generations
+ * (default 10).
+ *
+ * @author Dr B.G.W. Craenen <b.g.w.craenen@cs.bham.ac.uk>
+ */
+public final class RemoveVariablesBenchmark {
+    private static final int DEFAULT_AGENTS = 100000;
+    private static final int DEFAULT_GENERATIONS = 10;
+    private static final int WRITES = 4;
+    
+    /**
+     * Private constructor
+     */
+    private RemoveVariablesBenchmark() {
+        // Private constructor
+    }
+    
+    /**
+     * @param pArguments
+     *            - arguments
+     * @throws Exception
+     *             - thrown on failure
+     */
+    public static void main(final String[] pArguments) throws Exception {
+        final int agents =
+                pArguments.length > 0 ? Integer.parseInt(pArguments[0])
+                        : DEFAULT_AGENTS;
+        final int generations =
+                pArguments.length > 1 ? Integer.parseInt(pArguments[1])
+                        : DEFAULT_GENERATIONS;
+        run("SequentialSSVHandler", new SequentialSSVHandler(), agents,
+            generations);
+        run("ConcurrentSSVHandler", new ConcurrentSSVHandler(), agents,
+            generations);
+        run("ColumnarSSVHandler", new ColumnarSSVHandler(), agents,
+            generations);
+    }
+    
+    /**
+     * @param pName
+     *            - handler name
+     * @param pSSVHandler
+     *            - SSV handler
+     * @param pAgents
+     *            - number of agents
+     * @param pGenerations
+     *            - number of generations
+     * @throws SSVAlreadyExistsException
+     *             - thrown if SSV already exists
+     * @throws SSVNotFoundException
+     *             - thrown if SSV not found
+     * @throws RollbackException
+     *             - thrown if rollback occurs
+     */
+    private static void run(final String pName, final SSVHandler pSSVHandler,
+            final int pAgents, final int pGenerations)
+            throws SSVAlreadyExistsException, SSVNotFoundException,
+            RollbackException {
+        long nextObjectId = 1;
+        long firstObjectId = 1;
+        for (int agent = 0; agent < pAgents; agent++)
+            create(pSSVHandler, nextObjectId++, 0);
+        long removeTime = 0;
+        long removed = 0;
+        for (int generation = 1; generation <= pGenerations; generation++) {
+            final long startTime = System.nanoTime();
+            for (int agent = 0; agent < pAgents / 2; agent++)
+                pSSVHandler.removeVariables(firstObjectId++);
+            removeTime += System.nanoTime() - startTime;
+            removed += pAgents / 2;
+            for (int agent = 0; agent < pAgents / 2; agent++)
+                create(pSSVHandler, nextObjectId++, generation * WRITES);
+        }
+        final long startTime = System.nanoTime();
+        while (firstObjectId < nextObjectId)
+            pSSVHandler.removeVariables(firstObjectId++);
+        removeTime += System.nanoTime() - startTime;
+        removed += pAgents;
+        System.out.println(pName + "\t" + pAgents + " agents\t" + removed
+                + " removed\t" + removeTime / 1000000 + " ms\t"
+                + removeTime / removed + " ns per agent");
+    }
+    
+    /**
+     * Create the SSVs of an agent and write them a few times
+     * 
+     * @param pSSVHandler
+     *            - SSV handler
+     * @param pObjectId
+     *            - object ID
+     * @param pTime
+     *            - time of creation
+     * @throws SSVAlreadyExistsException
+     *             - thrown if SSV already exists
+     * @throws SSVNotFoundException
+     *             - thrown if SSV not found
+     * @throws RollbackException
+     *             - thrown if rollback occurs
+     */
+    private static void create(final SSVHandler pSSVHandler,
+            final long pObjectId, final int pTime)
+            throws SSVAlreadyExistsException, SSVNotFoundException,
+            RollbackException {
+        final Location location =
+                new Location((int) (pObjectId % 1000), (int) (pObjectId / 1000));
+        pSSVHandler.add(pObjectId, KernelVariables.CLASS, new Value<Integer>(
+                new Integer(1)), pTime);
+        pSSVHandler.add(pObjectId, KernelVariables.MESSAGES,
+            new Value<String>("|"), pTime);
+        pSSVHandler.add(pObjectId, KernelVariables.LOCATION,
+            new Value<Location>(location), pTime);
+        for (int write = 1; write < WRITES; write++)
+            pSSVHandler.write(pObjectId, pObjectId, KernelVariables.LOCATION,
+                new Value<Location>(new Location(location.getX() + write,
+                        location.getY())), pTime + write);
+    }
+}
@@ -0,0 +1,175 @@
+package mwgrid.middleware.experiment;
+
+import mwgrid.middleware.distributedobject.DistributedObject;
+import mwgrid.middleware.distributedobject.Value;
+import mwgrid.middleware.distributedobject.Variable;
+import mwgrid.middleware.exception.RollbackException;
+import mwgrid.middleware.kernel.ConcurrentSSVHandler;
+import mwgrid.middleware.kernel.Kernel;
+import mwgrid.middleware.kernel.SSVHandler;
+import mwgrid.middleware.kernel.SchedulerListener;
+import mwgrid.middleware.kernel.SequentialSSVHandler;
+
+/**
+ * Benchmark for stepping distributed objects in parallel. Each agent reads
+ * its own SSV and those of a few other agents, does some work on the values
+ * and writes its SSV, every time step. Prints the time per time step and the
+ * speed-up over a parallelism of 1, per SSV handler and step parallelism, up
+ * to the number of available processors.
+ * <p>
+ * Arguments: number of agents (default 10000), number of time steps (default
+ * 100).
+ *
+ * @author Dr B.G.W. Craenen <b.g.w.craenen@cs.bham.ac.uk>
+ */
+public final class StepParallelismBenchmark {
+    private static final int DEFAULT_AGENTS = 10000;
+    private static final int DEFAULT_STEPS = 100;
+    private static final int NEIGHBOURS = 8;
+    private static final int WORK = 200;
+    
+    /**
+     * Public state of the benchmark agent
+     */
+    public enum BenchmarkVariables implements Variable {
+        VALUE;
+        
+        @Override
+        public Class<?> getType() {
+            return Integer.class;
+        }
+        
+        @Override
+        public int getVariableId() {
+            return 100 + this.ordinal();
+        }
+        
+        @Override
+        public String getName() {
+            return this.name();
+        }
+    }
+    
+    /**
+     * Agent reading the values of the agents after it and writing its own
+     */
+    private static final class BenchmarkAgent extends DistributedObject {
+        private final long[] fObjectIds;
+        private final int fIndex;
+        
+        /**
+         * Constructor
+         * 
+         * @param pObjectIds
+         *            - object IDs of all agents, filled in after construction
+         * @param pIndex
+         *            - index of the agent
+         */
+        BenchmarkAgent(final long[] pObjectIds, final int pIndex) {
+            super(1);
+            this.fObjectIds = pObjectIds;
+            this.fIndex = pIndex;
+            this.addVariable(BenchmarkVariables.VALUE, new Value<Integer>(
+                    new Integer(pIndex)));
+        }
+        
+        @Override
+        public void step() throws RollbackException {
+            int sum = this.getInt(BenchmarkVariables.VALUE);
+            for (int neighbour = 1; neighbour <= NEIGHBOURS; neighbour++)
+                sum +=
+                        this.getInt(this.fObjectIds[(this.fIndex + neighbour)
+                                % this.fObjectIds.length],
+                            BenchmarkVariables.VALUE);
+            for (int work = 0; work < WORK; work++)
+                sum = sum * 31 + work;
+            this.setInt(BenchmarkVariables.VALUE, sum);
+        }
+        
+        @Override
+        public String report() throws RollbackException {
+            return "";
+        }
+    }
+    
+    /**
+     * Private constructor
+     */
+    private StepParallelismBenchmark() {
+        // Private constructor
+    }
+    
+    /**
+     * @param pArguments
+     *            - arguments
+     */
+    public static void main(final String[] pArguments) {
+        final int agents =
+                pArguments.length > 0 ? Integer.parseInt(pArguments[0])
+                        : DEFAULT_AGENTS;
+        final int steps =
+                pArguments.length > 1 ? Integer.parseInt(pArguments[1])
+                        : DEFAULT_STEPS;
+        final int processors = Runtime.getRuntime().availableProcessors();
+        System.out.println(processors + " available processors");
+        // Warm up
+        run("Warm up", new SequentialSSVHandler(), 2, agents, steps, 0);
+        run("Warm up", new ConcurrentSSVHandler(), 2, agents, steps, 0);
+        for (int handler = 0; handler < 2; handler++) {
+            long baseTime = 0;
+            final int maxParallelism = Math.max(2, processors);
+            for (int parallelism = 1; parallelism <= maxParallelism; parallelism *= 2) {
+                final SSVHandler ssvHandler =
+                        handler == 0 ? new SequentialSSVHandler()
+                                : new ConcurrentSSVHandler();
+                final long time =
+                        run(ssvHandler.getClass().getSimpleName(),
+                            ssvHandler, parallelism, agents, steps, baseTime);
+                if (parallelism == 1) baseTime = time;
+            }
+        }
+    }
+    
+    /**
+     * @param pName
+     *            - handler name
+     * @param pSSVHandler
+     *            - SSV handler
+     * @param pParallelism
+     *            - step parallelism
+     * @param pAgents
+     *            - number of agents
+     * @param pSteps
+     *            - number of time steps
+     * @param pBaseTime
+     *            - time per time step with a parallelism of 1, 0 if unknown
+     * @return (long) time per time step in nanoseconds
+     */
+    private static long run(final String pName, final SSVHandler pSSVHandler,
+            final int pParallelism, final int pAgents, final int pSteps,
+            final long pBaseTime) {
+        Kernel.getSequentionalInstance(new SchedulerListener() {
+            @Override
+            public void collectReport(final long pAgentId, final int pTime,
+                    final String pReport) {
+                // No reports
+            }
+        }, pSteps, pSSVHandler);
+        Kernel.getScheduler().setStepParallelism(pParallelism);
+        final long[] objectIds = new long[pAgents];
+        for (int agent = 0; agent < pAgents; agent++)
+            objectIds[agent] =
+                    new BenchmarkAgent(objectIds, agent).getObjectId();
+        final long startTime = System.nanoTime();
+        Kernel.startSimulation();
+        while (Kernel.isSimulationAlive())
+            Thread.yield();
+        final long result = (System.nanoTime() - startTime) / pSteps;
+        System.out.println(pName + "\tparallelism " + pParallelism + "\t"
+                + result / 1000 + " us per time step"
+                + (pBaseTime > 0 ? "\tspeed-up "
+                        + String.format("%.2f", (double) pBaseTime / result)
+                        : ""));
+        return result;
+    }
+}
@@ -0,0 +1,94 @@
+package mwgrid.middleware.experiment;
+
+import mwgrid.middleware.distributedobject.KernelVariables;
+import mwgrid.middleware.distributedobject.Location;
+import mwgrid.middleware.distributedobject.Value;
+import mwgrid.middleware.exception.RollbackException;
+import mwgrid.middleware.kernel.Kernel;
+import mwgrid.middleware.kernel.SchedulerListener;
+import mwgrid.middleware.kernel.Statebase;
+
+/**
+ * Benchmark for the variable access path of the Statebase. Each round writes
+ * and reads a private and a public variable of one statebase at increasing
+ * times, so every access goes through the public/private classification of
+ * the variable. Prints the time per access for each kind of variable.
+ * <p>
+ * Arguments: number of rounds (default 1000000), number of repetitions
+ * (default 5, the first ones warm up the JIT).
+ *
+ * @author Dr B.G.W. Craenen <b.g.w.craenen@cs.bham.ac.uk>
+ */
+public final class VariableAccessBenchmark {
+    private static final int DEFAULT_ROUNDS = 1000000;
+    private static final int DEFAULT_REPETITIONS = 5;
+    private static final int GVT_INTERVAL = 64;
+    
+    /**
+     * Private constructor
+     */
+    private VariableAccessBenchmark() {
+        // Private constructor
+    }
+    
+    /**
+     * @param pArguments
+     *            - arguments
+     * @throws Exception
+     *             - thrown on failure
+     */
+    public static void main(final String[] pArguments) throws Exception {
+        final int rounds =
+                pArguments.length > 0 ? Integer.parseInt(pArguments[0])
+                        : DEFAULT_ROUNDS;
+        final int repetitions =
+                pArguments.length > 1 ? Integer.parseInt(pArguments[1])
+                        : DEFAULT_REPETITIONS;
+        for (int repetition = 0; repetition < repetitions; repetition++) {
+            run("Private", KernelVariables.PREVIOUS, rounds);
+            run("Public", KernelVariables.LOCATION, rounds);
+        }
+    }
+    
+    /**
+     * @param pName
+     *            - variable kind
+     * @param pVariable
+     *            - variable of type Location
+     * @param pRounds
+     *            - number of rounds
+     * @throws RollbackException
+     *             - thrown if rollback occurs
+     */
+    private static void run(final String pName,
+            final KernelVariables pVariable, final int pRounds)
+            throws RollbackException {
+        Kernel.getSequentionalInstance(new SchedulerListener() {
+            @Override
+            public void collectReport(final long pAgentId, final int pTime,
+                    final String pReport) {
+                // No reports
+            }
+        }, pRounds + 1);
+        final Statebase statebase = new Statebase();
+        statebase.addVariable(pVariable, new Value<Location>(new Location(0,
+                0)));
+        long checksum = 0;
+        final long startTime = System.nanoTime();
+        for (int round = 1; round <= pRounds; round++) {
+            statebase.increaseTime();
+            final Location location =
+                    (Location) statebase.getVariable(pVariable).get();
+            checksum += location.getX();
+            statebase.setVariable(pVariable, new Value<Location>(
+                    new Location(round, 0)));
+            if (round % GVT_INTERVAL == 0) statebase.cleanToGVT(round - 1);
+        }
+        final long accessTime = System.nanoTime() - startTime;
+        final long accesses = 2L * pRounds;
+        System.out.println(pName + "\t" + pRounds + " rounds\t" + accessTime
+                / 1000000 + " ms\t" + accessTime / accesses
+                + " ns per access\t(checksum " + checksum + ")");
+        statebase.destroyStatebase();
+    }
+}
@@ -0,0 +1,144 @@
+package mwgrid.middleware.kernel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import mwgrid.middleware.distributedobject.KernelVariables;
+import mwgrid.middleware.distributedobject.Value;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CheckpointVariableMapTest {
+    private static final int STEPS = 5000;
+    private static final int[] INTERVALS = { 1, 3, 8 };
+    
+    /**
+     * Empty constructor
+     */
+    public CheckpointVariableMapTest() {
+        // Empty constructor
+    }
+    
+    /**
+     * Write the values planned for a time step
+     * 
+     * @param pMap
+     *            - private variable map
+     * @param pPlan
+     *            - values written per time step and variable, null if not
+     *            written
+     * @param pTime
+     *            - time
+     */
+    private static void write(final PrivateVariableMap pMap,
+            final List<Value<?>[]> pPlan, final int pTime) {
+        final KernelVariables[] variables = KernelVariables.values();
+        for (int variable = 0; variable < variables.length; variable++) {
+            final Value<?> value = pPlan.get(pTime)[variable];
+            if (value != null) pMap.set(variables[variable], value, pTime);
+        }
+    }
+    
+    /**
+     * Test random writes, rollbacks and fossil collections give the same
+     * current values when checkpointing and re-executing the writes since the
+     * restored checkpoint as when saving every value
+     */
+    @Test
+    public void testSameAsSnapshots() {
+        final KernelVariables[] variables = KernelVariables.values();
+        for (final int interval : INTERVALS) {
+            final Random random = new Random(interval);
+            final PrivateVariableMap snapshots = new PrivateVariableMap();
+            final PrivateVariableMap checkpoints =
+                    new PrivateVariableMap(interval);
+            final Value<Integer> initialValue =
+                    new Value<Integer>(new Integer(0));
+            for (final KernelVariables variable : variables) {
+                snapshots.add(variable, initialValue, 0);
+                checkpoints.add(variable, initialValue, 0);
+            }
+            final List<Value<?>[]> plan = new ArrayList<Value<?>[]>();
+            plan.add(new Value<?>[variables.length]);
+            int time = 0;
+            int globalVariableTime = 0;
+            for (int step = 0; step < STEPS; step++) {
+                final int action = random.nextInt(20);
+                if (action == 0 && time > globalVariableTime) {
+                    time = globalVariableTime + random.nextInt(time
+                            - globalVariableTime);
+                    snapshots.removeMoreThan(time);
+                    // Re-execute the writes since the restored checkpoint
+                    for (int coastTime = checkpoints.removeMoreThan(time) + 1; coastTime <= time; coastTime++)
+                        write(checkpoints, plan, coastTime);
+                    plan.subList(time + 1, plan.size()).clear();
+                } else if (action == 1) {
+                    globalVariableTime += random.nextInt(time
+                            - globalVariableTime + 1);
+                    snapshots.removeLessThan(globalVariableTime);
+                    checkpoints.removeLessThan(globalVariableTime);
+                } else {
+                    time++;
+                    final Value<?>[] values = new Value<?>[variables.length];
+                    for (int variable = 0; variable < variables.length; variable++)
+                        if (random.nextInt(3) == 0)
+                            values[variable] =
+                                    new Value<Integer>(new Integer(step));
+                    plan.add(values);
+                    write(snapshots, plan, time);
+                    write(checkpoints, plan, time);
+                }
+                for (final KernelVariables variable : variables)
+                    Assert.assertSame(snapshots.get(variable, time),
+                        checkpoints.get(variable, time));
+            }
+        }
+    }
+    
+    /**
+     * Test a rollback before the first checkpoint taken, when the first write
+     * comes after the first checkpoint interval, restores the values written
+     * before
+     */
+    @Test
+    public void testFirstWriteAfterInterval() {
+        final PrivateVariableMap checkpoints = new PrivateVariableMap(8);
+        final Value<Integer> initialValue = new Value<Integer>(new Integer(0));
+        checkpoints.add(KernelVariables.PREVIOUS, initialValue, 0);
+        checkpoints.set(KernelVariables.PREVIOUS, new Value<Integer>(
+                new Integer(20)), 20);
+        Assert.assertEquals(0, checkpoints.removeMoreThan(10));
+        Assert.assertSame(initialValue, checkpoints.get(
+            KernelVariables.PREVIOUS, 10));
+    }
+    
+    /**
+     * Test the history size counts the current values and the values in the
+     * checkpoints through writes, rollbacks, fossil collection and a
+     * checkpoint replaced after a rollback
+     */
+    @Test
+    public void testHistorySize() {
+        final PrivateVariableMap checkpoints = new PrivateVariableMap(1);
+        checkpoints.add(KernelVariables.PREVIOUS, new Value<Integer>(
+                new Integer(0)), 0);
+        Assert.assertEquals(1, checkpoints.getHistorySize());
+        for (int time = 1; time <= 3; time++)
+            checkpoints.set(KernelVariables.PREVIOUS, new Value<Integer>(
+                    new Integer(time)), time);
+        // Checkpoints at 0, 1 and 2
+        Assert.assertEquals(4, checkpoints.getHistorySize());
+        Assert.assertEquals(1, checkpoints.removeMoreThan(1));
+        Assert.assertEquals(3, checkpoints.getHistorySize());
+        checkpoints.removeLessThan(1);
+        Assert.assertEquals(2, checkpoints.getHistorySize());
+        // Replaces the checkpoint at 1
+        checkpoints.set(KernelVariables.PREVIOUS, new Value<Integer>(
+                new Integer(2)), 2);
+        Assert.assertEquals(2, checkpoints.getHistorySize());
+        checkpoints.clear();
+        Assert.assertEquals(0, checkpoints.getHistorySize());
+    }
+}
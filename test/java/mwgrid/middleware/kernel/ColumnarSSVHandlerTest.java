@@ -0,0 +1,238 @@
+package mwgrid.middleware.kernel;
+
+import mwgrid.middleware.distributedobject.KernelVariables;
+import mwgrid.middleware.distributedobject.Location;
+import mwgrid.middleware.distributedobject.Value;
+import mwgrid.middleware.distributedobject.Variable;
+import mwgrid.middleware.exception.InvalidTypeException;
+import mwgrid.middleware.exception.RollbackException;
+import mwgrid.middleware.exception.SSVAlreadyExistsException;
+import mwgrid.middleware.exception.SSVNotFoundException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ColumnarSSVHandlerTest {
+    private enum TestVariables implements Variable {
+        SPEED(Double.class);
+        private final Class<?> fType;
+        
+        /**
+         * @param pType
+         *            - type
+         */
+        private TestVariables(final Class<?> pType) {
+            this.fType = pType;
+        }
+        
+        @Override
+        public Class<?> getType() {
+            return this.fType;
+        }
+        
+        @Override
+        public int getVariableId() {
+            return KernelVariables.values().length + this.ordinal() + 1;
+        }
+        
+        @Override
+        public String getName() {
+            return this.name();
+        }
+    }
+    
+    private static final int OBJECTS = 10;
+    private static final int END_TIME = 2000;
+    
+    /**
+     * Empty constructor
+     */
+    public ColumnarSSVHandlerTest() {
+        // Empty constructor
+    }
+    
+    /**
+     * Fill a handler with the same SSVs and writes
+     * 
+     * @param pSSVHandler
+     *            - SSV handler
+     * @throws SSVAlreadyExistsException
+     *             - thrown if SSV already exists
+     * @throws SSVNotFoundException
+     *             - thrown if SSV not found
+     * @throws RollbackException
+     *             - thrown if rollback occurs
+     */
+    private static void fill(final SSVHandler pSSVHandler)
+            throws SSVAlreadyExistsException, SSVNotFoundException,
+            RollbackException {
+        for (long objectId = 1; objectId <= OBJECTS; objectId++) {
+            pSSVHandler.add(objectId, KernelVariables.CLASS,
+                new Value<Integer>(new Integer((int) objectId)), 0);
+            pSSVHandler.add(objectId, KernelVariables.MESSAGES,
+                new Value<String>("|"), 0);
+            pSSVHandler.add(objectId, KernelVariables.LOCATION,
+                new Value<Location>(new Location((int) objectId, 0)), 0);
+        }
+        for (int time = 1; time <= END_TIME; time++) {
+            for (long objectId = 1; objectId <= OBJECTS; objectId++) {
+                if ((time + objectId) % 3 == 0) continue;
+                pSSVHandler.write(objectId, objectId,
+                    KernelVariables.LOCATION, new Value<Location>(
+                            new Location((int) objectId, time % 7)), time);
+                pSSVHandler.write(objectId, objectId,
+                    KernelVariables.MESSAGES, new Value<String>("|" + time),
+                    time);
+            }
+        }
+    }
+    
+    /**
+     * Test the columnar handler reads what the sequential handler reads
+     * 
+     * @throws Exception
+     *             - thrown on failure
+     */
+    @Test
+    public void testSameAsSequential() throws Exception {
+        final SSVHandler sequential = new SequentialSSVHandler();
+        final ColumnarSSVHandler columnar = new ColumnarSSVHandler();
+        fill(sequential);
+        fill(columnar);
+        final long[] objectIds = new long[OBJECTS];
+        for (int index = 0; index < OBJECTS; index++)
+            objectIds[index] = OBJECTS - index;
+        for (int time = 0; time <= END_TIME; time += 13) {
+            final Value<?>[] sequentialLocations =
+                    sequential.readAll(0, objectIds, KernelVariables.LOCATION,
+                        time);
+            final Value<?>[] columnarLocations =
+                    columnar.readAll(0, objectIds, KernelVariables.LOCATION,
+                        time);
+            for (int index = 0; index < OBJECTS; index++) {
+                Assert.assertEquals(sequential.read(0, objectIds[index],
+                    KernelVariables.LOCATION, time).get(),
+                    sequentialLocations[index].get());
+                Assert.assertEquals(sequentialLocations[index].get(),
+                    columnarLocations[index].get());
+            }
+            for (long objectId = 1; objectId <= OBJECTS; objectId++) {
+                Assert.assertEquals(sequential.read(0, objectId,
+                    KernelVariables.CLASS, time).get(), columnar.read(0,
+                    objectId, KernelVariables.CLASS, time).get());
+                Assert.assertEquals(sequential.read(0, objectId,
+                    KernelVariables.MESSAGES, time).get(), columnar.read(0,
+                    objectId, KernelVariables.MESSAGES, time).get());
+                Assert.assertEquals(sequential.read(0, objectId,
+                    KernelVariables.LOCATION, time).get(), columnar.read(0,
+                    objectId, KernelVariables.LOCATION, time).get());
+            }
+            Assert.assertEquals(sequential.rangeQuery(0, time, new Location(
+                    0, 0), new Location(5, 3)), columnar.rangeQuery(0, time,
+                new Location(0, 0), new Location(5, 3)));
+        }
+    }
+    
+    /**
+     * Test writes out of time order and for a time already written
+     * 
+     * @throws Exception
+     *             - thrown on failure
+     */
+    @Test
+    public void testWrite() throws Exception {
+        final ColumnarSSVHandler columnar = new ColumnarSSVHandler();
+        columnar.add(1, KernelVariables.CLASS, new Value<Integer>(
+                new Integer(0)), 0);
+        Assert.assertTrue(columnar.write(1, 1, KernelVariables.CLASS,
+            new Value<Integer>(new Integer(10)), 10));
+        Assert.assertTrue(columnar.write(1, 1, KernelVariables.CLASS,
+            new Value<Integer>(new Integer(5)), 5));
+        Assert.assertFalse(columnar.write(1, 1, KernelVariables.CLASS,
+            new Value<Integer>(new Integer(-1)), 5));
+        Assert.assertEquals(new Integer(0), columnar.read(1, 1,
+            KernelVariables.CLASS, 4).get());
+        Assert.assertEquals(new Integer(5), columnar.read(1, 1,
+            KernelVariables.CLASS, 9).get());
+        Assert.assertEquals(new Integer(10), columnar.read(1, 1,
+            KernelVariables.CLASS, 10).get());
+        columnar.removeVariables(1);
+        try {
+            columnar.read(1, 1, KernelVariables.CLASS, 10);
+            Assert.fail("Removed SSV read");
+        } catch (final SSVNotFoundException e) {
+            // Expected
+        }
+    }
+    
+    /**
+     * Test compaction keeps the reads from the GVT on
+     * 
+     * @throws Exception
+     *             - thrown on failure
+     */
+    @Test
+    public void testCleanToGVT() throws Exception {
+        final SSVHandler sequential = new SequentialSSVHandler();
+        final ColumnarSSVHandler columnar = new ColumnarSSVHandler();
+        fill(sequential);
+        fill(columnar);
+        for (long objectId = 1; objectId <= OBJECTS; objectId++) {
+            sequential.setGVTTime(objectId, 1500 + (int) objectId);
+            columnar.setGVTTime(objectId, 1500 + (int) objectId);
+        }
+        Assert.assertEquals(sequential.getGVTTime(), columnar.getGVTTime());
+        final long historySize = columnar.getHistorySize();
+        Assert.assertTrue(columnar.cleanToGVT(columnar.getGVTTime()) > 0);
+        Assert.assertTrue(columnar.getHistorySize() < historySize / 2);
+        for (int time = columnar.getGVTTime(); time <= END_TIME; time++)
+            for (long objectId = 1; objectId <= OBJECTS; objectId++)
+                Assert.assertEquals(sequential.read(0, objectId,
+                    KernelVariables.MESSAGES, time).get(), columnar.read(0,
+                    objectId, KernelVariables.MESSAGES, time).get());
+    }
+    
+    /**
+     * Test the typed reads and writes against the generic ones
+     * 
+     * @throws Exception
+     *             - thrown on failure
+     */
+    @Test
+    public void testTypedAccess() throws Exception {
+        final SSVHandler[] handlers =
+                new SSVHandler[] { new SequentialSSVHandler(),
+                        new ColumnarSSVHandler() };
+        for (final SSVHandler handler : handlers) {
+            fill(handler);
+            handler.add(1, TestVariables.SPEED, new Value<Double>(
+                    new Double(0.5)), 0);
+            Assert.assertTrue(handler.writeInt(1, 1, KernelVariables.CLASS,
+                7, 10));
+            Assert.assertFalse(handler.writeInt(1, 1, KernelVariables.CLASS,
+                8, 10));
+            Assert.assertTrue(handler.writeDouble(1, 1, TestVariables.SPEED,
+                1.5, 10));
+            Assert.assertEquals(1, handler.readInt(1, 1,
+                KernelVariables.CLASS, 9));
+            Assert.assertEquals(new Integer(7), handler.read(1, 1,
+                KernelVariables.CLASS, 10).get());
+            Assert.assertEquals(7, handler.readInt(1, 1,
+                KernelVariables.CLASS, 11));
+            Assert.assertEquals(0.5, handler.readDouble(1, 1,
+                TestVariables.SPEED, 9), 0);
+            Assert.assertEquals(new Double(1.5), handler.read(1, 1,
+                TestVariables.SPEED, 10).get());
+            for (int time = 0; time <= END_TIME; time += 7)
+                Assert.assertEquals(handler.read(0, 2,
+                    KernelVariables.LOCATION, time).get(), handler
+                        .readLocation(0, 2, KernelVariables.LOCATION, time));
+        }
+        try {
+            handlers[1].readInt(1, 1, TestVariables.SPEED, 10);
+            Assert.fail("Double SSV read as Integer");
+        } catch (final InvalidTypeException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package mwgrid.middleware.kernel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import mwgrid.middleware.distributedobject.KernelVariables;
+import mwgrid.middleware.distributedobject.Location;
+import mwgrid.middleware.distributedobject.Value;
+import mwgrid.middleware.distributedobject.Variable;
+import mwgrid.middleware.exception.SSVNotFoundException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrentSSVHandlerTest {
+    private static final int THREADS = 8;
+    private static final int OBJECTS = 64;
+    private static final int END_TIME = 300;
+    
+    /**
+     * Variables with IDs that don't fit in 16 bits
+     */
+    private enum WideVariables implements Variable {
+        NEGATIVE(-1), LARGE(1 << 16), LARGEST(Integer.MAX_VALUE);
+        
+        private final int fVariableId;
+        
+        /**
+         * @param pVariableId
+         *            - variable ID
+         */
+        private WideVariables(final int pVariableId) {
+            this.fVariableId = pVariableId;
+        }
+        
+        @Override
+        public Class<?> getType() {
+            return Integer.class;
+        }
+        
+        @Override
+        public int getVariableId() {
+            return this.fVariableId;
+        }
+        
+        @Override
+        public String getName() {
+            return this.name();
+        }
+    }
+    
+    /**
+     * Empty constructor
+     */
+    public ConcurrentSSVHandlerTest() {
+        // Empty constructor
+    }
+    
+    /**
+     * @param pObjectId
+     *            - object ID
+     * @param pTime
+     *            - time
+     * @return (Location) location of the object at the time
+     */
+    private static Location location(final long pObjectId, final int pTime) {
+        return new Location((int) pObjectId % 8 * 5 + pTime % 11,
+                (int) pObjectId / 8 * 5 + pTime % 7);
+    }
+    
+    /**
+     * Add the SSVs of all objects
+     * 
+     * @param pSSVHandler
+     *            - SSV handler
+     * @throws Exception
+     *             - thrown on failure
+     */
+    private static void add(final SSVHandler pSSVHandler) throws Exception {
+        for (long objectId = 1; objectId <= OBJECTS; objectId++) {
+            pSSVHandler.add(objectId, KernelVariables.CLASS,
+                new Value<Integer>(new Integer(0)), 0);
+            pSSVHandler.add(objectId, KernelVariables.LOCATION,
+                new Value<Location>(location(objectId, 0)), 0);
+        }
+    }
+    
+    /**
+     * Writes of one thread. Each thread writes the locations of its own
+     * objects in time order, and the CLASS SSV of every object at the times
+     * assigned to it, so threads write the same SSVs out of time order.
+     * Reads and range queries of other objects are mixed in.
+     * 
+     * @param pSSVHandler
+     *            - SSV handler
+     * @param pThread
+     *            - thread number
+     * @return (int) number of successful writes
+     * @throws Exception
+     *             - thrown on failure
+     */
+    private static int write(final SSVHandler pSSVHandler, final int pThread)
+            throws Exception {
+        int result = 0;
+        for (int time = 1; time <= END_TIME; time++) {
+            for (long objectId = 1 + pThread; objectId <= OBJECTS; objectId +=
+                    THREADS) {
+                if (pSSVHandler.write(objectId, objectId,
+                    KernelVariables.LOCATION, new Value<Location>(location(
+                        objectId, time)), time)) result++;
+                pSSVHandler.rangeQuery(objectId, time - 1, location(objectId,
+                    time), location(objectId + 1, time));
+                pSSVHandler.read(objectId, OBJECTS + 1 - objectId,
+                    KernelVariables.LOCATION, time - 1);
+            }
+            final long objectId = 1 + (time + pThread) % OBJECTS;
+            if (pSSVHandler.writeInt(objectId, objectId,
+                KernelVariables.CLASS, time * THREADS + pThread, END_TIME
+                        + 1 - time)) result++;
+        }
+        return result;
+    }
+    
+    /**
+     * Test writes from many threads give the same reads, range queries and
+     * GVT as the same writes on the single-threaded handler
+     * 
+     * @throws Exception
+     *             - thrown on failure
+     */
+    @Test
+    public void testSameAsSequential() throws Exception {
+        final SSVHandler sequential = new SequentialSSVHandler();
+        final ConcurrentSSVHandler concurrent = new ConcurrentSSVHandler();
+        add(sequential);
+        add(concurrent);
+        int sequentialWrites = 0;
+        for (int thread = 0; thread < THREADS; thread++)
+            sequentialWrites += write(sequential, thread);
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        try {
+            for (int thread = 0; thread < THREADS; thread++) {
+                final int threadNumber = thread;
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        return new Integer(write(concurrent, threadNumber));
+                    }
+                }));
+            }
+            start.countDown();
+            int concurrentWrites = 0;
+            for (final Future<Integer> future : futures)
+                concurrentWrites += future.get().intValue();
+            Assert.assertEquals(sequentialWrites, concurrentWrites);
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(sequential.getHistorySize(), concurrent
+                .getHistorySize());
+        for (long objectId = 1; objectId <= OBJECTS; objectId++) {
+            sequential.setGVTTime(objectId, END_TIME - (int) objectId);
+            concurrent.setGVTTime(objectId, END_TIME - (int) objectId);
+        }
+        Assert.assertEquals(sequential.getGVTTime(), concurrent.getGVTTime());
+        for (int pass = 0; pass < 2; pass++) {
+            for (int time = 0; time <= END_TIME; time += 3) {
+                if (pass == 1 && time < concurrent.getGVTTime()) continue;
+                for (long objectId = 1; objectId <= OBJECTS; objectId++) {
+                    Assert.assertEquals(sequential.read(0, objectId,
+                        KernelVariables.LOCATION, time).get(), concurrent
+                            .read(0, objectId, KernelVariables.LOCATION, time)
+                            .get());
+                    Assert.assertEquals(sequential.readInt(0, objectId,
+                        KernelVariables.CLASS, time), concurrent.readInt(0,
+                        objectId, KernelVariables.CLASS, time));
+                }
+                Assert.assertEquals(sequential.rangeQuery(0, time,
+                    new Location(0, 0), new Location(20, 20)), concurrent
+                        .rangeQuery(0, time, new Location(0, 0),
+                            new Location(20, 20)));
+            }
+            // Compare again after fossil collection
+            sequential.cleanToGVT(sequential.getGVTTime());
+            concurrent.cleanToGVT(concurrent.getGVTTime());
+            Assert.assertEquals(sequential.getHistorySize(), concurrent
+                    .getHistorySize());
+        }
+    }
+    
+    /**
+     * Test removing the SSVs of objects only removes theirs
+     * 
+     * @throws Exception
+     *             - thrown on failure
+     */
+    @Test
+    public void testRemoveVariables() throws Exception {
+        final SSVHandler[] handlers =
+                new SSVHandler[] { new SequentialSSVHandler(),
+                        new ConcurrentSSVHandler() };
+        for (final SSVHandler handler : handlers) {
+            add(handler);
+            for (long objectId = 1; objectId <= OBJECTS; objectId += 2)
+                handler.removeVariables(objectId);
+            // Removing twice does nothing
+            handler.removeVariables(1);
+            Assert.assertEquals(OBJECTS, handler.getHistorySize());
+            for (long objectId = 1; objectId <= OBJECTS; objectId++) {
+                try {
+                    handler.read(0, objectId, KernelVariables.CLASS, 0);
+                    Assert.assertEquals(0, objectId % 2);
+                } catch (final SSVNotFoundException e) {
+                    Assert.assertEquals(1, objectId % 2);
+                }
+            }
+            Assert.assertEquals(OBJECTS / 2, handler.rangeQuery(0, 0,
+                new Location(-100, -100), new Location(100, 100)).size());
+        }
+    }
+    
+    /**
+     * Test SSVs of variables with any ID can be added, written and read
+     * 
+     * @throws Exception
+     *             - thrown on failure
+     */
+    @Test
+    public void testWideVariableIds() throws Exception {
+        final SSVHandler[] handlers =
+                new SSVHandler[] { new SequentialSSVHandler(),
+                        new ConcurrentSSVHandler() };
+        for (final SSVHandler handler : handlers) {
+            for (final WideVariables variable : WideVariables.values())
+                Assert.assertTrue(handler.add(Identifier.MAX_OBJECT_ID,
+                    variable, new Value<Integer>(new Integer(0)), 0));
+            for (final WideVariables variable : WideVariables.values())
+                Assert.assertTrue(handler.writeInt(0, Identifier.MAX_OBJECT_ID,
+                    variable, variable.getVariableId(), 1));
+            for (final WideVariables variable : WideVariables.values())
+                Assert.assertEquals(variable.getVariableId(), handler.readInt(
+                    0, Identifier.MAX_OBJECT_ID, variable, 1));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package mwgrid.middleware.kernel;
+
+import java.util.Random;
+
+import mwgrid.middleware.distributedobject.KernelVariables;
+import mwgrid.middleware.distributedobject.Value;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IncrementalVariableMapTest {
+    private static final int STEPS = 5000;
+    
+    /**
+     * Empty constructor
+     */
+    public IncrementalVariableMapTest() {
+        // Empty constructor
+    }
+    
+    /**
+     * Test random writes, rollbacks and fossil collections give the same
+     * values in incremental mode as when saving every value
+     */
+    @Test
+    public void testSameAsSnapshots() {
+        final Random random = new Random(1);
+        final KernelVariables[] variables = KernelVariables.values();
+        final PrivateVariableMap snapshots = new PrivateVariableMap();
+        final PrivateVariableMap incremental = new PrivateVariableMap(true);
+        final Value<Integer> initialValue = new Value<Integer>(new Integer(0));
+        for (final KernelVariables variable : variables) {
+            snapshots.add(variable, initialValue, 0);
+            incremental.add(variable, initialValue, 0);
+        }
+        int time = 0;
+        int globalVariableTime = 0;
+        for (int step = 0; step < STEPS; step++) {
+            final int action = random.nextInt(20);
+            if (action == 0 && time > globalVariableTime) {
+                time = globalVariableTime + random.nextInt(time
+                        - globalVariableTime);
+                snapshots.removeMoreThan(time);
+                incremental.removeMoreThan(time);
+            } else if (action == 1) {
+                globalVariableTime += random.nextInt(time
+                        - globalVariableTime + 1);
+                snapshots.removeLessThan(globalVariableTime);
+                incremental.removeLessThan(globalVariableTime);
+            } else {
+                time++;
+                for (final KernelVariables variable : variables) {
+                    if (random.nextInt(3) != 0) continue;
+                    final Value<Integer> value =
+                            new Value<Integer>(new Integer(step));
+                    snapshots.set(variable, value, time);
+                    incremental.set(variable, value, time);
+                }
+            }
+            for (final KernelVariables variable : variables)
+                for (int readTime = globalVariableTime; readTime <= time; readTime++)
+                    Assert.assertSame(snapshots.get(variable, readTime),
+                        incremental.get(variable, readTime));
+        }
+        Assert.assertTrue(incremental.getHistorySize() <= snapshots
+                .getHistorySize());
+    }
+    
+    /**
+     * Test writing a variable again in the same time step logs nothing
+     */
+    @Test
+    public void testSameTimeWrites() {
+        final PrivateVariableMap incremental = new PrivateVariableMap(true);
+        incremental.add(KernelVariables.PREVIOUS, new Value<Integer>(
+                new Integer(0)), 0);
+        for (int write = 1; write <= 10; write++)
+            incremental.set(KernelVariables.PREVIOUS, new Value<Integer>(
+                    new Integer(write)), 1);
+        Assert.assertEquals(2, incremental.getHistorySize());
+        Assert.assertEquals(new Integer(10), incremental.get(
+            KernelVariables.PREVIOUS, 1).get());
+        incremental.removeMoreThan(0);
+        Assert.assertEquals(new Integer(0), incremental.get(
+            KernelVariables.PREVIOUS, 0).get());
+        Assert.assertEquals(1, incremental.getHistorySize());
+    }
+}
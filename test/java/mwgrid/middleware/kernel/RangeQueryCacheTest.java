@@ -0,0 +1,113 @@
+package mwgrid.middleware.kernel;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import mwgrid.middleware.distributedobject.KernelVariables;
+import mwgrid.middleware.distributedobject.Location;
+import mwgrid.middleware.distributedobject.Value;
+import mwgrid.middleware.exception.SSVNotFoundException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RangeQueryCacheTest {
+    private static final int OBJECTS = 40;
+    private static final int END_TIME = 30;
+    
+    /**
+     * Empty constructor
+     */
+    public RangeQueryCacheTest() {
+        // Empty constructor
+    }
+    
+    /**
+     * @param pObjectId
+     *            - object ID
+     * @param pTime
+     *            - time
+     * @return (Location) location of the object at the time
+     */
+    private static Location location(final long pObjectId, final int pTime) {
+        return new Location((int) pObjectId % 8 * 3 + pTime % 5,
+                (int) pObjectId / 8 * 3 - pTime % 4);
+    }
+    
+    /**
+     * @param pSSVHandler
+     *            - SSV handler
+     * @param pTime
+     *            - time
+     * @param pStartLocation
+     *            - start location
+     * @param pEndLocation
+     *            - end location
+     * @return (Map<Long, Location>) range query reading every object
+     * @throws Exception
+     *             - thrown on failure
+     */
+    private static Map<Long, Location> scan(final SSVHandler pSSVHandler,
+            final int pTime, final Location pStartLocation,
+            final Location pEndLocation) throws Exception {
+        final Map<Long, Location> result = new HashMap<Long, Location>();
+        for (long objectId = 0; objectId < OBJECTS; objectId++) {
+            try {
+                final Location location =
+                        pSSVHandler.readLocation(0, objectId,
+                            KernelVariables.LOCATION, pTime);
+                if (location.in(pStartLocation, pEndLocation))
+                    result.put(new Long(objectId), location);
+            } catch (final SSVNotFoundException e) {
+                // Removed object
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Test cached range queries against reading every object, while objects
+     * move, write into the past and are removed
+     * 
+     * @throws Exception
+     *             - thrown on failure
+     */
+    @Test
+    public void testSameAsScan() throws Exception {
+        final SequentialSSVHandler ssvHandler = new SequentialSSVHandler(4);
+        for (long objectId = 0; objectId < OBJECTS; objectId++)
+            ssvHandler.add(objectId, KernelVariables.LOCATION,
+                new Value<Location>(location(objectId, 0)), 0);
+        for (int time = 1; time <= END_TIME; time++) {
+            for (long objectId = 0; objectId < OBJECTS; objectId++) {
+                // Each object queries its neighbourhood a step back
+                final Location location = location(objectId, time - 1);
+                final Location start =
+                        new Location(location.getX() - 3, location.getY() - 3);
+                final Location end =
+                        new Location(location.getX() + 3, location.getY() + 3);
+                Assert.assertEquals(scan(ssvHandler, time - 1, start, end),
+                    ssvHandler.rangeQuery(objectId, time - 1, start, end));
+                if (objectId % 3 != 0)
+                    ssvHandler.write(objectId, objectId,
+                        KernelVariables.LOCATION, new Value<Location>(
+                            location(objectId, time)), time);
+            }
+            // Objects left behind catch up, writing into queried times
+            if (time % 5 == 0)
+                for (long objectId = 0; objectId < OBJECTS - 1; objectId += 3)
+                    for (int past = time - 4; past <= time; past++)
+                        ssvHandler.write(objectId, objectId,
+                            KernelVariables.LOCATION, new Value<Location>(
+                                location(objectId, past)), past);
+            // The last object, not caught up, is removed half way
+            if (time == END_TIME / 2) ssvHandler.removeVariables(OBJECTS - 1);
+            for (int past = Math.max(0, time - 5); past <= time; past++)
+                Assert.assertEquals(scan(ssvHandler, past, new Location(-10,
+                    -10), new Location(10, 10)), ssvHandler.rangeQuery(0,
+                    past, new Location(-10, -10), new Location(10, 10)));
+        }
+        Assert.assertTrue(ssvHandler.getRangeQueryHits() > 0);
+        Assert.assertTrue(ssvHandler.getRangeQueryMisses() > 0);
+    }
+}
@@ -0,0 +1,127 @@
+package mwgrid.middleware.kernel;
+
+import mwgrid.middleware.distributedobject.KernelVariables;
+import mwgrid.middleware.distributedobject.Value;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SavedStateVariableTest {
+    /**
+     * Empty constructor
+     */
+    public SavedStateVariableTest() {
+        // Empty constructor
+    }
+    
+    /**
+     * @param pValue
+     *            - value
+     * @return (Value<Integer>) value
+     */
+    private static Value<Integer> value(final int pValue) {
+        return new Value<Integer>(new Integer(pValue));
+    }
+    
+    /**
+     * Test reads return the last write at or before the time
+     */
+    @Test
+    public void testRead() {
+        final SavedStateVariable savedStateVariable =
+                new SavedStateVariable(new Identifier(1,
+                        KernelVariables.CLASS), value(0), 0);
+        Assert.assertTrue(savedStateVariable.write(5, value(5)));
+        Assert.assertTrue(savedStateVariable.write(10, value(10)));
+        Assert.assertEquals(new Integer(0), savedStateVariable.read(0).get());
+        Assert.assertEquals(new Integer(0), savedStateVariable.read(4).get());
+        Assert.assertEquals(new Integer(5), savedStateVariable.read(5).get());
+        Assert.assertEquals(new Integer(5), savedStateVariable.read(9).get());
+        Assert.assertEquals(new Integer(10), savedStateVariable.read(10)
+                .get());
+        Assert.assertEquals(new Integer(10), savedStateVariable.read(100)
+                .get());
+    }
+    
+    /**
+     * Test writes out of time order and for a time already written
+     */
+    @Test
+    public void testWrite() {
+        final SavedStateVariable savedStateVariable =
+                new SavedStateVariable(new Identifier(1,
+                        KernelVariables.CLASS), value(0), 0);
+        for (int time = 20; time > 0; time -= 2)
+            Assert.assertTrue(savedStateVariable.write(time, value(time)));
+        Assert.assertFalse(savedStateVariable.write(10, value(-1)));
+        Assert.assertEquals(11, savedStateVariable.size());
+        for (int time = 0; time <= 20; time++)
+            Assert.assertEquals(new Integer(time - time % 2),
+                savedStateVariable.read(time).get());
+    }
+    
+    /**
+     * Test fossil collection keeps the last write at or before the GVT
+     */
+    @Test
+    public void testRemoveLessThan() {
+        final SavedStateVariable savedStateVariable =
+                new SavedStateVariable(new Identifier(1,
+                        KernelVariables.CLASS), value(0), 0);
+        for (int time = 2; time <= 20; time += 2)
+            savedStateVariable.write(time, value(time));
+        Assert.assertTrue(savedStateVariable.removeLessThan(15) > 0);
+        Assert.assertEquals(4, savedStateVariable.size());
+        Assert.assertEquals(new Integer(14), savedStateVariable.read(15)
+                .get());
+        Assert.assertEquals(new Integer(20), savedStateVariable.read(20)
+                .get());
+        // Nothing left to collect
+        Assert.assertEquals(0, savedStateVariable.removeLessThan(15));
+        // Before the collected time only the committed value is left
+        Assert.assertEquals(new Integer(14), savedStateVariable.read(3)
+                .get());
+    }
+    
+    /**
+     * Test typed writes mixed with value writes, out of time order and
+     * through fossil collection, read typed and as values
+     */
+    @Test
+    public void testWriteInt() {
+        final SavedStateVariable savedStateVariable =
+                new SavedStateVariable(new Identifier(1,
+                        KernelVariables.CLASS), value(0), 0);
+        for (int time = 20; time > 0; time -= 2) {
+            if (time % 4 == 0)
+                Assert.assertTrue(savedStateVariable.writeInt(time, time));
+            else
+                Assert.assertTrue(savedStateVariable.write(time, value(time)));
+        }
+        Assert.assertFalse(savedStateVariable.writeInt(12, -1));
+        Assert.assertFalse(savedStateVariable.write(8, value(-1)));
+        for (int time = 0; time <= 20; time++) {
+            Assert.assertEquals(time - time % 2, savedStateVariable
+                    .readInt(time));
+            Assert.assertEquals(new Integer(time - time % 2),
+                savedStateVariable.read(time).get());
+        }
+        Assert.assertTrue(savedStateVariable.removeLessThan(13) > 0);
+        Assert.assertEquals(5, savedStateVariable.size());
+        Assert.assertEquals(12, savedStateVariable.readInt(3));
+        Assert.assertEquals(12, savedStateVariable.readInt(13));
+        Assert.assertEquals(new Integer(20), savedStateVariable.read(20)
+                .get());
+    }
+    
+    /**
+     * Test reading before the initial time
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadBeforeInitialTime() {
+        final SavedStateVariable savedStateVariable =
+                new SavedStateVariable(new Identifier(1,
+                        KernelVariables.CLASS), value(0), 5);
+        savedStateVariable.read(4);
+    }
+}
@@ -1,5 +1,12 @@
 package mwgrid.middleware.kernel;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import mwgrid.middleware.distributedobject.DistributedObject;
 import mwgrid.middleware.exception.RollbackException;
 import mwgrid.middleware.exception.SchedulerException;
@@ -10,6 +17,7 @@ import org.junit.Test;
 public final class SchedulerTest {
     private static final int WAIT_PERIOD = 1000;
     private static final int CLASS_ID = 0;
+    private static final int BLOCKED_STEP_PERIOD = 5;
     
     public class StubSchedulerListener implements SchedulerListener {
         private int fSchedulerListenerCalls;
@@ -74,6 +82,7 @@ public final class SchedulerTest {
         private int fDistributedObjectCalls;
         private final int fInterval;
         private int fDistributedObjectsCreated;
+        private int fReportCalls;
         
         /**
          * @param pClassId
@@ -99,9 +108,17 @@ public final class SchedulerTest {
         
         @Override
         public String report() {
+            this.fReportCalls++;
             return "";
         }
         
+        /**
+         * @return (int) report calls
+         */
+        public int getReportCalls() {
+            return this.fReportCalls;
+        }
+        
         /**
          * @return (int) distributed object calls
          */
@@ -117,6 +134,135 @@ public final class SchedulerTest {
         }
     }
     
+    public class ThreadRecordingDistributedObject extends DistributedObject {
+        private final Set<Thread> fStepThreads;
+        
+        /**
+         * @param pClassId
+         *            - class ID
+         * @param pStepThreads
+         *            - threads the distributed objects were stepped on
+         */
+        protected ThreadRecordingDistributedObject(final int pClassId,
+                final Set<Thread> pStepThreads) {
+            super(pClassId);
+            this.fStepThreads = pStepThreads;
+        }
+        
+        @Override
+        public void step() {
+            this.fStepThreads.add(Thread.currentThread());
+            // Block like a remote read, so an unbounded pool would grow
+            try {
+                Thread.sleep(SchedulerTest.BLOCKED_STEP_PERIOD);
+            } catch (final InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        
+        @Override
+        public String report() {
+            return "";
+        }
+    }
+    
+    public class OverlapRecordingDistributedObject extends DistributedObject {
+        private final AtomicInteger fActiveSteps;
+        private final AtomicInteger fMostActiveSteps;
+        private final Set<Thread> fStepThreads;
+        
+        /**
+         * @param pClassId
+         *            - class ID
+         * @param pActiveSteps
+         *            - number of steps running
+         * @param pMostActiveSteps
+         *            - most steps seen running at once
+         * @param pStepThreads
+         *            - threads the distributed objects were stepped on
+         */
+        protected OverlapRecordingDistributedObject(final int pClassId,
+                final AtomicInteger pActiveSteps,
+                final AtomicInteger pMostActiveSteps,
+                final Set<Thread> pStepThreads) {
+            super(pClassId);
+            this.fActiveSteps = pActiveSteps;
+            this.fMostActiveSteps = pMostActiveSteps;
+            this.fStepThreads = pStepThreads;
+        }
+        
+        @Override
+        public void step() {
+            this.fStepThreads.add(Thread.currentThread());
+            final int activeSteps = this.fActiveSteps.incrementAndGet();
+            int mostActiveSteps = this.fMostActiveSteps.get();
+            while (activeSteps > mostActiveSteps
+                    && !this.fMostActiveSteps.compareAndSet(mostActiveSteps,
+                        activeSteps))
+                mostActiveSteps = this.fMostActiveSteps.get();
+            // Block, so the other workers take the remaining steps
+            try {
+                Thread.sleep(SchedulerTest.BLOCKED_STEP_PERIOD);
+            } catch (final InterruptedException e) {
+                e.printStackTrace();
+            } finally {
+                this.fActiveSteps.decrementAndGet();
+            }
+        }
+        
+        @Override
+        public String report() {
+            return "";
+        }
+    }
+    
+    public class LeadRecordingDistributedObject extends DistributedObject {
+        private final List<DistributedObject> fDistributedObjects;
+        private int fDistributedObjectCalls;
+        private int fLargestLead;
+        
+        /**
+         * @param pClassId
+         *            - class ID
+         * @param pDistributedObjects
+         *            - distributed objects to compare the time with
+         */
+        protected LeadRecordingDistributedObject(final int pClassId,
+                final List<DistributedObject> pDistributedObjects) {
+            super(pClassId);
+            this.fDistributedObjects = pDistributedObjects;
+        }
+        
+        @Override
+        public void step() {
+            this.fDistributedObjectCalls++;
+            for (final DistributedObject distributedObject : this.fDistributedObjects)
+                this.fLargestLead =
+                        Math.max(this.fLargestLead, this.getTime()
+                                - distributedObject.getTime());
+        }
+        
+        @Override
+        public String report() {
+            return "";
+        }
+        
+        /**
+         * @return (int) distributed object calls
+         */
+        public int getDistributedObjectCalls() {
+            return this.fDistributedObjectCalls;
+        }
+        
+        /**
+         * @return (int) largest number of time steps this object was ahead
+         *         of another when it stepped
+         */
+        public int getLargestLead() {
+            return this.fLargestLead;
+        }
+    }
+    
     /**
      * Public constructor
      */
@@ -333,6 +479,201 @@ public final class SchedulerTest {
 //        Assert.assertTrue(distributedObject.getDistributedObjectCalls() > 0);
 //    }
     
+    /**
+     * Test stepping distributed objects on a fork-join pool, with the steps
+     * of a pass running on more than one worker at once
+     */
+    @Test
+    public void testParallelStepping() {
+        final StubSchedulerListener schedulerListener =
+                new StubSchedulerListener();
+        Kernel.getSequentionalInstance(schedulerListener, 10, 4);
+        Assert.assertEquals(4, Kernel.getScheduler().getStepParallelism());
+        Assert.assertTrue(
+            Kernel.getSSVHandler() instanceof ConcurrentSSVHandler);
+        final AtomicInteger activeSteps = new AtomicInteger(0);
+        final AtomicInteger mostActiveSteps = new AtomicInteger(0);
+        final Set<Thread> stepThreads =
+                Collections.synchronizedSet(new HashSet<Thread>());
+        final int objects = 16;
+        for (int index = 0; index < objects; index++)
+            new OverlapRecordingDistributedObject(SchedulerTest.CLASS_ID,
+                    activeSteps, mostActiveSteps, stepThreads);
+        Kernel.startSimulation();
+        while (Kernel.isSimulationAlive())
+            continue;
+        Assert.assertEquals(10 * objects,
+            schedulerListener.getSchedulerListenerCalls());
+        Assert.assertTrue(stepThreads.size() > 1);
+        Assert.assertTrue(mostActiveSteps.get() > 1);
+    }
+    
+    /**
+     * Test stepping each distributed object on a thread of its own
+     */
+    @Test
+    public void testObjectThreads() {
+        final StubSchedulerListener schedulerListener =
+                new StubSchedulerListener();
+        Kernel.getSequentionalInstance(schedulerListener, 10);
+        Kernel.getScheduler().setObjectThreads(
+            Scheduler.ObjectThreads.VIRTUAL);
+        Assert.assertNotSame(Scheduler.ObjectThreads.NONE, Kernel
+                .getScheduler().getObjectThreads());
+        final DistributedObjectCreatesOthers[] distributedObjects =
+                new DistributedObjectCreatesOthers[16];
+        for (int index = 0; index < distributedObjects.length; index++)
+            distributedObjects[index] =
+                    new DistributedObjectCreatesOthers(
+                            SchedulerTest.CLASS_ID, Integer.MAX_VALUE);
+        Kernel.startSimulation();
+        while (Kernel.isSimulationAlive())
+            continue;
+        for (final DistributedObjectCreatesOthers distributedObject : distributedObjects)
+            Assert.assertEquals(10,
+                distributedObject.getDistributedObjectCalls());
+        Assert.assertEquals(10 * distributedObjects.length,
+            schedulerListener.getSchedulerListenerCalls());
+    }
+    
+    /**
+     * Test many distributed objects are stepped on no more threads than the
+     * object thread limit
+     */
+    @Test
+    public void testObjectThreadLimit() {
+        final StubSchedulerListener schedulerListener =
+                new StubSchedulerListener();
+        Kernel.getSequentionalInstance(schedulerListener, 5);
+        Kernel.getScheduler().setObjectThreads(
+            Scheduler.ObjectThreads.PLATFORM, 4);
+        Assert.assertEquals(4, Kernel.getScheduler().getObjectThreadLimit());
+        final Set<Thread> stepThreads =
+                Collections.synchronizedSet(new HashSet<Thread>());
+        final int objects = 200;
+        for (int index = 0; index < objects; index++)
+            new ThreadRecordingDistributedObject(SchedulerTest.CLASS_ID,
+                    stepThreads);
+        Kernel.startSimulation();
+        while (Kernel.isSimulationAlive())
+            continue;
+        Assert.assertEquals(5 * objects,
+            schedulerListener.getSchedulerListenerCalls());
+        Assert.assertTrue(stepThreads.size() <= 4);
+    }
+    
+    /**
+     * Test every listener gets the report of a single report call
+     */
+    @Test
+    public void testReportOncePerListeners() {
+        final StubSchedulerListener firstListener =
+                new StubSchedulerListener();
+        final StubSchedulerListener secondListener =
+                new StubSchedulerListener();
+        Kernel.getSequentionalInstance(firstListener, 10);
+        Kernel.getScheduler().registerSchedulerListener(secondListener);
+        final DistributedObjectCreatesOthers distributedObject =
+                new DistributedObjectCreatesOthers(SchedulerTest.CLASS_ID,
+                        Integer.MAX_VALUE);
+        Kernel.startSimulation();
+        while (Kernel.isSimulationAlive())
+            continue;
+        Assert.assertEquals(10, distributedObject.getReportCalls());
+        Assert.assertEquals(10, firstListener.getSchedulerListenerCalls());
+        Assert.assertEquals(10, secondListener.getSchedulerListenerCalls());
+    }
+    
+    /**
+     * Test stepping the distributed objects with the lowest time first
+     */
+    @Test
+    public void testLowestTimestampFirst() {
+        final StubSchedulerListener schedulerListener =
+                new StubSchedulerListener();
+        Kernel.getSequentionalInstance(schedulerListener, 10);
+        Kernel.getScheduler().setSchedulingPolicy(
+            Scheduler.SchedulingPolicy.LOWEST_TIMESTAMP_FIRST);
+        final List<DistributedObject> distributedObjects =
+                new ArrayList<DistributedObject>();
+        final LeadRecordingDistributedObject first =
+                new LeadRecordingDistributedObject(SchedulerTest.CLASS_ID,
+                        distributedObjects);
+        final LeadRecordingDistributedObject second =
+                new LeadRecordingDistributedObject(SchedulerTest.CLASS_ID,
+                        distributedObjects);
+        distributedObjects.add(first);
+        distributedObjects.add(second);
+        // Put the second object ahead, it has to wait for the first
+        second.increaseTime();
+        second.increaseTime();
+        Kernel.startSimulation();
+        while (Kernel.isSimulationAlive())
+            continue;
+        Assert.assertEquals(10, first.getDistributedObjectCalls());
+        Assert.assertEquals(8, second.getDistributedObjectCalls());
+        Assert.assertEquals(18, schedulerListener.getSchedulerListenerCalls());
+        // An object steps at the lowest time only, so when it steps no
+        // object is more than the one step it just took behind it
+        Assert.assertTrue(first.getLargestLead() <= 1);
+        Assert.assertTrue(second.getLargestLead() <= 1);
+    }
+    
+    /**
+     * Test objects ahead of the optimism window wait for the GVT
+     */
+    @Test
+    public void testOptimismWindow() {
+        final StubSchedulerListener schedulerListener =
+                new StubSchedulerListener();
+        Kernel.getSequentionalInstance(schedulerListener, 10);
+        final OptimismWindow optimismWindow = new OptimismWindow(1);
+        Kernel.getScheduler().setOptimismWindow(optimismWindow);
+        final DistributedObjectCreatesOthers first =
+                new DistributedObjectCreatesOthers(SchedulerTest.CLASS_ID,
+                        Integer.MAX_VALUE);
+        final DistributedObjectCreatesOthers second =
+                new DistributedObjectCreatesOthers(SchedulerTest.CLASS_ID,
+                        Integer.MAX_VALUE);
+        // Put the second object outside the window
+        second.increaseTime();
+        second.increaseTime();
+        Kernel.startSimulation();
+        while (Kernel.isSimulationAlive())
+            continue;
+        Assert.assertEquals(10, first.getDistributedObjectCalls());
+        Assert.assertEquals(8, second.getDistributedObjectCalls());
+        Assert.assertEquals(18, schedulerListener.getSchedulerListenerCalls());
+        Assert.assertTrue(optimismWindow.getBlocked() > 0);
+    }
+    
+    /**
+     * Test the GVT interval adapts to history size and roll-back rate
+     */
+    @Test
+    public void testGVTControllerInterval() {
+        final GVTController controller = new GVTController(4);
+        controller.setHistoryTarget(10);
+        // Little history and no roll-backs, due after 4 passes
+        for (int i = 0; i < 3; i++)
+            Assert.assertFalse(controller.isGVTDue(10, 10, 10, 0, 5, 0));
+        Assert.assertTrue(controller.isGVTDue(10, 10, 10, 0, 5, 0));
+        Assert.assertEquals(5, controller.getInterval());
+        // History above target halves the interval
+        for (int i = 0; i < 4; i++)
+            Assert.assertFalse(controller.isGVTDue(150, 10, 10, 0, 5, 0));
+        Assert.assertTrue(controller.isGVTDue(150, 10, 10, 0, 5, 0));
+        Assert.assertEquals(2, controller.getInterval());
+        // History above twice the target triggers straight away
+        Assert.assertTrue(controller.isGVTDue(250, 10, 10, 0, 5, 0));
+        Assert.assertEquals(1, controller.getInterval());
+        // Roll-backs above target lengthen the interval
+        Assert.assertTrue(controller.isGVTDue(50, 10, 10, 5, 5, 0));
+        Assert.assertEquals(0.5, controller.getRollbackRate(), 0.0);
+        Assert.assertEquals(2, controller.getInterval());
+        Assert.assertEquals(4, controller.getGVTMessages());
+    }
+    
     /**
      * Test start simulation and have one distributed object create others
      */
@@ -0,0 +1,106 @@
+package mwgrid.middleware.kernel;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import mwgrid.middleware.distributedobject.KernelVariables;
+import mwgrid.middleware.distributedobject.Location;
+import mwgrid.middleware.distributedobject.Value;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SpatialIndexTest {
+    private static final int OBJECTS = 20;
+    private static final int END_TIME = 50;
+    
+    /**
+     * Empty constructor
+     */
+    public SpatialIndexTest() {
+        // Empty constructor
+    }
+    
+    /**
+     * @param pObjectId
+     *            - object ID
+     * @param pTime
+     *            - time
+     * @return (Location) location of the object at the time
+     */
+    private static Location location(final long pObjectId, final int pTime) {
+        return new Location((int) pObjectId * 3 - 30 + pTime % 5,
+                (int) (pObjectId % 4) * 5 - pTime / 3);
+    }
+    
+    /**
+     * @param pSSVs
+     *            - LOCATION SSVs
+     * @param pTime
+     *            - time
+     * @param pStartLocation
+     *            - start location
+     * @param pEndLocation
+     *            - end location
+     * @return (Map<Long, Location>) range query over all SSVs
+     */
+    private static Map<Long, Location> scan(final SavedStateVariable[] pSSVs,
+            final int pTime, final Location pStartLocation,
+            final Location pEndLocation) {
+        final Map<Long, Location> result = new HashMap<Long, Location>();
+        for (final SavedStateVariable savedStateVariable : pSSVs) {
+            final Location location =
+                    (Location) savedStateVariable.read(pTime).get();
+            if (location.in(pStartLocation, pEndLocation))
+                result.put(new Long(savedStateVariable.getIdentifier()
+                        .getObjectId()), location);
+        }
+        return result;
+    }
+    
+    /**
+     * Test range queries at past times against a scan over all SSVs, before
+     * and after pruning
+     */
+    @Test
+    public void testRangeQuery() {
+        final SpatialIndex spatialIndex = new SpatialIndex(4);
+        final SavedStateVariable[] ssvs = new SavedStateVariable[OBJECTS];
+        for (int objectId = 0; objectId < OBJECTS; objectId++) {
+            ssvs[objectId] =
+                    new SavedStateVariable(new Identifier(objectId,
+                            KernelVariables.LOCATION), new Value<Location>(
+                            location(objectId, 0)), 0);
+            spatialIndex.add(ssvs[objectId], location(objectId, 0));
+        }
+        for (int time = 1; time <= END_TIME; time++)
+            for (int objectId = 0; objectId < OBJECTS; objectId++) {
+                ssvs[objectId].write(time, new Value<Location>(location(
+                    objectId, time)));
+                spatialIndex.add(ssvs[objectId], location(objectId, time));
+            }
+        final Location[][] ranges =
+                new Location[][] {
+                        { new Location(-1, -1), new Location(1, 1) },
+                        { new Location(5, -10), new Location(-5, 3) },
+                        { new Location(-1000, -1000),
+                                new Location(1000, 1000) } };
+        for (final Location[] range : ranges)
+            for (int time = 0; time <= END_TIME; time++)
+                Assert.assertEquals(scan(ssvs, time, range[0], range[1]),
+                    spatialIndex.rangeQuery(time, range[0], range[1]));
+        final int cells = spatialIndex.getCellCount();
+        for (final SavedStateVariable savedStateVariable : ssvs) {
+            savedStateVariable.removeLessThan(40);
+            spatialIndex.prune(savedStateVariable);
+        }
+        Assert.assertTrue(spatialIndex.getCellCount() < cells);
+        for (final Location[] range : ranges)
+            for (int time = 40; time <= END_TIME; time++)
+                Assert.assertEquals(scan(ssvs, time, range[0], range[1]),
+                    spatialIndex.rangeQuery(time, range[0], range[1]));
+        spatialIndex.remove(ssvs[0]);
+        Assert.assertFalse(spatialIndex.rangeQuery(END_TIME, ranges[2][0],
+            ranges[2][1]).containsKey(new Long(0)));
+    }
+}
@@ -0,0 +1,65 @@
+package mwgrid.middleware.kernel;
+
+import mwgrid.middleware.distributedobject.Value;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TimeValueMapTest {
+    /**
+     * Empty constructor
+     */
+    public TimeValueMapTest() {
+        // Empty constructor
+    }
+    
+    /**
+     * @param pValue
+     *            - value
+     * @return (Value<Integer>) value
+     */
+    private static Value<Integer> value(final int pValue) {
+        return new Value<Integer>(new Integer(pValue));
+    }
+    
+    /**
+     * Test gets return the value at the last time at or before the time
+     */
+    @Test
+    public void testGet() {
+        final TimeValueMap timeValueMap = new TimeValueMap(2, value(2));
+        timeValueMap.set(8, value(8));
+        // Out of time order
+        timeValueMap.set(5, value(5));
+        Assert.assertEquals(3, timeValueMap.size());
+        Assert.assertNull(timeValueMap.get(1));
+        Assert.assertEquals(new Integer(2), timeValueMap.get(2).get());
+        Assert.assertEquals(new Integer(2), timeValueMap.get(4).get());
+        Assert.assertEquals(new Integer(5), timeValueMap.get(7).get());
+        Assert.assertEquals(new Integer(8), timeValueMap.get(100).get());
+    }
+    
+    /**
+     * Test rollback removes the values after the time and fossil collection
+     * moves the last value before the GVT to the GVT
+     */
+    @Test
+    public void testRemove() {
+        final TimeValueMap timeValueMap = new TimeValueMap(0, value(0));
+        for (int time = 3; time <= 30; time += 3)
+            timeValueMap.set(time, value(time));
+        timeValueMap.removeMoreThan(20);
+        Assert.assertEquals(7, timeValueMap.size());
+        Assert.assertEquals(new Integer(18), timeValueMap.get(25).get());
+        timeValueMap.set(21, value(-21));
+        timeValueMap.removeLessThan(10);
+        Assert.assertEquals(5, timeValueMap.size());
+        Assert.assertNull(timeValueMap.get(9));
+        Assert.assertEquals(new Integer(9), timeValueMap.get(10).get());
+        Assert.assertEquals(new Integer(9), timeValueMap.get(11).get());
+        Assert.assertEquals(new Integer(-21), timeValueMap.get(21).get());
+        // Collecting again to an earlier GVT does nothing
+        timeValueMap.removeLessThan(5);
+        Assert.assertEquals(5, timeValueMap.size());
+    }
+}
@@ -0,0 +1,110 @@
+package mwgrid.middleware.kernel;
+
+import mwgrid.middleware.distributedobject.KernelVariables;
+import mwgrid.middleware.distributedobject.Variable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VariableArrayMapTest {
+    /**
+     * Variables with the same IDs as the kernel variables
+     */
+    private enum OtherVariables implements Variable {
+        FIRST, SECOND, THIRD, FOURTH;
+        
+        @Override
+        public Class<?> getType() {
+            return Integer.class;
+        }
+        
+        @Override
+        public int getVariableId() {
+            return this.ordinal() + 1;
+        }
+        
+        @Override
+        public String getName() {
+            return this.name();
+        }
+    }
+    
+    /**
+     * Variables with IDs far apart
+     */
+    private enum SparseVariables implements Variable {
+        FIRST, SECOND, THIRD;
+        
+        @Override
+        public Class<?> getType() {
+            return Integer.class;
+        }
+        
+        @Override
+        public int getVariableId() {
+            return 100000 * (this.ordinal() + 1);
+        }
+        
+        @Override
+        public String getName() {
+            return this.name();
+        }
+    }
+    
+    /**
+     * Empty constructor
+     */
+    public VariableArrayMapTest() {
+        // Empty constructor
+    }
+    
+    /**
+     * Test values are found by their variable only
+     */
+    @Test
+    public void testGetAndPut() {
+        final VariableArrayMap<String> map = new VariableArrayMap<String>();
+        Assert.assertNull(map.get(KernelVariables.PREVIOUS));
+        map.put(KernelVariables.PREVIOUS, "previous");
+        map.put(OtherVariables.FIRST, "first");
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals("previous", map.get(KernelVariables.PREVIOUS));
+        Assert.assertEquals("first", map.get(OtherVariables.FIRST));
+        // Same ID as PREVIOUS, but another variable
+        Assert.assertNull(map.get(OtherVariables.FOURTH));
+        Assert.assertNull(map.get(KernelVariables.CLASS));
+        map.put(KernelVariables.PREVIOUS, "changed");
+        Assert.assertEquals(2, map.size());
+        final VariableArrayMap<String> copy = new VariableArrayMap<String>(map);
+        map.clear();
+        Assert.assertNull(map.get(KernelVariables.PREVIOUS));
+        Assert.assertEquals("changed", copy.get(KernelVariables.PREVIOUS));
+    }
+    
+    /**
+     * Test two variables with the same ID can be in the same map
+     */
+    @Test
+    public void testSameId() {
+        final VariableArrayMap<String> map = new VariableArrayMap<String>();
+        map.put(KernelVariables.PREVIOUS, "previous");
+        map.put(OtherVariables.FOURTH, "fourth");
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals("previous", map.get(KernelVariables.PREVIOUS));
+        Assert.assertEquals("fourth", map.get(OtherVariables.FOURTH));
+    }
+    
+    /**
+     * Test variables with sparse IDs get dense slots
+     */
+    @Test
+    public void testSparseIds() {
+        final VariableArrayMap<String> map = new VariableArrayMap<String>();
+        for (final SparseVariables variable : SparseVariables.values())
+            map.put(variable, variable.getName());
+        Assert.assertTrue(map.capacity() < SparseVariables.values()[0]
+                .getVariableId());
+        for (final SparseVariables variable : SparseVariables.values())
+            Assert.assertEquals(variable.getName(), map.get(variable));
+    }
+}